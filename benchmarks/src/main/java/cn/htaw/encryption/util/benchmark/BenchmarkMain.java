@@ -0,0 +1,38 @@
+package cn.htaw.encryption.util.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口
+ * 在JMH命令行参数的基础上默认启用GC分析器（统计每次操作的分配字节数），
+ * 并以JSON格式输出结果到 jmh-result.json，便于跨版本对比。
+ * 示例：java -jar benchmarks.jar SM4Benchmark -p payloadSize=1024 -rff sm4.json
+ */
+public class BenchmarkMain {
+    // 默认结果文件
+    private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(cmdOptions);
+
+        if (!cmdOptions.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cmdOptions.getResult().hasValue()) {
+            builder.result(DEFAULT_RESULT_FILE);
+        }
+        if (cmdOptions.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+}
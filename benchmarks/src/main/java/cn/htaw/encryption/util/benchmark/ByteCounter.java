@@ -0,0 +1,21 @@
+package cn.htaw.encryption.util.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 字节计数器：JMH按计数值除以耗时输出，即每秒处理的字节数
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ByteCounter {
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void clean() {
+        bytes = 0;
+    }
+}
@@ -0,0 +1,97 @@
+package cn.htaw.encryption.util.benchmark;
+
+import cn.htaw.encryption.util.SM2PublicKey;
+import cn.htaw.encryption.util.SM2Util;
+import cn.htaw.encryption.util.SM4Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SM2密钥生成、加密（包装SM4密钥）、解密的每秒操作数
+ * encryptBatch/decryptBatch在公共线程池中批量处理，按单项计算每秒操作数
+ * encrypt经公钥句柄缓存，encryptUncached每次重新解码公钥，encryptHandle直接使用已解码的句柄
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SM2Benchmark {
+    private static final int BATCH_SIZE = 256;
+
+    private byte[] publicKey;
+    private byte[] privateKey;
+    private byte[] sm4Key;
+    private byte[] wrappedKey;
+    private SM2PublicKey publicKeyHandle;
+    private List<byte[]> sm4Keys;
+    private List<byte[]> wrappedKeys;
+
+    @Setup
+    public void setup() throws Exception {
+        Map<String, byte[]> keys = SM2Util.generateKeyPair(false);
+        publicKey = keys.get("publicKey");
+        privateKey = keys.get("privateKey");
+        sm4Key = SM4Util.generateKey();
+        wrappedKey = SM2Util.encrypt(publicKey, sm4Key);
+        publicKeyHandle = SM2PublicKey.decode(publicKey).precompute();
+        sm4Keys = new ArrayList<>(BATCH_SIZE);
+        wrappedKeys = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            sm4Keys.add(SM4Util.generateKey());
+            wrappedKeys.add(SM2Util.encrypt(publicKey, sm4Keys.get(i)));
+        }
+    }
+
+    @Benchmark
+    public Map<String, byte[]> generateKeyPair() throws Exception {
+        return SM2Util.generateKeyPair();
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        return SM2Util.encrypt(publicKey, sm4Key);
+    }
+
+    @Benchmark
+    public byte[] encryptUncached() throws Exception {
+        return SM2Util.encrypt(SM2PublicKey.decode(publicKey), sm4Key);
+    }
+
+    @Benchmark
+    public byte[] encryptHandle() throws Exception {
+        return SM2Util.encrypt(publicKeyHandle, sm4Key);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return SM2Util.decrypt(privateKey, wrappedKey);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<SM2Util.BatchResult> encryptBatch() throws Exception {
+        return SM2Util.encryptBatch(publicKey, sm4Keys);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<SM2Util.BatchResult> decryptBatch() throws Exception {
+        return SM2Util.decryptBatch(privateKey, wrappedKeys);
+    }
+}
@@ -0,0 +1,94 @@
+package cn.htaw.encryption.util.benchmark;
+
+import cn.htaw.encryption.util.SM4Context;
+import cn.htaw.encryption.util.SM4Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SM4各模式在不同数据长度下的吞吐量（ByteCounter.bytes即每秒字节数）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SM4Benchmark {
+    @Param({"16", "1024", "65536", "1048576", "67108864"})
+    public int payloadSize;
+
+    private byte[] key;
+    private byte[] iv;
+    private byte[] nonce;
+    private byte[] plain;
+    private byte[] cbcCipher;
+    private byte[] out;
+    private SM4Context cbcContext;
+
+    @Setup
+    public void setup() throws Exception {
+        key = SM4Util.generateKey();
+        iv = SM4Util.generateIV();
+        nonce = Arrays.copyOf(SM4Util.generateIV(), SM4Util.GCM_NONCE_SIZE);
+        plain = new byte[payloadSize];
+        new Random(42).nextBytes(plain);
+        cbcCipher = SM4Util.encrypt(key, iv, plain);
+        out = new byte[payloadSize + 2 * SM4Util.IV_SIZE];
+        cbcContext = new SM4Context(SM4Context.Mode.CBC, key);
+    }
+
+    @Benchmark
+    public byte[] cbcEncrypt(ByteCounter counter) throws Exception {
+        counter.bytes += payloadSize;
+        return SM4Util.encrypt(key, iv, plain);
+    }
+
+    @Benchmark
+    public byte[] cbcDecrypt(ByteCounter counter) throws Exception {
+        counter.bytes += payloadSize;
+        return SM4Util.decrypt(key, iv, cbcCipher);
+    }
+
+    /**
+     * 复用上下文并写入预分配数组，衡量去掉分配后的开销
+     */
+    @Benchmark
+    public int cbcEncryptContext(ByteCounter counter) throws Exception {
+        counter.bytes += payloadSize;
+        cbcContext.init(true, iv);
+        return cbcContext.doFinal(plain, 0, plain.length, out, 0);
+    }
+
+    @Benchmark
+    public byte[] ctrEncrypt(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        return SM4Util.encryptCTR(key, iv, plain);
+    }
+
+    @Benchmark
+    public byte[] ctrEncryptParallel(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        return SM4Util.processCTRParallel(key, iv, plain, null);
+    }
+
+    @Benchmark
+    public byte[] gcmEncrypt(ByteCounter counter) throws Exception {
+        counter.bytes += payloadSize;
+        // 基准测试中重复使用nonce仅为测量性能，实际使用时同一密钥下nonce不可重复
+        return SM4Util.encryptGCM(key, nonce, null, plain);
+    }
+}
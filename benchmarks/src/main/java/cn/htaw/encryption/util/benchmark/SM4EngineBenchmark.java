@@ -0,0 +1,121 @@
+package cn.htaw.encryption.util.benchmark;
+
+import cn.htaw.encryption.util.SM4FastEngine;
+import cn.htaw.encryption.util.SM4Util;
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.engines.SM4Engine;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SM4分组引擎对比：BouncyCastle的SM4Engine与查表实现的SM4FastEngine（ByteCounter.bytes即每秒字节数）
+ * bcCbc与fastCbc经CBCBlockCipher逐分组调用，对应替换引擎后各模式的收益；fastCbcEncryptBlocks/fastCbcDecryptBlocks
+ * 直接调用引擎的多分组CBC方法（分段CBC使用）；bcKeySetup与fastKeySetup每次重新扩展密钥（每个分段、每次init的开销）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SM4EngineBenchmark {
+    @Param({"16", "1024", "65536", "1048576"})
+    public int payloadSize;
+
+    private byte[] key;
+    private byte[] iv;
+    private byte[] plain;
+    private byte[] out;
+    private KeyParameter keyParam;
+    private CBCBlockCipher bcCbc;
+    private CBCBlockCipher fastCbc;
+    private SM4FastEngine fastEngine;
+
+    @Setup
+    public void setup() {
+        key = SM4Util.generateKey();
+        iv = SM4Util.generateIV();
+        plain = new byte[payloadSize];
+        new Random(42).nextBytes(plain);
+        out = new byte[payloadSize];
+        keyParam = new KeyParameter(key);
+        bcCbc = new CBCBlockCipher(new SM4Engine());
+        fastCbc = new CBCBlockCipher(new SM4FastEngine());
+        fastEngine = new SM4FastEngine(key);
+    }
+
+    @Benchmark
+    public byte[] bcCbcEncrypt(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        return cbc(bcCbc, true);
+    }
+
+    @Benchmark
+    public byte[] bcCbcDecrypt(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        return cbc(bcCbc, false);
+    }
+
+    @Benchmark
+    public byte[] fastCbcEncrypt(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        return cbc(fastCbc, true);
+    }
+
+    @Benchmark
+    public byte[] fastCbcDecrypt(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        return cbc(fastCbc, false);
+    }
+
+    @Benchmark
+    public byte[] fastCbcEncryptBlocks(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        fastEngine.encryptCBC(iv.clone(), plain, 0, payloadSize, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] fastCbcDecryptBlocks(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        fastEngine.decryptCBC(iv.clone(), plain, 0, payloadSize, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public int bcKeySetup() {
+        BlockCipher engine = new SM4Engine();
+        engine.init(true, new KeyParameter(key));
+        return engine.processBlock(plain, 0, out, 0);
+    }
+
+    @Benchmark
+    public int fastKeySetup() {
+        BlockCipher engine = new SM4FastEngine();
+        engine.init(true, new KeyParameter(key));
+        return engine.processBlock(plain, 0, out, 0);
+    }
+
+    private byte[] cbc(CBCBlockCipher cipher, boolean encrypt) {
+        cipher.init(encrypt, new ParametersWithIV(keyParam, iv));
+        for (int off = 0; off < payloadSize; off += SM4Util.IV_SIZE) {
+            cipher.processBlock(plain, off, out, off);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,118 @@
+package cn.htaw.encryption.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 基于FileChannel的文件输入流
+ * <ul>
+ * <li>CHANNEL：使用直接缓冲区大块读取，读取长度不小于缓冲区时直接读入调用方数组</li>
+ * <li>MAPPED：按窗口将文件映射到内存，读取时直接从映射区复制，不经过read系统调用</li>
+ * </ul>
+ * 映射窗口在Java 8中无法主动释放，由GC回收。非线程安全。
+ */
+class ChannelInputStream extends InputStream {
+    // 映射窗口大小：64MB
+    static final int MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final FileChannel channel;
+    private final boolean mapped;
+    // 下一个映射窗口的起始位置（MAPPED）
+    private long mapPosition;
+    private ByteBuffer buffer;
+
+    ChannelInputStream(FileChannel channel, int bufferSize, boolean mapped) throws IOException {
+        this.channel = channel;
+        this.mapped = mapped;
+        if (mapped) {
+            mapPosition = channel.position();
+            buffer = EMPTY;
+        } else {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+            buffer.flip();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            if (!mapped && len >= buffer.capacity()) {
+                // 大块读取直接读入调用方数组，省去一次复制
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + (int) skipped);
+        long rest = n - skipped;
+        if (rest > 0) {
+            if (mapped) {
+                long step = Math.min(rest, Math.max(0, channel.size() - mapPosition));
+                mapPosition += step;
+                skipped += step;
+            } else {
+                long position = channel.position();
+                long step = Math.min(rest, Math.max(0, channel.size() - position));
+                channel.position(position + step);
+                skipped += step;
+            }
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = EMPTY;
+        channel.close();
+    }
+
+    private boolean fill() throws IOException {
+        if (mapped) {
+            // 每次重新获取文件大小，以便发现读取过程中文件被追加
+            long remaining = channel.size() - mapPosition;
+            if (remaining <= 0) {
+                return false;
+            }
+            int length = (int) Math.min(MAP_WINDOW_SIZE, remaining);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapPosition, length);
+            mapPosition += length;
+            return true;
+        }
+        buffer.clear();
+        int n = channel.read(buffer);
+        buffer.flip();
+        return n > 0;
+    }
+}
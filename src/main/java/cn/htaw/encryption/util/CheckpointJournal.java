@@ -0,0 +1,212 @@
+package cn.htaw.encryption.util;
+
+import org.bouncycastle.crypto.digests.SM3Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.util.Arrays;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 断点续加密日志：与输出文件同目录的 输出文件名.journal
+ * <pre>
+ * int(魔数"SM4J") + byte(版本) + long(输入文件长度) + long(输入文件修改时间)
+ * + long(已加密的明文字节数) + long(输出文件有效长度) + 链接状态(16字节) + HMAC-SM3(32字节)
+ * </pre>
+ * 链接状态为v1（整体CBC）最后一个密文分组，即续加密时的IV；v2各分段互不依赖，链接状态为全0。
+ * HMAC密钥由文件密钥派生，文件密钥只以SM2加密的形式保存在输出文件头部，日志本身不含任何密钥；
+ * 续加密时须先用SM2私钥解出文件密钥才能校验日志。
+ * 日志先写入临时文件再原子替换，进程在任意时刻退出都不会留下半条记录；
+ * 保存日志前输出已落盘（{@link FileChannel#force}），日志记录的密文在断电后也不会丢失或残缺，进程被取消、异常退出或断电后均可续加密。
+ */
+class CheckpointJournal {
+    // 魔数："SM4J"
+    static final int MAGIC = 0x534D344A;
+    static final int VERSION_1 = 1;
+    static final String SUFFIX = ".journal";
+
+    private static final int BLOCK_SIZE = 16;
+    private static final int MAC_SIZE = 32;
+    private static final int BODY_LENGTH = 4 + 1 + 8 + 8 + 8 + 8 + BLOCK_SIZE;
+    private static final byte[] MAC_LABEL = "SM4F checkpoint journal".getBytes(StandardCharsets.US_ASCII);
+
+    private final File file;
+    private final File tempFile;
+    private final File outputFile;
+    private final File inputFile;
+    private final byte[] macKey;
+    private final long interval;
+    // 已加密并写出的明文字节数、输出文件有效长度、链接状态
+    private long plaintextOffset;
+    private long outputLength;
+    private final byte[] chain;
+    private long lastCheckpoint;
+
+    /**
+     * @param sm4Key 文件密钥（用于派生日志HMAC密钥）
+     * @param interval 两次保存之间至少加密的明文字节数，0表示不保存（续加密完成后仍会删除旧日志）
+     * @param plaintextOffset 起始明文偏移（新任务为0）
+     * @param outputLength 起始输出长度（新任务为头部长度）
+     * @param chain 起始链接状态（v1为IV）
+     */
+    CheckpointJournal(File outputFile, File inputFile, byte[] sm4Key, long interval,
+                      long plaintextOffset, long outputLength, byte[] chain) {
+        this.file = journalFile(outputFile);
+        this.tempFile = new File(file.getPath() + ".tmp");
+        this.outputFile = outputFile;
+        this.inputFile = inputFile;
+        this.macKey = deriveMacKey(sm4Key);
+        this.interval = interval;
+        this.plaintextOffset = plaintextOffset;
+        this.outputLength = outputLength;
+        this.chain = chain.clone();
+        this.lastCheckpoint = plaintextOffset;
+    }
+
+    static File journalFile(File outputFile) {
+        return new File(outputFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * 记录写出了一段完整的密文
+     * @param plaintextBytes 对应的明文字节数
+     * @param outputBytes 写出的字节数
+     */
+    void advance(long plaintextBytes, long outputBytes) {
+        plaintextOffset += plaintextBytes;
+        outputLength += outputBytes;
+    }
+
+    /**
+     * 更新链接状态：src[off, off+16)
+     */
+    void setChain(byte[] src, int off) {
+        System.arraycopy(src, off, chain, 0, BLOCK_SIZE);
+    }
+
+    /**
+     * 自上次保存以来加密的明文达到保存间隔时保存断点：先将输出刷入操作系统并落盘，再原子替换日志
+     */
+    void checkpoint(OutputStream out) throws IOException {
+        if (interval <= 0 || plaintextOffset - lastCheckpoint < interval) {
+            return;
+        }
+        out.flush();
+        // 日志只校验输出长度（v2 CBC/CTR分段也没有认证标签），须先让它描述的密文落盘，
+        // 否则断电后日志已保存而密文区域为空或是旧数据，续加密会越过这段数据。fsync作用于整个文件，可另开通道执行
+        try (FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        save();
+        lastCheckpoint = plaintextOffset;
+    }
+
+    private void save() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BODY_LENGTH + MAC_SIZE);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION_1);
+        data.writeLong(inputFile.length());
+        data.writeLong(inputFile.lastModified());
+        data.writeLong(plaintextOffset);
+        data.writeLong(outputLength);
+        data.write(chain);
+        byte[] record = bytes.toByteArray();
+        byte[] mac = mac(macKey, record);
+
+        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+            fos.write(record);
+            fos.write(mac);
+            fos.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 加密完成后删除日志
+     */
+    void delete() {
+        file.delete();
+        tempFile.delete();
+    }
+
+    /**
+     * 读取并校验断点
+     * @param sm4Key 从输出文件头部解出的文件密钥
+     * @throws IOException 日志不存在、已损坏、与文件密钥不匹配或输入文件已被修改
+     */
+    static Entry load(File outputFile, File inputFile, byte[] sm4Key) throws IOException {
+        File file = journalFile(outputFile);
+        if (!file.isFile()) {
+            throw new IOException("未找到断点日志: " + file.getPath());
+        }
+        byte[] content = Files.readAllBytes(file.toPath());
+        if (content.length != BODY_LENGTH + MAC_SIZE) {
+            throw new IOException("断点日志已损坏: " + file.getPath());
+        }
+        byte[] record = Arrays.copyOfRange(content, 0, BODY_LENGTH);
+        byte[] mac = Arrays.copyOfRange(content, BODY_LENGTH, content.length);
+        if (!Arrays.constantTimeAreEqual(mac, mac(deriveMacKey(sm4Key), record))) {
+            throw new IOException("断点日志校验失败（与输出文件不匹配或已被篡改）");
+        }
+
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+        if (data.readInt() != MAGIC || data.readUnsignedByte() != VERSION_1) {
+            throw new IOException("不支持的断点日志格式");
+        }
+        long inputLength = data.readLong();
+        long inputLastModified = data.readLong();
+        if (inputLength != inputFile.length() || inputLastModified != inputFile.lastModified()) {
+            throw new IOException("输入文件在上次加密后已被修改，无法续加密");
+        }
+        long plaintextOffset = data.readLong();
+        long outputLength = data.readLong();
+        byte[] chain = new byte[BLOCK_SIZE];
+        data.readFully(chain);
+        if (plaintextOffset < 0 || plaintextOffset > inputLength || outputLength > outputFile.length()) {
+            throw new IOException("断点日志与输出文件不符，文件可能已损坏");
+        }
+        return new Entry(plaintextOffset, outputLength, chain);
+    }
+
+    private static byte[] deriveMacKey(byte[] sm4Key) {
+        return mac(sm4Key, MAC_LABEL);
+    }
+
+    private static byte[] mac(byte[] key, byte[] data) {
+        HMac hmac = new HMac(new SM3Digest());
+        hmac.init(new KeyParameter(key));
+        hmac.update(data, 0, data.length);
+        byte[] result = new byte[MAC_SIZE];
+        hmac.doFinal(result, 0);
+        return result;
+    }
+
+    /**
+     * 一条已校验的断点记录
+     */
+    static final class Entry {
+        final long plaintextOffset;
+        final long outputLength;
+        final byte[] chain;
+
+        Entry(long plaintextOffset, long outputLength, byte[] chain) {
+            this.plaintextOffset = plaintextOffset;
+            this.outputLength = outputLength;
+            this.chain = chain;
+        }
+    }
+}
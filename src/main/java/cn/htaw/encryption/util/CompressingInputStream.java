@@ -0,0 +1,146 @@
+package cn.htaw.encryption.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+
+/**
+ * 分块自适应压缩输入流：把明文按块压缩为帧序列，作为v2/v3分段加密的明文（头部标志位 {@link FileHeader#FLAG_COMPRESSED}）
+ * <pre>
+ * 帧 = int(原始长度) + int(存储长度) + 数据
+ * </pre>
+ * 每块原始长度不超过 {@link #CHUNK_SIZE}；存储长度小于原始长度时数据为Deflate（无zlib头）压缩结果，等于时为原样存储。
+ * 每块先试压缩开头4KB，压缩率不足时（已压缩的图片、视频、压缩包等）整块原样存储，不再压缩全块；
+ * 整块压缩后没有变小的同样原样存储。同一时刻只缓存一块，内存占用与文件大小无关。非线程安全。
+ * @see DecompressingOutputStream
+ */
+class CompressingInputStream extends InputStream {
+    // 每块原始长度上限，解压端按此分配缓冲区
+    static final int CHUNK_SIZE = 256 * 1024;
+    static final int FRAME_HEADER_SIZE = 8;
+
+    // 试压缩的长度
+    private static final int PROBE_SIZE = 4096;
+    // 试压缩结果超过原长度的该比例时视为不可压缩
+    private static final double PROBE_RATIO = 0.9;
+
+    private final InputStream in;
+    private final Deflater deflater;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private final byte[] frame = new byte[FRAME_HEADER_SIZE + CHUNK_SIZE];
+    private final byte[] probe = new byte[PROBE_SIZE + 64];
+    private int frameLength;
+    private int framePosition;
+    private boolean eof;
+    // 已读取的原始字节数（供其他线程计算进度）
+    private volatile long consumed;
+
+    /**
+     * @param level Deflate压缩级别（1~9）
+     */
+    CompressingInputStream(InputStream in, int level) {
+        this.in = in;
+        this.deflater = new Deflater(level, true);
+    }
+
+    /**
+     * 已读取的原始字节数
+     */
+    long getConsumed() {
+        return consumed;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (framePosition == frameLength && !nextFrame()) {
+            return -1;
+        }
+        return frame[framePosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (framePosition == frameLength && !nextFrame()) {
+            return -1;
+        }
+        int n = Math.min(len, frameLength - framePosition);
+        System.arraycopy(frame, framePosition, b, off, n);
+        framePosition += n;
+        return n;
+    }
+
+    /**
+     * 读取下一块并生成帧，输入结束时返回false
+     */
+    private boolean nextFrame() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int n = FileCryptoEngine.readFully(in, chunk, 0, CHUNK_SIZE);
+        if (n < CHUNK_SIZE) {
+            eof = true;
+        }
+        if (n == 0) {
+            return false;
+        }
+        consumed += n;
+
+        int stored = compressible(n) ? deflate(n) : -1;
+        if (stored < 0) {
+            stored = n;
+            System.arraycopy(chunk, 0, frame, FRAME_HEADER_SIZE, n);
+        }
+        writeInt(frame, 0, n);
+        writeInt(frame, 4, stored);
+        frameLength = FRAME_HEADER_SIZE + stored;
+        framePosition = 0;
+        return true;
+    }
+
+    /**
+     * 试压缩开头一小段，估计整块是否值得压缩
+     */
+    private boolean compressible(int n) {
+        if (n <= PROBE_SIZE) {
+            return true;
+        }
+        deflater.reset();
+        deflater.setInput(chunk, 0, PROBE_SIZE);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished() && length < probe.length) {
+            length += deflater.deflate(probe, length, probe.length - length);
+        }
+        return deflater.finished() && length < PROBE_SIZE * PROBE_RATIO;
+    }
+
+    /**
+     * 压缩整块到帧数据区，压缩结果不小于原长度时返回-1
+     */
+    private int deflate(int n) {
+        deflater.reset();
+        deflater.setInput(chunk, 0, n);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished() && length < n) {
+            length += deflater.deflate(frame, FRAME_HEADER_SIZE + length, n - length);
+        }
+        return deflater.finished() && length < n ? length : -1;
+    }
+
+    private static void writeInt(byte[] b, int off, int value) {
+        b[off] = (byte) (value >>> 24);
+        b[off + 1] = (byte) (value >>> 16);
+        b[off + 2] = (byte) (value >>> 8);
+        b[off + 3] = (byte) value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        in.close();
+    }
+}
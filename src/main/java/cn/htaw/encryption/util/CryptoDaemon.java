@@ -0,0 +1,333 @@
+package cn.htaw.encryption.util;
+
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本机加解密守护进程：常驻JVM，BouncyCastle、曲线参数、公钥预计算表、线程池和JIT编译结果在各请求间复用，
+ * 脚本经回环地址上的TCP连接提交加密/解密/校验/更换密钥请求，省去每次启动JVM的开销。
+ * Java 8不支持Unix域套接字，因此只监听 127.0.0.1，并以令牌文件（仅属主可读）鉴权。
+ * <pre>
+ * 握手：客户端发送 int(魔数"SM4D") + byte(协议版本) + 令牌(32字节)，服务端回复 byte(状态)
+ * 请求：byte(操作) + UTF(输入路径) + UTF(输出路径，校验/更换密钥时为空串) + short(公钥数量) + [int(长度) + 公钥] × N
+ * 响应：byte(状态)；成功时 + long(输入字节数) + long(输出字节数) + long(耗时微秒)，失败时 + UTF(错误信息)
+ * </pre>
+ * 令牌文件内容为令牌的十六进制字符串。整数均为大端，UTF为 {@link DataOutputStream#writeUTF} 格式。一个连接上可依次发送任意多个请求，
+ * 加密时公钥数量为0表示使用守护进程加载的默认公钥，更换密钥时公钥为新接收方。
+ * 路径由守护进程解析，建议使用绝对路径。
+ */
+public class CryptoDaemon implements Closeable {
+    // 魔数："SM4D"
+    public static final int MAGIC = 0x534D3444;
+    public static final int PROTOCOL_VERSION = 1;
+    public static final int DEFAULT_PORT = 17820;
+    public static final int TOKEN_LENGTH = 32;
+
+    // 操作
+    public static final int OP_ENCRYPT = 1;
+    public static final int OP_DECRYPT = 2;
+    public static final int OP_VERIFY = 3;
+    public static final int OP_REKEY = 4;
+    public static final int OP_PING = 5;
+
+    // 响应状态
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_ERROR = 1;
+    public static final int STATUS_AUTH_FAILED = 2;
+
+    // 单个请求中公钥数量和长度上限
+    private static final int MAX_KEYS = FileHeader.MAX_RECIPIENTS;
+    private static final int MAX_KEY_LENGTH = 1024;
+    // 握手超时（毫秒），防止未鉴权的连接长期占用处理线程
+    private static final int HANDSHAKE_TIMEOUT = 10_000;
+
+    private final FileCryptoEngine engine;
+    private final byte[] privateKey;
+    private final List<byte[]> publicKeys;
+    private final byte[] token;
+    private final ServerSocket serverSocket;
+    private final ExecutorService handlers;
+    private final AtomicInteger handlerCount = new AtomicInteger();
+    // 当前连接数（运行指标）
+    private final AtomicInteger connections = new AtomicInteger();
+    private final CryptoMetrics.Registration connectionGauge;
+    // 空闲连接（握手中、等待处理线程或等待下一个请求），关闭守护进程时直接关闭以唤醒阻塞在读取上的处理线程
+    private final Set<Socket> idleSockets = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * 启动守护进程（监听但尚未接受连接，见 {@link #serve()}）
+     * @param privateKey SM2私钥（解密、校验和更换密钥时使用，为null时只能加密）
+     * @param publicKeys 默认接收方公钥（加密请求未指定公钥时使用，可为空）
+     * @param port 监听端口，0表示由系统分配
+     * @param tokenFile 令牌文件：启动时生成新令牌写入该文件（仅属主可读写），客户端读取后用于握手
+     * @param connections 同时处理的连接数
+     */
+    public CryptoDaemon(FileCryptoOptions options, byte[] privateKey, List<byte[]> publicKeys,
+                        int port, File tokenFile, int connections) throws Exception {
+        if (connections <= 0) {
+            throw new IllegalArgumentException("连接数必须大于0");
+        }
+        this.engine = new FileCryptoEngine(options);
+        this.privateKey = privateKey;
+        this.publicKeys = Collections.unmodifiableList(new ArrayList<>(publicKeys));
+        warmUp();
+
+        this.token = SecureRandomProvider.nextBytes(TOKEN_LENGTH);
+        writeToken(tokenFile, token);
+
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), connections);
+        this.handlers = Executors.newFixedThreadPool(connections, r -> {
+            Thread thread = new Thread(r, "crypto-daemon-" + handlerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.connectionGauge = CryptoMetrics.registerGauge("daemon.connections", this.connections::get);
+    }
+
+    /**
+     * 预热：解析默认公钥（建立预计算表缓存），并用默认密钥做几次SM2/SM4运算，触发类加载和JIT编译；
+     * 同时检查私钥与第一个公钥是否匹配
+     */
+    private void warmUp() throws Exception {
+        byte[] sample = SM4Util.generateKey();
+        for (byte[] publicKey : publicKeys) {
+            SM2Util.getPublicKey(publicKey);
+        }
+        for (int i = 0; i < 8 && !publicKeys.isEmpty(); i++) {
+            byte[] wrapped = SM2Util.encrypt(publicKeys.get(0), sample);
+            if (privateKey != null && !Arrays.areEqual(sample, SM2Util.decrypt(privateKey, wrapped))) {
+                throw new IllegalArgumentException("私钥与公钥不匹配");
+            }
+        }
+        byte[] buffer = new byte[64 * 1024];
+        byte[] out = new byte[buffer.length + SM4Util.IV_SIZE];
+        for (int i = 0; i < 16; i++) {
+            SM4Context context = new SM4Context(SM4Context.Mode.CBC, sample);
+            context.init(true, SM4Util.generateIV());
+            context.doFinal(buffer, 0, buffer.length, out, 0);
+        }
+    }
+
+    private static void writeToken(File tokenFile, byte[] token) throws IOException {
+        File parent = tokenFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IOException("令牌文件目录不存在且无法创建: " + parent.getPath());
+        }
+        Files.deleteIfExists(tokenFile.toPath());
+        try {
+            Files.createFile(tokenFile.toPath(),
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // 非POSIX文件系统（Windows）依赖用户目录本身的访问控制
+            Files.createFile(tokenFile.toPath());
+        }
+        Files.write(tokenFile.toPath(), Hex.encode(token), StandardOpenOption.WRITE);
+    }
+
+    /**
+     * 实际监听的端口
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * 接受连接直至 {@link #close()}，每个连接由处理线程池中的一个线程服务
+     */
+    public void serve() throws IOException {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (closed) {
+                    return;
+                }
+                throw e;
+            }
+            idleSockets.add(socket);
+            if (closed) {
+                closeQuietly(socket);
+                return;
+            }
+            handlers.execute(() -> handle(socket));
+        }
+    }
+
+    private void handle(Socket socket) {
+        connections.incrementAndGet();
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setTcpNoDelay(true);
+            s.setSoTimeout(HANDSHAKE_TIMEOUT);
+            if (!handshake(in, out)) {
+                return;
+            }
+            s.setSoTimeout(0);
+            while (!closed) {
+                int op;
+                try {
+                    op = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                // 处理请求期间不算空闲，close()等待其完成
+                idleSockets.remove(s);
+                handleRequest(op, in, out);
+                out.flush();
+                idleSockets.add(s);
+            }
+        } catch (IOException e) {
+            // 客户端断开、协议错误或守护进程已关闭，关闭该连接
+        } finally {
+            idleSockets.remove(socket);
+            connections.decrementAndGet();
+        }
+    }
+
+    private boolean handshake(DataInputStream in, DataOutputStream out) throws IOException {
+        byte[] received = new byte[TOKEN_LENGTH];
+        boolean valid = in.readInt() == MAGIC & in.readUnsignedByte() == PROTOCOL_VERSION;
+        in.readFully(received);
+        valid &= Arrays.constantTimeAreEqual(token, received);
+        out.writeByte(valid ? STATUS_OK : STATUS_AUTH_FAILED);
+        out.flush();
+        return valid;
+    }
+
+    private void handleRequest(int op, DataInputStream in, DataOutputStream out) throws IOException {
+        String input = in.readUTF();
+        String output = in.readUTF();
+        int count = in.readUnsignedShort();
+        if (count > MAX_KEYS) {
+            throw new IOException("公钥数量无效");
+        }
+        List<byte[]> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_KEY_LENGTH) {
+                throw new IOException("公钥长度无效");
+            }
+            byte[] key = new byte[length];
+            in.readFully(key);
+            keys.add(key);
+        }
+
+        long startTime = System.nanoTime();
+        FileCryptoResult result;
+        try {
+            result = execute(op, input, output, keys);
+        } catch (Exception e) {
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            out.writeByte(STATUS_ERROR);
+            // writeUTF最多65535字节
+            out.writeUTF(message.length() > 8192 ? message.substring(0, 8192) : message);
+            return;
+        }
+        out.writeByte(STATUS_OK);
+        out.writeLong(result.getInputLength());
+        out.writeLong(result.getOutputLength());
+        out.writeLong(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
+    }
+
+    private FileCryptoResult execute(int op, String input, String output, List<byte[]> keys) throws Exception {
+        File inputFile = new File(input);
+        switch (op) {
+            case OP_PING:
+                return new FileCryptoResult(0, 0, null, null);
+            case OP_ENCRYPT: {
+                List<byte[]> recipients = keys.isEmpty() ? publicKeys : keys;
+                if (recipients.isEmpty()) {
+                    throw new IllegalArgumentException("守护进程未加载公钥，请求中须指定接收方公钥");
+                }
+                File outputFile = new File(output);
+                try {
+                    return engine.encrypt(inputFile, outputFile, recipients, null);
+                } catch (Exception e) {
+                    if (!CheckpointJournal.journalFile(outputFile).isFile()) {
+                        outputFile.delete();
+                    }
+                    throw e;
+                }
+            }
+            case OP_DECRYPT: {
+                File outputFile = new File(output);
+                try {
+                    return engine.decrypt(inputFile, outputFile, requirePrivateKey(), null);
+                } catch (Exception e) {
+                    outputFile.delete();
+                    throw e;
+                }
+            }
+            case OP_VERIFY:
+                return engine.verify(inputFile, requirePrivateKey(), null);
+            case OP_REKEY:
+                if (keys.isEmpty()) {
+                    throw new IllegalArgumentException("更换密钥须指定新接收方公钥");
+                }
+                engine.rekey(inputFile, requirePrivateKey(), keys);
+                return new FileCryptoResult(inputFile.length(), inputFile.length(), null, null);
+            default:
+                throw new IllegalArgumentException("未知操作: " + op);
+        }
+    }
+
+    private byte[] requirePrivateKey() {
+        if (privateKey == null) {
+            throw new IllegalArgumentException("守护进程未加载私钥，只能加密");
+        }
+        return privateKey;
+    }
+
+    /**
+     * 停止接受连接并关闭空闲连接，正在处理的请求完成（响应已发出）后其连接关闭
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        connectionGauge.close();
+        serverSocket.close();
+        // 先置closed再关闭：处理线程放回空闲集合后会检查closed，不会漏掉刚处理完请求的连接
+        for (Socket socket : idleSockets) {
+            closeQuietly(socket);
+        }
+        handlers.shutdown();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+}
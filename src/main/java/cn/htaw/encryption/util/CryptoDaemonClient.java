@@ -0,0 +1,162 @@
+package cn.htaw.encryption.util;
+
+import org.bouncycastle.util.encoders.Hex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link CryptoDaemon} 的客户端：一个实例对应一个连接，可依次发送任意多个请求。非线程安全，并发请求时每个线程应各自连接。
+ */
+public class CryptoDaemonClient implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * 连接本机守护进程并用令牌文件中的令牌握手
+     */
+    public CryptoDaemonClient(int port, File tokenFile) throws IOException {
+        byte[] token;
+        try {
+            token = Hex.decode(new String(Files.readAllBytes(tokenFile.toPath()), StandardCharsets.US_ASCII).trim());
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            token = null;
+        }
+        if (token == null || token.length != CryptoDaemon.TOKEN_LENGTH) {
+            throw new IOException("令牌文件格式错误: " + tokenFile.getPath());
+        }
+        socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(CryptoDaemon.MAGIC);
+            out.writeByte(CryptoDaemon.PROTOCOL_VERSION);
+            out.write(token);
+            out.flush();
+            if (in.readUnsignedByte() != CryptoDaemon.STATUS_OK) {
+                throw new IOException("守护进程拒绝连接：令牌或协议版本不匹配");
+            }
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 加密文件
+     * @param publicKeys 接收方公钥，为空时使用守护进程加载的默认公钥
+     */
+    public Result encrypt(File inputFile, File outputFile, List<byte[]> publicKeys) throws IOException {
+        return request(CryptoDaemon.OP_ENCRYPT, inputFile.getAbsolutePath(), outputFile.getAbsolutePath(), publicKeys);
+    }
+
+    /**
+     * 用守护进程加载的私钥解密文件
+     */
+    public Result decrypt(File inputFile, File outputFile) throws IOException {
+        return request(CryptoDaemon.OP_DECRYPT, inputFile.getAbsolutePath(), outputFile.getAbsolutePath(),
+                Collections.<byte[]>emptyList());
+    }
+
+    /**
+     * 只校验加密文件的完整性
+     */
+    public Result verify(File inputFile) throws IOException {
+        return request(CryptoDaemon.OP_VERIFY, inputFile.getAbsolutePath(), "", Collections.<byte[]>emptyList());
+    }
+
+    /**
+     * 用守护进程加载的私钥解出文件密钥，更换为新接收方（只重写头部）
+     */
+    public Result rekey(File file, List<byte[]> newPublicKeys) throws IOException {
+        return request(CryptoDaemon.OP_REKEY, file.getAbsolutePath(), "", newPublicKeys);
+    }
+
+    /**
+     * 空请求，用于检查连接和测量往返延迟
+     */
+    public Result ping() throws IOException {
+        return request(CryptoDaemon.OP_PING, "", "", Collections.<byte[]>emptyList());
+    }
+
+    private Result request(int op, String input, String output, List<byte[]> keys) throws IOException {
+        out.writeByte(op);
+        out.writeUTF(input);
+        out.writeUTF(output);
+        out.writeShort(keys.size());
+        for (byte[] key : keys) {
+            out.writeInt(key.length);
+            out.write(key);
+        }
+        out.flush();
+
+        int status = in.readUnsignedByte();
+        if (status != CryptoDaemon.STATUS_OK) {
+            throw new DaemonException(in.readUTF());
+        }
+        return new Result(in.readLong(), in.readLong(), in.readLong());
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * 守护进程处理请求失败（连接仍可继续使用）
+     */
+    public static class DaemonException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public DaemonException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 请求结果
+     */
+    public static final class Result {
+        private final long inputLength;
+        private final long outputLength;
+        private final long elapsedMicros;
+
+        Result(long inputLength, long outputLength, long elapsedMicros) {
+            this.inputLength = inputLength;
+            this.outputLength = outputLength;
+            this.elapsedMicros = elapsedMicros;
+        }
+
+        public long getInputLength() {
+            return inputLength;
+        }
+
+        public long getOutputLength() {
+            return outputLength;
+        }
+
+        /**
+         * 守护进程处理请求的耗时（微秒，不含网络往返）
+         */
+        public long getElapsedMicros() {
+            return elapsedMicros;
+        }
+    }
+}
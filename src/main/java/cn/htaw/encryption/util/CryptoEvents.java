@@ -0,0 +1,314 @@
+package cn.htaw.encryption.util;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Java Flight Recorder自定义事件：录制时（如 {@code -XX:StartFlightRecording}）按文件和阶段记录加解密耗时，
+ * 无需另外挂接分析器即可区分时间花在SM2密钥加解密、读取、SM4加解密、写出还是SM3摘要上。
+ * <ul>
+ * <li>{@value #FILE_EVENT}：每个文件一次，含文件大小、输入/输出字节数和各阶段的累计耗时</li>
+ * <li>{@value #STAGE_EVENT}：每次SM2密钥加解密、每个流水线缓冲槽的读取/加解密/写出一次，含本次处理的字节数；
+ *     默认只提交耗时超过1ms的（v1缓冲区较小时事件过多），可在录制配置中将threshold设为0</li>
+ * </ul>
+ * 运行时没有JFR（Java 8u262之前）或未在录制时，每个文件只多一次判断，不创建阶段事件。
+ * 读取和写出的耗时包含经 {@link java.security.DigestInputStream} 同步计算SM3摘要的时间，摘要耗时另在文件事件中单列。
+ * <p>
+ * 事件类依赖 {@code jdk.jfr}，放在单独编译的 {@code src/main/jfr/.../JfrCryptoEvents} 中（pom的jfr配置，使用Java 11及以上构建时启用），
+ * 这里只通过 {@link Recorder} 等接口使用并在运行时反射加载，因此仍可用没有 {@code jdk.jfr} 的JDK 8构建，此时不产生事件。
+ */
+final class CryptoEvents {
+    /**
+     * 文件处理的阶段
+     */
+    enum Stage {
+        // SM2加密/解密SM4密钥
+        SM2_WRAP("sm2.wrap"),
+        SM2_UNWRAP("sm2.unwrap"),
+        // 流水线的三个阶段（按缓冲槽）
+        READ("read"),
+        CIPHER("cipher"),
+        WRITE("write"),
+        // 明文/密文文件的SM3摘要（调用次数多，只计入文件事件）
+        DIGEST("sm3.digest");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    static final String FILE_EVENT = "cn.htaw.encryption.File";
+    static final String STAGE_EVENT = "cn.htaw.encryption.Stage";
+
+    /**
+     * 事件工厂，由依赖jdk.jfr的JfrCryptoEvents实现
+     */
+    interface Recorder {
+        /**
+         * 运行时是否支持JFR
+         */
+        boolean isAvailable();
+
+        FileRecord newFileEvent();
+
+        StageRecord newStageEvent();
+    }
+
+    /**
+     * 一个JFR事件，方法与 {@code jdk.jfr.Event} 的同名方法一致
+     */
+    interface EventRecord {
+        boolean isEnabled();
+
+        void begin();
+
+        void end();
+
+        boolean shouldCommit();
+
+        void commit();
+
+        void setFile(String operation, String path, long fileSize);
+    }
+
+    /**
+     * 文件事件
+     */
+    interface FileRecord extends EventRecord {
+        void setResult(boolean success, long inputBytes, long outputBytes);
+
+        void setTimes(long keyTime, long readTime, long cipherTime, long writeTime, long digestTime, long digestBytes);
+    }
+
+    /**
+     * 阶段事件
+     */
+    interface StageRecord extends EventRecord {
+        void setStage(String stage, long bytes);
+    }
+
+    private static final String RECORDER_CLASS = "cn.htaw.encryption.util.JfrCryptoEvents";
+    // JFR不可用时为null
+    private static final Recorder RECORDER = loadRecorder();
+    private static final boolean AVAILABLE = RECORDER != null;
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    private CryptoEvents() {
+    }
+
+    private static Recorder loadRecorder() {
+        try {
+            Recorder recorder = (Recorder) Class.forName(RECORDER_CLASS).getDeclaredConstructor().newInstance();
+            return recorder.isAvailable() ? recorder : null;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // 未编译事件类（用JDK 8构建），或运行时没有jdk.jfr模块
+            return null;
+        }
+    }
+
+    /**
+     * 开始记录一个文件操作，并作为当前线程的作用域（在其中开始的流水线、SM2运算和SM3摘要计入该文件）
+     * @return 作用域，须调用 {@link Scope#close} 结束；JFR不可用或未录制时返回 {@link Scope#NONE}
+     */
+    static Scope open(String operation, File file) {
+        if (!AVAILABLE) {
+            return Scope.NONE;
+        }
+        FileRecord fileEvent = RECORDER.newFileEvent();
+        boolean stagesEnabled = RECORDER.newStageEvent().isEnabled();
+        if (!fileEvent.isEnabled() && !stagesEnabled) {
+            return Scope.NONE;
+        }
+        Scope scope = new Scope(operation, file.getPath(), file.length(), fileEvent, stagesEnabled, CURRENT.get());
+        CURRENT.set(scope);
+        fileEvent.begin();
+        return scope;
+    }
+
+    /**
+     * 当前线程所在的作用域，不在任何文件操作中时返回 {@link Scope#NONE}
+     */
+    static Scope current() {
+        if (!AVAILABLE) {
+            return Scope.NONE;
+        }
+        Scope scope = CURRENT.get();
+        return scope != null ? scope : Scope.NONE;
+    }
+
+    /**
+     * 一个文件操作的事件作用域。同一阶段同一时刻只在一个线程中执行（流水线每个阶段各占一个线程），
+     * 不同阶段可在不同线程中并发记录。
+     */
+    static final class Scope {
+        // 不记录任何事件
+        static final Scope NONE = new Scope();
+
+        private final boolean active;
+        private final String operation;
+        private final String path;
+        private final long fileSize;
+        private final FileRecord fileEvent;
+        private final boolean stagesEnabled;
+        private final Scope previous;
+        private final long[] starts;
+        private final StageRecord[] stageEvents;
+        private final AtomicLongArray nanos;
+        private final AtomicLongArray bytes;
+
+        private Scope() {
+            active = false;
+            operation = path = null;
+            fileSize = 0;
+            fileEvent = null;
+            stagesEnabled = false;
+            previous = null;
+            starts = null;
+            stageEvents = null;
+            nanos = bytes = null;
+        }
+
+        private Scope(String operation, String path, long fileSize, FileRecord fileEvent, boolean stagesEnabled,
+                      Scope previous) {
+            int stages = Stage.values().length;
+            this.active = true;
+            this.operation = operation;
+            this.path = path;
+            this.fileSize = fileSize;
+            this.fileEvent = fileEvent;
+            this.stagesEnabled = stagesEnabled;
+            this.previous = previous;
+            this.starts = new long[stages];
+            this.stageEvents = new StageRecord[stages];
+            this.nanos = new AtomicLongArray(stages);
+            this.bytes = new AtomicLongArray(stages);
+        }
+
+        boolean isActive() {
+            return active;
+        }
+
+        /**
+         * 阶段开始
+         */
+        void begin(Stage stage) {
+            if (!active) {
+                return;
+            }
+            if (stagesEnabled) {
+                StageRecord event = RECORDER.newStageEvent();
+                event.begin();
+                stageEvents[stage.ordinal()] = event;
+            }
+            starts[stage.ordinal()] = System.nanoTime();
+        }
+
+        /**
+         * 阶段结束
+         * @param processed 本次处理的字节数
+         */
+        void end(Stage stage, long processed) {
+            if (!active) {
+                return;
+            }
+            int i = stage.ordinal();
+            add(stage, System.nanoTime() - starts[i], processed);
+            StageRecord event = stageEvents[i];
+            if (event != null) {
+                stageEvents[i] = null;
+                event.end();
+                if (event.shouldCommit()) {
+                    event.setFile(operation, path, fileSize);
+                    event.setStage(stage.label, processed);
+                    event.commit();
+                }
+            }
+        }
+
+        private void add(Stage stage, long elapsed, long processed) {
+            nanos.addAndGet(stage.ordinal(), elapsed);
+            bytes.addAndGet(stage.ordinal(), processed);
+        }
+
+        /**
+         * 为SM3摘要计算器计时（耗时计入 {@link Stage#DIGEST}），不在作用域中时原样返回
+         */
+        MessageDigest timed(MessageDigest digest) {
+            return active ? new TimedDigest(digest, this) : digest;
+        }
+
+        /**
+         * 结束文件操作，提交文件事件并恢复外层作用域
+         * @param result 处理结果，失败时为null
+         */
+        void close(FileCryptoResult result) {
+            if (!active) {
+                return;
+            }
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+            fileEvent.end();
+            if (fileEvent.shouldCommit()) {
+                fileEvent.setFile(operation, path, fileSize);
+                fileEvent.setResult(result != null,
+                        result != null ? result.getInputLength() : bytes.get(Stage.READ.ordinal()),
+                        result != null ? result.getOutputLength() : bytes.get(Stage.WRITE.ordinal()));
+                fileEvent.setTimes(nanos.get(Stage.SM2_WRAP.ordinal()) + nanos.get(Stage.SM2_UNWRAP.ordinal()),
+                        nanos.get(Stage.READ.ordinal()), nanos.get(Stage.CIPHER.ordinal()),
+                        nanos.get(Stage.WRITE.ordinal()), nanos.get(Stage.DIGEST.ordinal()),
+                        bytes.get(Stage.DIGEST.ordinal()));
+                fileEvent.commit();
+            }
+        }
+    }
+
+    /**
+     * 计时的SM3摘要计算器，各方法委托给原计算器
+     */
+    private static final class TimedDigest extends MessageDigest {
+        private final MessageDigest digest;
+        private final Scope scope;
+
+        TimedDigest(MessageDigest digest, Scope scope) {
+            super(digest.getAlgorithm());
+            this.digest = digest;
+            this.scope = scope;
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            digest.update(input);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            long start = System.nanoTime();
+            digest.update(input, offset, len);
+            scope.add(Stage.DIGEST, System.nanoTime() - start, len);
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            long start = System.nanoTime();
+            byte[] result = digest.digest();
+            scope.add(Stage.DIGEST, System.nanoTime() - start, 0);
+            return result;
+        }
+
+        @Override
+        protected int engineGetDigestLength() {
+            return digest.getDigestLength();
+        }
+
+        @Override
+        protected void engineReset() {
+            digest.reset();
+        }
+    }
+}
@@ -0,0 +1,636 @@
+package cn.htaw.encryption.util;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InvalidAttributeValueException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 加解密热点路径的运行指标：各操作的延迟直方图、处理字节数和错误数，以及队列深度、缓冲槽占用等瞬时值（gauge）
+ * <ul>
+ * <li>默认关闭，关闭时每个埋点只读取一次volatile标志，不调用 {@link System#nanoTime()}，不写任何计数器；
+ *     {@link #setEnabled(boolean)} 或系统属性 {@code -Dsm2sm4.metrics=true} 开启</li>
+ * <li>直方图按2的幂分桶、每个数量级再分4档（相对误差不超过12.5%），记录时无锁、不分配对象</li>
+ * <li>{@link #registerMBean()} 以 {@value #OBJECT_NAME} 注册到平台MBeanServer（各指标为只读属性），
+ *     {@link #startReporter} 定期输出本周期的文本或JSON摘要</li>
+ * </ul>
+ * 所有方法都可被多个线程同时调用。
+ */
+public final class CryptoMetrics {
+    public static final String OBJECT_NAME = "cn.htaw.encryption:type=CryptoMetrics";
+
+    /**
+     * 计时的操作
+     */
+    public enum Operation {
+        // SM2加密SM4密钥（文件头部中每个接收方一次）
+        SM2_WRAP("sm2.wrap"),
+        // SM2解密SM4密钥
+        SM2_UNWRAP("sm2.unwrap"),
+        // SM4批量加解密（v1每个缓冲区、v2/v3每个分段一次）
+        SM4("sm4"),
+        // HMAC-SM3分段标签（v3每个分段一次）
+        SM3("sm3.hmac"),
+        // 随机数缓冲池补充（调用底层SecureRandom）
+        RANDOM_REFILL("random.refill"),
+        // 整个文件的加密、解密、校验
+        FILE_ENCRYPT("file.encrypt"),
+        FILE_DECRYPT("file.decrypt"),
+        FILE_VERIFY("file.verify");
+
+        private final String metricName;
+
+        Operation(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+    }
+
+    // 直方图桶数：0~3各一档，此后每个2的幂4档，覆盖全部正long
+    static final int BUCKETS = 248;
+
+    private static volatile boolean enabled = Boolean.getBoolean("sm2sm4.metrics");
+    private static final Histogram[] HISTOGRAMS = new Histogram[Operation.values().length];
+    private static final ConcurrentMap<String, List<LongSupplier>> GAUGES = new ConcurrentHashMap<>();
+    private static volatile long resetTime = System.nanoTime();
+
+    static {
+        for (int i = 0; i < HISTOGRAMS.length; i++) {
+            HISTOGRAMS[i] = new Histogram();
+        }
+    }
+
+    private CryptoMetrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    /**
+     * 开始计时：未启用时返回0且不读取时钟
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * 结束计时并记录一次操作（start为0时忽略，System.nanoTime()恰为0的概率可忽略）
+     * @param bytes 本次处理的字节数
+     */
+    public static void stop(Operation operation, long start, long bytes) {
+        if (start != 0L) {
+            HISTOGRAMS[operation.ordinal()].record(System.nanoTime() - start, bytes);
+        }
+    }
+
+    /**
+     * 记录一次失败
+     */
+    public static void error(Operation operation) {
+        if (enabled) {
+            HISTOGRAMS[operation.ordinal()].errors.increment();
+        }
+    }
+
+    /**
+     * 注册瞬时值（如队列深度），快照时读取；同名的多个瞬时值求和（如多个并发运行的实例）
+     * @return 注销句柄，关闭后不再读取
+     */
+    public static Registration registerGauge(String name, LongSupplier value) {
+        List<LongSupplier> suppliers = GAUGES.computeIfAbsent(name, k -> new CopyOnWriteArrayList<>());
+        suppliers.add(value);
+        return () -> suppliers.remove(value);
+    }
+
+    /**
+     * 清零所有直方图和计数器（瞬时值不受影响）
+     */
+    public static void reset() {
+        for (Histogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+        resetTime = System.nanoTime();
+    }
+
+    /**
+     * 自上次清零以来的累计快照
+     */
+    public static Snapshot snapshot() {
+        long now = System.nanoTime();
+        List<OperationStats> operations = new ArrayList<>(HISTOGRAMS.length);
+        for (Operation operation : Operation.values()) {
+            operations.add(HISTOGRAMS[operation.ordinal()].snapshot(operation));
+        }
+        Map<String, Long> gauges = new TreeMap<>();
+        for (Map.Entry<String, List<LongSupplier>> entry : GAUGES.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            long sum = 0;
+            for (LongSupplier supplier : entry.getValue()) {
+                try {
+                    sum += supplier.getAsLong();
+                } catch (RuntimeException e) {
+                    // 读取瞬时值失败不影响其他指标
+                }
+            }
+            gauges.put(entry.getKey(), sum);
+        }
+        return new Snapshot(now, now - resetTime, operations, gauges);
+    }
+
+    /**
+     * 以 {@value #OBJECT_NAME} 注册到平台MBeanServer（已注册时忽略）
+     */
+    public static synchronized void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new MetricsMBean(), name);
+        }
+    }
+
+    /**
+     * 启动后台线程，每隔periodMillis输出一次本周期的指标（延迟分位数、吞吐量均按本周期计算）
+     * @param json true输出单行JSON，false输出多行文本
+     * @return 停止句柄
+     */
+    public static Registration startReporter(long periodMillis, PrintStream out, boolean json) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("输出间隔必须大于0");
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "crypto-metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Snapshot[] previous = {snapshot()};
+        reporter.scheduleAtFixedRate(() -> {
+            Snapshot current = snapshot();
+            Snapshot interval = current.since(previous[0]);
+            previous[0] = current;
+            out.println(json ? interval.toJson() : interval.toText());
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return reporter::shutdownNow;
+    }
+
+    static int bucketOf(long value) {
+        if (value < 4) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - 2)) & 3;
+        return exponent * 4 + sub - 4;
+    }
+
+    /**
+     * 桶的下界（含）
+     */
+    static long bucketLowerBound(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+        int exponent = (bucket + 4) / 4;
+        int sub = (bucket + 4) % 4;
+        return (long) (4 + sub) << (exponent - 2);
+    }
+
+    /**
+     * 桶的中点，用作落在该桶的分位数估计值
+     */
+    static long bucketMidpoint(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+        int exponent = (bucket + 4) / 4;
+        return bucketLowerBound(bucket) + (1L << (exponent - 2)) / 2;
+    }
+
+    /**
+     * 注销或停止句柄
+     */
+    public interface Registration extends Closeable {
+        @Override
+        void close();
+    }
+
+    /**
+     * 单个操作的延迟直方图和计数器
+     */
+    private static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos, long byteCount) {
+            buckets.incrementAndGet(bucketOf(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+            bytes.add(byteCount);
+            maxNanos.accumulate(nanos);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            totalNanos.reset();
+            bytes.reset();
+            errors.reset();
+            maxNanos.reset();
+        }
+
+        OperationStats snapshot(Operation operation) {
+            long[] copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = buckets.get(i);
+            }
+            return new OperationStats(operation, count.sum(), errors.sum(), bytes.sum(), totalNanos.sum(),
+                    maxNanos.get(), copy);
+        }
+    }
+
+    /**
+     * 单个操作的统计
+     */
+    public static final class OperationStats {
+        private final Operation operation;
+        private final long count;
+        private final long errors;
+        private final long bytes;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] buckets;
+
+        OperationStats(Operation operation, long count, long errors, long bytes, long totalNanos, long maxNanos,
+                       long[] buckets) {
+            this.operation = operation;
+            this.count = count;
+            this.errors = errors;
+            this.bytes = bytes;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.buckets = buckets;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * 各次操作耗时之和（纳秒）
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * 最大耗时（纳秒）；周期快照中为累计最大值与本周期最高非空桶上界的较小者
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * 耗时分位数估计值（纳秒）
+         * @param quantile 0~1
+         */
+        public long getPercentileNanos(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(bucketMidpoint(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        /**
+         * 单线程吞吐量：字节数 / 操作耗时之和（字节/秒）
+         */
+        public double getBytesPerBusySecond() {
+            return totalNanos == 0 ? 0 : bytes * 1e9 / totalNanos;
+        }
+
+        OperationStats since(OperationStats previous) {
+            long[] delta = new long[buckets.length];
+            long max = 0;
+            for (int i = 0; i < delta.length; i++) {
+                delta[i] = buckets[i] - previous.buckets[i];
+                if (delta[i] > 0) {
+                    max = i + 1 < delta.length ? Math.min(maxNanos, bucketLowerBound(i + 1) - 1) : maxNanos;
+                }
+            }
+            return new OperationStats(operation, count - previous.count, errors - previous.errors,
+                    bytes - previous.bytes, totalNanos - previous.totalNanos, max, delta);
+        }
+    }
+
+    /**
+     * 指标快照
+     */
+    public static final class Snapshot {
+        private final long timestamp;
+        private final long elapsedNanos;
+        private final List<OperationStats> operations;
+        private final Map<String, Long> gauges;
+
+        Snapshot(long timestamp, long elapsedNanos, List<OperationStats> operations, Map<String, Long> gauges) {
+            this.timestamp = timestamp;
+            this.elapsedNanos = elapsedNanos;
+            this.operations = Collections.unmodifiableList(operations);
+            this.gauges = Collections.unmodifiableMap(gauges);
+        }
+
+        /**
+         * 统计期间（纳秒）：累计快照为自清零以来，周期快照为本周期
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public List<OperationStats> getOperations() {
+            return operations;
+        }
+
+        public OperationStats get(Operation operation) {
+            return operations.get(operation.ordinal());
+        }
+
+        /**
+         * 瞬时值（按名称排序）
+         */
+        public Map<String, Long> getGauges() {
+            return gauges;
+        }
+
+        /**
+         * 统计期间的平均吞吐量（字节/秒，按墙钟时间）
+         */
+        public double getBytesPerSecond(Operation operation) {
+            return elapsedNanos <= 0 ? 0 : get(operation).getBytes() * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * 本快照与较早快照之差（清零后的快照与清零前的快照相减没有意义）
+         */
+        public Snapshot since(Snapshot previous) {
+            List<OperationStats> delta = new ArrayList<>(operations.size());
+            for (int i = 0; i < operations.size(); i++) {
+                delta.add(operations.get(i).since(previous.operations.get(i)));
+            }
+            return new Snapshot(timestamp, timestamp - previous.timestamp, delta, new TreeMap<>(gauges));
+        }
+
+        public String toText() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "指标（%.1fs）:", elapsedNanos / 1e9));
+            for (OperationStats stats : operations) {
+                if (stats.count == 0 && stats.errors == 0) {
+                    continue;
+                }
+                sb.append(String.format(Locale.ROOT,
+                        "%n  %-14s 次数=%d 错误=%d 字节=%d 吞吐=%.1fMB/s 平均=%.1fus p50=%.1fus p99=%.1fus 最大=%.1fus",
+                        stats.operation.metricName, stats.count, stats.errors, stats.bytes,
+                        getBytesPerSecond(stats.operation) / (1024.0 * 1024.0), stats.getMeanNanos() / 1e3,
+                        stats.getPercentileNanos(0.5) / 1e3, stats.getPercentileNanos(0.99) / 1e3,
+                        stats.maxNanos / 1e3));
+            }
+            for (Map.Entry<String, Long> gauge : gauges.entrySet()) {
+                sb.append(String.format("%n  %-14s %d", gauge.getKey(), gauge.getValue()));
+            }
+            return sb.toString();
+        }
+
+        public String toJson() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"elapsedMillis\":").append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            sb.append(",\"operations\":{");
+            boolean first = true;
+            for (OperationStats stats : operations) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append('"').append(stats.operation.metricName).append("\":{")
+                        .append("\"count\":").append(stats.count)
+                        .append(",\"errors\":").append(stats.errors)
+                        .append(",\"bytes\":").append(stats.bytes)
+                        .append(",\"bytesPerSecond\":").append(Math.round(getBytesPerSecond(stats.operation)))
+                        .append(",\"meanNanos\":").append(Math.round(stats.getMeanNanos()))
+                        .append(",\"p50Nanos\":").append(stats.getPercentileNanos(0.5))
+                        .append(",\"p90Nanos\":").append(stats.getPercentileNanos(0.9))
+                        .append(",\"p99Nanos\":").append(stats.getPercentileNanos(0.99))
+                        .append(",\"maxNanos\":").append(stats.maxNanos)
+                        .append('}');
+            }
+            sb.append("},\"gauges\":{");
+            first = true;
+            for (Map.Entry<String, Long> gauge : gauges.entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                // 指标名由代码定义，只含字母、数字和点，无需转义
+                sb.append('"').append(gauge.getKey()).append("\":").append(gauge.getValue());
+            }
+            return sb.append("}}").toString();
+        }
+
+        @Override
+        public String toString() {
+            return toText();
+        }
+    }
+
+    /**
+     * JMX视图：属性名为"指标名.字段"（如sm4.p99Micros），瞬时值的属性名即其名称；Enabled可写
+     */
+    private static final class MetricsMBean implements DynamicMBean {
+        private static final String[] FIELDS = {
+                "count", "errors", "bytes", "bytesPerSecond", "meanMicros", "p50Micros", "p99Micros", "maxMicros"
+        };
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            if ("Enabled".equals(attribute)) {
+                return enabled;
+            }
+            Snapshot snapshot = snapshot();
+            Long gauge = snapshot.gauges.get(attribute);
+            if (gauge != null) {
+                return gauge;
+            }
+            int dot = attribute.lastIndexOf('.');
+            if (dot > 0) {
+                for (OperationStats stats : snapshot.operations) {
+                    if (stats.operation.metricName.equals(attribute.substring(0, dot))) {
+                        return field(snapshot, stats, attribute.substring(dot + 1));
+                    }
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        private static Object field(Snapshot snapshot, OperationStats stats, String field)
+                throws AttributeNotFoundException {
+            switch (field) {
+                case "count":
+                    return stats.count;
+                case "errors":
+                    return stats.errors;
+                case "bytes":
+                    return stats.bytes;
+                case "bytesPerSecond":
+                    return snapshot.getBytesPerSecond(stats.operation);
+                case "meanMicros":
+                    return stats.getMeanNanos() / 1e3;
+                case "p50Micros":
+                    return stats.getPercentileNanos(0.5) / 1e3;
+                case "p99Micros":
+                    return stats.getPercentileNanos(0.99) / 1e3;
+                case "maxMicros":
+                    return stats.maxNanos / 1e3;
+                default:
+                    throw new AttributeNotFoundException(stats.operation.metricName + "." + field);
+            }
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException, InvalidAttributeValueException {
+            if (!"Enabled".equals(attribute.getName())) {
+                throw new AttributeNotFoundException(attribute.getName() + " 只读");
+            }
+            if (!(attribute.getValue() instanceof Boolean)) {
+                throw new InvalidAttributeValueException("Enabled 须为布尔值");
+            }
+            setEnabled((Boolean) attribute.getValue());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // 按JMX约定跳过不存在的属性
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            AttributeList result = new AttributeList();
+            for (Attribute attribute : attributes.asList()) {
+                try {
+                    setAttribute(attribute);
+                    result.add(attribute);
+                } catch (JMException e) {
+                    // 按JMX约定只返回设置成功的属性
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            switch (actionName) {
+                case "reset":
+                    reset();
+                    return null;
+                case "dumpText":
+                    return snapshot().toText();
+                case "dumpJson":
+                    return snapshot().toJson();
+                default:
+                    throw new ReflectionException(new NoSuchMethodException(actionName));
+            }
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            attributes.add(new MBeanAttributeInfo("Enabled", "boolean", "是否记录指标", true, true, true));
+            for (Operation operation : Operation.values()) {
+                for (String field : FIELDS) {
+                    boolean counter = field.equals("count") || field.equals("errors") || field.equals("bytes");
+                    attributes.add(new MBeanAttributeInfo(operation.metricName + "." + field,
+                            counter ? "long" : "double", operation.metricName + " " + field, true, false, false));
+                }
+            }
+            for (String gauge : new TreeMap<>(GAUGES).keySet()) {
+                attributes.add(new MBeanAttributeInfo(gauge, "long", gauge, true, false, false));
+            }
+            MBeanOperationInfo[] operations = {
+                    new MBeanOperationInfo("reset", "清零所有计数器", null, "void", MBeanOperationInfo.ACTION),
+                    new MBeanOperationInfo("dumpText", "文本摘要", null, "java.lang.String", MBeanOperationInfo.INFO),
+                    new MBeanOperationInfo("dumpJson", "JSON摘要", null, "java.lang.String", MBeanOperationInfo.INFO)
+            };
+            return new MBeanInfo(CryptoMetrics.class.getName(), "SM2/SM4加解密运行指标",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, operations, null);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package cn.htaw.encryption.util;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 读取 → 加解密 → 写出 三级流水线
+ * 读取线程、调用线程（加解密）、写出线程之间通过有界队列传递预先分配的缓冲槽，
+ * 槽在写出后回收给读取线程继续使用，稳定运行时不再分配缓冲区。
+ * 流水线深度为0时三个阶段在调用线程中依次执行，只使用一个槽。
+ */
+class CryptoPipeline {
+    /**
+     * 缓冲槽：输入/输出缓冲区及各分段长度（整体CBC只使用第0段）
+     */
+    static final class Slot {
+        final byte[] in;
+        final byte[] out;
+        final int[] inLens;
+        final int[] outLens;
+        // 槽的序号，从0开始，由流水线在读取前设置
+        long sequence;
+        // 本槽包含的分段数
+        int count;
+        // 是否为最后一个槽，由读取阶段设置
+        boolean last;
+
+        Slot(int inSize, int outSize, int segments) {
+            in = new byte[inSize];
+            out = new byte[outSize];
+            inLens = new int[segments];
+            outLens = new int[segments];
+        }
+
+        private Slot() {
+            in = out = null;
+            inLens = outLens = null;
+        }
+    }
+
+    /**
+     * 流水线的一个阶段
+     */
+    interface Stage {
+        void process(Slot slot) throws Exception;
+    }
+
+    // 结束标记：读取失败、加解密失败或写出失败时用于唤醒其他阶段
+    private static final Slot END = new Slot();
+
+    // 正在运行的流水线的空闲槽队列及槽总数，供运行指标统计缓冲槽占用
+    private static final Map<BlockingQueue<Slot>, Integer> ACTIVE = new ConcurrentHashMap<>();
+
+    static {
+        CryptoMetrics.registerGauge("pipeline.slots", () -> {
+            long total = 0;
+            for (int slots : ACTIVE.values()) {
+                total += slots;
+            }
+            return total;
+        });
+        CryptoMetrics.registerGauge("pipeline.slots.busy", () -> {
+            long busy = 0;
+            for (Map.Entry<BlockingQueue<Slot>, Integer> entry : ACTIVE.entrySet()) {
+                busy += Math.max(0, entry.getValue() - entry.getKey().size());
+            }
+            return busy;
+        });
+    }
+
+    private final Slot[] slots;
+    private final boolean pipelined;
+
+    /**
+     * @param depth 流水线深度（缓冲槽数量），0表示不启用流水线
+     */
+    CryptoPipeline(int depth, int inSize, int outSize, int segments) {
+        pipelined = depth > 0;
+        slots = new Slot[pipelined ? depth : 1];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(inSize, outSize, segments);
+        }
+    }
+
+    /**
+     * 运行流水线直至读取阶段标记了最后一个槽并将其写出
+     * 任一阶段失败时其余阶段尽快停止，并在调用线程中抛出首个异常
+     */
+    void run(Stage reader, Stage cipher, Stage writer) throws Exception {
+        // JFR录制时按槽记录各阶段事件（读取、写出线程沿用调用线程所在的文件作用域）
+        CryptoEvents.Scope events = CryptoEvents.current();
+        if (events.isActive()) {
+            reader = timed(events, CryptoEvents.Stage.READ, reader);
+            cipher = timed(events, CryptoEvents.Stage.CIPHER, cipher);
+            writer = timed(events, CryptoEvents.Stage.WRITE, writer);
+        }
+        if (!pipelined) {
+            Slot slot = slots[0];
+            for (long sequence = 0; !slot.last; sequence++) {
+                slot.sequence = sequence;
+                reader.process(slot);
+                cipher.process(slot);
+                writer.process(slot);
+            }
+            return;
+        }
+
+        // 队列容量比槽数多1，保证放入结束标记时不会阻塞
+        BlockingQueue<Slot> free = new ArrayBlockingQueue<>(slots.length + 1);
+        for (Slot slot : slots) {
+            free.add(slot);
+        }
+        if (CryptoMetrics.isEnabled()) {
+            ACTIVE.put(free, slots.length);
+        }
+        try {
+            runStages(reader, cipher, writer, free);
+        } finally {
+            ACTIVE.remove(free);
+        }
+    }
+
+    private static Stage timed(CryptoEvents.Scope events, CryptoEvents.Stage stage, Stage delegate) {
+        boolean output = stage == CryptoEvents.Stage.WRITE;
+        return slot -> {
+            events.begin(stage);
+            delegate.process(slot);
+            // 读取阶段执行后才知道本槽的分段数和长度
+            int[] lens = output ? slot.outLens : slot.inLens;
+            long bytes = 0;
+            for (int i = 0; i < slot.count; i++) {
+                bytes += lens[i];
+            }
+            events.end(stage, bytes);
+        };
+    }
+
+    private void runStages(Stage reader, Stage cipher, Stage writer, BlockingQueue<Slot> free) throws Exception {
+        BlockingQueue<Slot> filled = new ArrayBlockingQueue<>(slots.length + 1);
+        BlockingQueue<Slot> processed = new ArrayBlockingQueue<>(slots.length + 1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread readerThread = new Thread(() -> {
+            try {
+                for (long sequence = 0; ; sequence++) {
+                    Slot slot = free.take();
+                    if (slot == END || failure.get() != null) {
+                        break;
+                    }
+                    slot.sequence = sequence;
+                    reader.process(slot);
+                    // 槽交给下一阶段后可能被回收重用，需先取出结束标志
+                    boolean last = slot.last;
+                    filled.put(slot);
+                    if (last) {
+                        return;
+                    }
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+            filled.offer(END);
+        }, "sm4-pipeline-reader");
+
+        Thread writerThread = new Thread(() -> {
+            try {
+                while (true) {
+                    Slot slot = processed.take();
+                    if (slot == END) {
+                        return;
+                    }
+                    writer.process(slot);
+                    if (slot.last) {
+                        return;
+                    }
+                    free.put(slot);
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                free.offer(END);
+            }
+        }, "sm4-pipeline-writer");
+
+        readerThread.setDaemon(true);
+        writerThread.setDaemon(true);
+        readerThread.start();
+        writerThread.start();
+
+        try {
+            while (true) {
+                Slot slot = filled.take();
+                if (slot == END) {
+                    break;
+                }
+                cipher.process(slot);
+                boolean last = slot.last;
+                processed.put(slot);
+                if (last) {
+                    break;
+                }
+            }
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+
+        try {
+            if (failure.get() != null) {
+                free.offer(END);
+                processed.offer(END);
+            }
+            readerThread.join();
+            writerThread.join();
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+            free.offer(END);
+            processed.offer(END);
+        }
+
+        Throwable e = failure.get();
+        if (e instanceof Exception) {
+            throw (Exception) e;
+        } else if (e != null) {
+            throw (Error) e;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package cn.htaw.encryption.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 解析 {@link CompressingInputStream} 生成的帧序列，逐帧解压后写入目标输出流
+ * 写入的数据可以在任意位置断开，不完整的帧在缓冲区中等待后续数据；全部写入后须调用 {@link #finish()} 检查末尾是否完整。
+ * 关闭时不关闭目标输出流。非线程安全。
+ */
+class DecompressingOutputStream extends OutputStream {
+    private static final int CHUNK_SIZE = CompressingInputStream.CHUNK_SIZE;
+    private static final int FRAME_HEADER_SIZE = CompressingInputStream.FRAME_HEADER_SIZE;
+
+    private final OutputStream out;
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] header = new byte[FRAME_HEADER_SIZE];
+    private final byte[] data = new byte[CHUNK_SIZE];
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int headerLength;
+    private int dataLength;
+    // 当前帧的原始长度和存储长度，帧头未读完时为0
+    private int originalLength;
+    private int storedLength;
+    // 已解压写出的字节数
+    private long written;
+
+    DecompressingOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * 已解压写出的字节数
+     */
+    long getWritten() {
+        return written;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n;
+            if (storedLength == 0) {
+                n = Math.min(len, FRAME_HEADER_SIZE - headerLength);
+                System.arraycopy(b, off, header, headerLength, n);
+                headerLength += n;
+                if (headerLength == FRAME_HEADER_SIZE) {
+                    parseHeader();
+                }
+            } else {
+                n = Math.min(len, storedLength - dataLength);
+                System.arraycopy(b, off, data, dataLength, n);
+                dataLength += n;
+                if (dataLength == storedLength) {
+                    emitFrame();
+                }
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void parseHeader() throws IOException {
+        originalLength = readInt(header, 0);
+        storedLength = readInt(header, 4);
+        if (originalLength <= 0 || originalLength > CHUNK_SIZE || storedLength <= 0 || storedLength > originalLength) {
+            throw new IOException("压缩数据已损坏");
+        }
+        headerLength = 0;
+        dataLength = 0;
+    }
+
+    private void emitFrame() throws IOException {
+        if (storedLength == originalLength) {
+            out.write(data, 0, storedLength);
+        } else {
+            inflater.reset();
+            inflater.setInput(data, 0, storedLength);
+            int length = 0;
+            try {
+                while (!inflater.finished() && length < originalLength) {
+                    int n = inflater.inflate(chunk, length, originalLength - length);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("压缩数据已损坏", e);
+            }
+            if (!inflater.finished() || length != originalLength || inflater.getRemaining() != 0) {
+                throw new IOException("压缩数据已损坏");
+            }
+            out.write(chunk, 0, length);
+        }
+        written += originalLength;
+        storedLength = 0;
+        originalLength = 0;
+    }
+
+    /**
+     * 检查最后一帧是否完整
+     */
+    void finish() throws IOException {
+        if (headerLength != 0 || storedLength != 0) {
+            throw new IOException("压缩数据不完整，文件可能已损坏或被截断");
+        }
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() {
+        inflater.end();
+    }
+}
@@ -0,0 +1,404 @@
+package cn.htaw.encryption.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 目录树批量加解密：边遍历边调度，不预先收集文件列表
+ * <ul>
+ * <li>遍历在调用线程中进行，文件作为任务提交到ForkJoin线程池（{@link FileCryptoOptions#getSegmentPool()}），空闲的工作线程互相窃取任务</li>
+ * <li>小文件按批提交，一个任务顺序处理一批，减少调度开销；大文件单独提交，
+ *     v2/v3格式由引擎拆分为分段任务在同一线程池中并行执行，与其他文件的任务一起被窃取（v1整体CBC无法拆分）</li>
+ * <li>在途任务数有上限，处理跟不上遍历时遍历线程等待，百万级目录树的内存占用与文件数量无关</li>
+ * <li>输出目录保持输入目录的相对结构，输出目录位于输入目录内时不会被遍历</li>
+ * </ul>
+ * 同一实例可被多个线程同时使用。
+ */
+public class DirectoryCrypto {
+    // 加密输出文件后缀
+    public static final String ENCRYPTED_SUFFIX = ".sm4";
+    // 解密输出文件后缀（输入文件无加密后缀时使用）
+    public static final String DECRYPTED_SUFFIX = ".dec";
+
+    // 默认小文件阈值：不超过该大小的文件合并成批
+    public static final long DEFAULT_SMALL_FILE_THRESHOLD = 256 * 1024;
+    // 一批小文件的总字节数和文件数上限
+    static final long BATCH_BYTES = 8L * 1024 * 1024;
+    static final int BATCH_FILES = 256;
+    // 进度回调间隔（毫秒）
+    static final long REPORT_INTERVAL = 1000;
+
+    private final FileCryptoEngine engine;
+    private final ForkJoinPool pool;
+    private long smallFileThreshold = DEFAULT_SMALL_FILE_THRESHOLD;
+
+    public DirectoryCrypto(FileCryptoOptions options) {
+        this.engine = new FileCryptoEngine(options);
+        this.pool = options.getSegmentPool();
+    }
+
+    public DirectoryCrypto setSmallFileThreshold(long smallFileThreshold) {
+        if (smallFileThreshold < 0) {
+            throw new IllegalArgumentException("小文件阈值不能为负数");
+        }
+        this.smallFileThreshold = smallFileThreshold;
+        return this;
+    }
+
+    /**
+     * 加密整个目录树，输出文件追加 {@link #ENCRYPTED_SUFFIX} 后缀
+     * @param publicKeys 接收方公钥（多个时需v2/v3格式）
+     * @param listener 进度监听器（可为null）
+     */
+    public Progress encrypt(File inputRoot, File outputRoot, List<byte[]> publicKeys, Listener listener)
+            throws IOException, InterruptedException {
+        return process(inputRoot, outputRoot, true, listener,
+                (input, output, progress) -> engine.encrypt(input, output, publicKeys, progress));
+    }
+
+    /**
+     * 解密整个目录树中的 {@link #ENCRYPTED_SUFFIX} 文件，输出文件去掉该后缀
+     * @param listener 进度监听器（可为null）
+     */
+    public Progress decrypt(File inputRoot, File outputRoot, byte[] privateKey, Listener listener)
+            throws IOException, InterruptedException {
+        return process(inputRoot, outputRoot, false, listener,
+                (input, output, progress) -> engine.decrypt(input, output, privateKey, progress));
+    }
+
+    /**
+     * 输出文件名：加密时追加后缀，解密时去掉后缀（无该后缀则追加 {@link #DECRYPTED_SUFFIX}）
+     */
+    static String outputName(String name, boolean encrypt) {
+        if (encrypt) {
+            return name + ENCRYPTED_SUFFIX;
+        }
+        if (name.endsWith(ENCRYPTED_SUFFIX) && name.length() > ENCRYPTED_SUFFIX.length()) {
+            return name.substring(0, name.length() - ENCRYPTED_SUFFIX.length());
+        }
+        return name + DECRYPTED_SUFFIX;
+    }
+
+    private Progress process(File inputRoot, File outputRoot, boolean encrypt, Listener listener, FileTask task)
+            throws IOException, InterruptedException {
+        if (!inputRoot.isDirectory()) {
+            throw new IOException("输入目录不存在: " + inputRoot.getPath());
+        }
+        Path input = inputRoot.toPath().toAbsolutePath().normalize();
+        Path output = outputRoot.toPath().toAbsolutePath().normalize();
+        if (input.equals(output)) {
+            throw new IllegalArgumentException("输出目录不能与输入目录相同");
+        }
+        Listener callback = listener != null ? listener : Listener.NONE;
+        Run run = new Run(input, output, encrypt, callback, task);
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "directory-crypto-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> callback.onProgress(run.snapshot()),
+                REPORT_INTERVAL, REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+        CryptoMetrics.Registration gauge = CryptoMetrics.registerGauge("tree.inFlight", run::inFlightTasks);
+        try {
+            run.walk();
+        } finally {
+            gauge.close();
+            reporter.shutdownNow();
+        }
+        Progress result = run.snapshot();
+        callback.onProgress(result);
+        return result;
+    }
+
+    /**
+     * 单个文件的加/解密
+     */
+    private interface FileTask {
+        FileCryptoResult apply(File input, File output, FileCryptoEngine.ProgressListener progress) throws Exception;
+    }
+
+    /**
+     * 一次目录树处理：遍历、批量提交和统计
+     */
+    private final class Run {
+        private final Path inputRoot;
+        private final Path outputRoot;
+        private final boolean encrypt;
+        private final Listener listener;
+        private final FileTask task;
+        private final long startTime = System.nanoTime();
+        // 在途任务上限：每个工作线程4个，遍历超前过多时等待
+        private final int maxInFlight = Math.max(1, pool.getParallelism()) * 4;
+        private final Semaphore inFlight = new Semaphore(maxInFlight);
+
+        private final LongAdder files = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+
+        private List<Path> batch = new ArrayList<>();
+        private long batchBytes;
+
+        Run(Path inputRoot, Path outputRoot, boolean encrypt, Listener listener, FileTask task) {
+            this.inputRoot = inputRoot;
+            this.outputRoot = outputRoot;
+            this.encrypt = encrypt;
+            this.listener = listener;
+            this.task = task;
+        }
+
+        void walk() throws IOException, InterruptedException {
+            try {
+                Files.walkFileTree(inputRoot, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        // 输出目录位于输入目录内时跳过，避免处理刚写出的文件
+                        return dir.equals(outputRoot) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if (listener.isCancelled()) {
+                            return FileVisitResult.TERMINATE;
+                        }
+                        if (attrs.isRegularFile() && accept(file)) {
+                            try {
+                                schedule(file, attrs.size());
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new IOException("目录遍历被中断", e);
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        failed.increment();
+                        listener.onFailure(file.toFile(), e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+                flush();
+            } finally {
+                // 取得全部许可即所有已提交的任务都已完成
+                inFlight.acquireUninterruptibly(maxInFlight);
+                inFlight.release(maxInFlight);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException("目录处理被中断");
+            }
+        }
+
+        private boolean accept(Path file) {
+            String name = file.getFileName().toString();
+            if (encrypt) {
+                // 不加密断点日志等辅助文件
+                return !name.endsWith(CheckpointJournal.SUFFIX) && !name.endsWith(FileCryptoEngine.REKEY_BACKUP_SUFFIX);
+            }
+            return name.endsWith(ENCRYPTED_SUFFIX);
+        }
+
+        private void schedule(Path file, long size) throws InterruptedException {
+            if (size > smallFileThreshold) {
+                submit(java.util.Collections.singletonList(file));
+                return;
+            }
+            batch.add(file);
+            batchBytes += size;
+            if (batch.size() >= BATCH_FILES || batchBytes >= BATCH_BYTES) {
+                flush();
+            }
+        }
+
+        private void flush() throws InterruptedException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<Path> files = batch;
+            batch = new ArrayList<>();
+            batchBytes = 0;
+            submit(files);
+        }
+
+        private void submit(List<Path> files) throws InterruptedException {
+            inFlight.acquire();
+            try {
+                pool.execute(() -> {
+                    try {
+                        for (Path file : files) {
+                            if (listener.isCancelled()) {
+                                break;
+                            }
+                            processFile(file);
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                inFlight.release();
+                throw e;
+            }
+        }
+
+        private void processFile(Path file) {
+            Path relative = inputRoot.relativize(file);
+            Path parent = relative.getParent();
+            Path target = (parent == null ? outputRoot : outputRoot.resolve(parent))
+                    .resolve(outputName(file.getFileName().toString(), encrypt));
+            File output = target.toFile();
+            try {
+                Files.createDirectories(target.getParent());
+                FileCryptoResult result = task.apply(file.toFile(), output, new FileCryptoEngine.ProgressListener() {
+                    @Override
+                    public void onProgress(int progress) {
+                        // 目录树只统计整体吞吐量
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return listener.isCancelled();
+                    }
+                });
+                files.increment();
+                bytesIn.add(result.getInputLength());
+                bytesOut.add(result.getOutputLength());
+            } catch (Exception e) {
+                // 清理不完整文件（已保存断点的保留，供续加密）
+                if (!CheckpointJournal.journalFile(output).isFile()) {
+                    output.delete();
+                }
+                if (!listener.isCancelled()) {
+                    failed.increment();
+                    listener.onFailure(file.toFile(), e);
+                }
+            }
+        }
+
+        /**
+         * 已提交未完成的任务数
+         */
+        long inFlightTasks() {
+            return maxInFlight - inFlight.availablePermits();
+        }
+
+        Progress snapshot() {
+            return new Progress(files.sum(), failed.sum(), bytesIn.sum(), bytesOut.sum(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        }
+    }
+
+    /**
+     * 目录树处理进度监听器
+     */
+    public interface Listener {
+        Listener NONE = new Listener() {
+        };
+
+        /**
+         * 每隔约1秒回调一次，处理结束时再回调一次（在进度线程或调用线程中调用）
+         */
+        default void onProgress(Progress progress) {
+        }
+
+        /**
+         * 单个文件处理失败（在工作线程中调用），其余文件继续处理
+         */
+        default void onFailure(File input, Exception e) {
+        }
+
+        /**
+         * 是否已取消：返回true时停止遍历，未开始的文件不再处理，正在处理的文件中止
+         */
+        default boolean isCancelled() {
+            return false;
+        }
+    }
+
+    /**
+     * 累计进度快照
+     */
+    public static final class Progress {
+        private final long files;
+        private final long failed;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long elapsedMillis;
+
+        Progress(long files, long failed, long bytesIn, long bytesOut, long elapsedMillis) {
+            this.files = files;
+            this.failed = failed;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * 已成功处理的文件数
+         */
+        public long getFiles() {
+            return files;
+        }
+
+        /**
+         * 处理失败的文件数
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * 已处理的输入字节数
+         */
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        /**
+         * 已写出的字节数
+         */
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * 平均吞吐量（输入字节/秒）
+         */
+        public double getBytesPerSecond() {
+            return elapsedMillis == 0 ? 0 : bytesIn * 1000.0 / elapsedMillis;
+        }
+
+        /**
+         * 平均每秒处理的文件数
+         */
+        public double getFilesPerSecond() {
+            return elapsedMillis == 0 ? 0 : files * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("已完成%d个文件，失败%d个，%.1f MB，%.1f MB/s，%.0f 文件/s，耗时%dms",
+                    files, failed, bytesIn / (1024.0 * 1024.0), getBytesPerSecond() / (1024.0 * 1024.0),
+                    getFilesPerSecond(), elapsedMillis);
+        }
+    }
+}
@@ -0,0 +1,586 @@
+package cn.htaw.encryption.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 落地目录监视：基于 {@link WatchService} 持续加密生产者放入输入目录（含子目录）的文件
+ * <ul>
+ * <li>完整性判断：文件在 {@link #setStableMillis 稳定时间} 内大小和修改时间都不变才视为写完；
+ *     生产者先写临时文件再改名移入时只产生一次创建事件，可把稳定时间设为0立即处理。
+ *     以"."开头或以 .tmp、.part 结尾的临时文件不处理</li>
+ * <li>去重：同一文件的多次事件合并为一个待定条目，排队或正在加密时不重复提交；
+ *     输出文件已存在且不早于输入文件时视为已加密，启动时的初始扫描和事件溢出后的重新扫描都不会重复加密</li>
+ * <li>背压：已提交未完成的文件数不超过 {@link #setQueueCapacity 队列容量}，队列满时就绪的文件留在待定表中，
+ *     监视线程照常接收事件，不阻塞也不丢事件</li>
+ * <li>加密在ForkJoin线程池（{@link FileCryptoOptions#getSegmentPool()}）中进行，先写临时文件，完成后改名为输出文件，
+ *     中断时不会留下看似完整的输出</li>
+ * </ul>
+ * {@link #getStatus()} 给出待定、排队、正在加密的文件数和排队延迟，可判断生产速度是否超过加密速度。
+ */
+public class DirectoryWatcher implements Closeable {
+    // 默认稳定时间（毫秒）
+    public static final long DEFAULT_STABLE_MILLIS = 2000;
+    // 写出中的输出文件后缀
+    static final String PARTIAL_SUFFIX = ".partial";
+    // 检查待定文件的间隔（毫秒）
+    static final long POLL_INTERVAL = 200;
+
+    private final FileCryptoEngine engine;
+    private final ForkJoinPool pool;
+    private final Path inputRoot;
+    private final Path outputRoot;
+    private final List<byte[]> publicKeys;
+    private final WatchService watchService;
+    private long stableMillis = DEFAULT_STABLE_MILLIS;
+    private int queueCapacity;
+    private boolean deleteSource;
+    private volatile boolean closed;
+
+    // 以下仅由监视线程访问
+    private final Map<WatchKey, Path> watchKeys = new HashMap<>();
+    private final Map<Path, Candidate> pending = new LinkedHashMap<>();
+
+    // 已就绪尚未开始加密的文件（含因背压未提交的）及其就绪时间
+    private final Map<Path, Long> waiting = new ConcurrentHashMap<>();
+    // 正在加密的文件
+    private final Set<Path> processing = ConcurrentHashMap.newKeySet();
+    // 已提交到线程池、尚未加密完成的文件（含排队中的），提交时由监视线程加入，任务结束时移除
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile int pendingCount;
+    // 已提交到线程池、尚未开始加密的文件数
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final long startTime = System.nanoTime();
+
+    /**
+     * @param publicKeys 接收方公钥（多个时需v2/v3格式）
+     */
+    public DirectoryWatcher(FileCryptoOptions options, File inputRoot, File outputRoot, List<byte[]> publicKeys)
+            throws IOException {
+        if (!inputRoot.isDirectory()) {
+            throw new IOException("输入目录不存在: " + inputRoot.getPath());
+        }
+        this.inputRoot = inputRoot.toPath().toAbsolutePath().normalize();
+        this.outputRoot = outputRoot.toPath().toAbsolutePath().normalize();
+        if (this.inputRoot.equals(this.outputRoot)) {
+            throw new IllegalArgumentException("输出目录不能与输入目录相同");
+        }
+        this.engine = new FileCryptoEngine(options);
+        this.pool = options.getSegmentPool();
+        this.publicKeys = publicKeys;
+        this.queueCapacity = Math.max(1, pool.getParallelism()) * 4;
+        this.watchService = this.inputRoot.getFileSystem().newWatchService();
+    }
+
+    /**
+     * 文件大小和修改时间保持不变多久后视为写完（毫秒，0表示收到事件即处理）
+     */
+    public DirectoryWatcher setStableMillis(long stableMillis) {
+        if (stableMillis < 0) {
+            throw new IllegalArgumentException("稳定时间不能为负数");
+        }
+        this.stableMillis = stableMillis;
+        return this;
+    }
+
+    /**
+     * 已提交未完成（排队和正在加密）的文件数上限
+     */
+    public DirectoryWatcher setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("队列容量必须大于0");
+        }
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * 加密成功后是否删除输入文件
+     */
+    public DirectoryWatcher setDeleteSource(boolean deleteSource) {
+        this.deleteSource = deleteSource;
+        return this;
+    }
+
+    /**
+     * 在调用线程中监视，直至 {@link #close()} 或监听器取消；返回前等待已提交的文件加密完成
+     * @param listener 监听器（可为null）
+     */
+    public Status watch(Listener listener) throws IOException, InterruptedException {
+        Listener callback = listener != null ? listener : Listener.NONE;
+        Semaphore permits = new Semaphore(queueCapacity);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "directory-watcher-status");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> callback.onStatus(getStatus()),
+                DirectoryCrypto.REPORT_INTERVAL, DirectoryCrypto.REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+        List<CryptoMetrics.Registration> gauges = Arrays.asList(
+                CryptoMetrics.registerGauge("watch.pending", () -> pendingCount),
+                CryptoMetrics.registerGauge("watch.queued", queued::get),
+                CryptoMetrics.registerGauge("watch.waiting", waiting::size),
+                CryptoMetrics.registerGauge("watch.processing", processing::size),
+                CryptoMetrics.registerGauge("watch.lagMillis", () -> getStatus().getLagMillis()));
+        try {
+            registerTree(inputRoot);
+            boolean full = false;
+            while (!closed && !callback.isCancelled()) {
+                WatchKey key;
+                try {
+                    if (full) {
+                        // 背压中：有文件加密完成（释放许可）时立即补充提交，事件暂存在WatchService中
+                        if (permits.tryAcquire(POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                            permits.release();
+                        }
+                        key = watchService.poll();
+                    } else {
+                        key = watchService.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    }
+                } catch (ClosedWatchServiceException e) {
+                    break;
+                }
+                // 一次取完已到达的事件再检查待定文件
+                while (key != null) {
+                    handleEvents(key);
+                    key = watchService.poll();
+                }
+                full = dispatch(permits, callback);
+            }
+        } catch (ClosedWatchServiceException e) {
+            // close() 与事件处理并发，正常退出
+        } finally {
+            reporter.shutdownNow();
+            gauges.forEach(CryptoMetrics.Registration::close);
+            // 取得全部许可即所有已提交的文件都已处理完
+            permits.acquireUninterruptibly(queueCapacity);
+            permits.release(queueCapacity);
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException("目录监视被中断");
+        }
+        Status result = getStatus();
+        callback.onStatus(result);
+        return result;
+    }
+
+    /**
+     * 注册目录树中的所有目录，并把其中已有的文件加入待定表
+     */
+    private void registerTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                // 输出目录位于输入目录内时不监视，避免处理刚写出的文件
+                if (dir.equals(outputRoot)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                watchKeys.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    touch(file, attrs);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // 扫描期间被删除或移走的文件，忽略
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        pendingCount = pending.size();
+    }
+
+    private void handleEvents(WatchKey key) throws IOException {
+        Path dir = watchKeys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null) {
+                break;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // 事件丢失，重新扫描整个目录树（已加密的文件不会重复处理）
+                registerTree(inputRoot);
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                // 事件到达前已被删除或改名
+                continue;
+            }
+            if (attrs.isDirectory()) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    // 新目录：注册并扫描注册前已写入的文件
+                    registerTree(child);
+                }
+            } else if (attrs.isRegularFile()) {
+                touch(child, attrs);
+            }
+        }
+        if (!key.reset()) {
+            // 目录已被删除
+            watchKeys.remove(key);
+        }
+        pendingCount = pending.size();
+    }
+
+    /**
+     * 记录文件有变化：新建或更新待定条目，重新计算稳定时间
+     */
+    private void touch(Path file, BasicFileAttributes attrs) {
+        if (!accept(file)) {
+            return;
+        }
+        Candidate candidate = pending.get(file);
+        if (candidate == null) {
+            pending.put(file, new Candidate(attrs.size(), attrs.lastModifiedTime().toMillis()));
+        } else {
+            candidate.update(attrs.size(), attrs.lastModifiedTime().toMillis());
+        }
+    }
+
+    private boolean accept(Path file) {
+        if (file.startsWith(outputRoot)) {
+            return false;
+        }
+        String name = file.getFileName().toString();
+        return !name.startsWith(".") && !name.endsWith(".tmp") && !name.endsWith(".part")
+                && !name.endsWith(CheckpointJournal.SUFFIX) && !name.endsWith(FileCryptoEngine.REKEY_BACKUP_SUFFIX);
+    }
+
+    /**
+     * 检查待定文件：稳定的文件在容量允许时提交加密，其余留待下次检查
+     * @return 是否有已就绪的文件因队列已满未能提交
+     */
+    private boolean dispatch(Semaphore permits, Listener listener) {
+        long now = System.nanoTime();
+        boolean full = false;
+        for (Iterator<Map.Entry<Path, Candidate>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Path, Candidate> entry = it.next();
+            Path file = entry.getKey();
+            Candidate candidate = entry.getValue();
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                attrs = null;
+            }
+            if (attrs == null || !attrs.isRegularFile()) {
+                // 已被删除或移走
+                it.remove();
+                waiting.remove(file);
+                continue;
+            }
+            if (candidate.update(attrs.size(), attrs.lastModifiedTime().toMillis())) {
+                waiting.remove(file);
+                continue;
+            }
+            if (now - candidate.changedNanos < TimeUnit.MILLISECONDS.toNanos(stableMillis)
+                    || inFlight.contains(file)) {
+                // 仍在写入，或上一版本已提交（排队或正在加密），完成后再处理
+                continue;
+            }
+            File output = outputFile(file).toFile();
+            if (output.isFile() && output.lastModified() >= attrs.lastModifiedTime().toMillis()) {
+                // 已加密过且之后未修改
+                it.remove();
+                waiting.remove(file);
+                continue;
+            }
+            if (candidate.readyNanos == 0) {
+                candidate.readyNanos = now;
+                waiting.put(file, now);
+            }
+            if (full || !permits.tryAcquire()) {
+                // 背压：保留在待定表中，就绪时间不变，排队延迟继续累计
+                full = true;
+                continue;
+            }
+            it.remove();
+            submit(file, permits, listener);
+        }
+        pendingCount = pending.size();
+        return full;
+    }
+
+    private void submit(Path file, Semaphore permits, Listener listener) {
+        inFlight.add(file);
+        queued.incrementAndGet();
+        try {
+            pool.execute(() -> {
+                processing.add(file);
+                queued.decrementAndGet();
+                waiting.remove(file);
+                try {
+                    encryptFile(file, listener);
+                } finally {
+                    processing.remove(file);
+                    inFlight.remove(file);
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            queued.decrementAndGet();
+            inFlight.remove(file);
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void encryptFile(Path file, Listener listener) {
+        Path target = outputFile(file);
+        File partial = new File(target.toString() + PARTIAL_SUFFIX);
+        try {
+            Files.createDirectories(target.getParent());
+            FileCryptoResult result = engine.encrypt(file.toFile(), partial, publicKeys,
+                    new FileCryptoEngine.ProgressListener() {
+                        @Override
+                        public void onProgress(int progress) {
+                            // 只统计整体吞吐量
+                        }
+
+                        @Override
+                        public boolean isCancelled() {
+                            return closed || listener.isCancelled();
+                        }
+                    });
+            try {
+                Files.move(partial.toPath(), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(partial.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (deleteSource) {
+                Files.deleteIfExists(file);
+            }
+            completed.increment();
+            bytesIn.add(result.getInputLength());
+            listener.onEncrypted(file.toFile(), target.toFile(), result);
+        } catch (Exception e) {
+            partial.delete();
+            if (!closed && !listener.isCancelled()) {
+                failed.increment();
+                listener.onFailure(file.toFile(), e);
+            }
+        }
+    }
+
+    private Path outputFile(Path file) {
+        Path parent = inputRoot.relativize(file).getParent();
+        return (parent == null ? outputRoot : outputRoot.resolve(parent))
+                .resolve(DirectoryCrypto.outputName(file.getFileName().toString(), true));
+    }
+
+    /**
+     * 当前状态快照（可在任意线程中调用）
+     */
+    public Status getStatus() {
+        long now = System.nanoTime();
+        long oldest = now;
+        for (long ready : waiting.values()) {
+            oldest = Math.min(oldest, ready);
+        }
+        return new Status(pendingCount, queued.get(), waiting.size(), processing.size(),
+                completed.sum(), failed.sum(), bytesIn.sum(), TimeUnit.NANOSECONDS.toMillis(now - oldest),
+                TimeUnit.NANOSECONDS.toMillis(now - startTime));
+    }
+
+    /**
+     * 停止监视，{@link #watch} 在已提交的文件加密完成后返回；正在加密的文件中止
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+    }
+
+    /**
+     * 待定文件：最近一次观察到的大小、修改时间和变化时间
+     */
+    private static final class Candidate {
+        private long size;
+        private long modified;
+        private long changedNanos = System.nanoTime();
+        // 判定为写完的时间，未就绪时为0
+        private long readyNanos;
+
+        Candidate(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+
+        /**
+         * 更新观察结果，有变化时返回true并重新开始计算稳定时间
+         */
+        boolean update(long size, long modified) {
+            if (size == this.size && modified == this.modified) {
+                return false;
+            }
+            this.size = size;
+            this.modified = modified;
+            this.changedNanos = System.nanoTime();
+            this.readyNanos = 0;
+            return true;
+        }
+    }
+
+    /**
+     * 目录监视监听器
+     */
+    public interface Listener {
+        Listener NONE = new Listener() {
+        };
+
+        /**
+         * 每隔约1秒回调一次，监视结束时再回调一次（在状态线程或调用线程中调用）
+         */
+        default void onStatus(Status status) {
+        }
+
+        /**
+         * 单个文件加密完成（在工作线程中调用）
+         */
+        default void onEncrypted(File input, File output, FileCryptoResult result) {
+        }
+
+        /**
+         * 单个文件加密失败（在工作线程中调用），该文件再次被修改时重试
+         */
+        default void onFailure(File input, Exception e) {
+        }
+
+        /**
+         * 是否已取消：返回true时停止监视
+         */
+        default boolean isCancelled() {
+            return false;
+        }
+    }
+
+    /**
+     * 监视状态快照
+     */
+    public static final class Status {
+        private final int pending;
+        private final int queued;
+        private final int waiting;
+        private final int processing;
+        private final long completed;
+        private final long failed;
+        private final long bytesIn;
+        private final long lagMillis;
+        private final long elapsedMillis;
+
+        Status(int pending, int queued, int waiting, int processing, long completed, long failed, long bytesIn,
+               long lagMillis, long elapsedMillis) {
+            this.pending = pending;
+            this.queued = queued;
+            this.waiting = waiting;
+            this.processing = processing;
+            this.completed = completed;
+            this.failed = failed;
+            this.bytesIn = bytesIn;
+            this.lagMillis = lagMillis;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * 待定表中的文件数：等待写完的，以及已写完但因背压尚未提交的
+         */
+        public int getPending() {
+            return pending;
+        }
+
+        /**
+         * 已提交到线程池、尚未开始加密的文件数（队列深度）
+         */
+        public int getQueued() {
+            return queued;
+        }
+
+        /**
+         * 已写完、尚未开始加密的文件数（含因背压未提交的），持续增长说明生产速度超过加密速度
+         */
+        public int getWaiting() {
+            return waiting;
+        }
+
+        /**
+         * 正在加密的文件数
+         */
+        public int getProcessing() {
+            return processing;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * 已加密的输入字节数
+         */
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        /**
+         * 延迟：最早一个已写完、尚未开始加密的文件已等待的时间（毫秒），没有等待的文件时为0
+         */
+        public long getLagMillis() {
+            return lagMillis;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("待定%d个，排队%d个，等待%d个，加密中%d个，已完成%d个，失败%d个，%.1f MB，延迟%dms",
+                    pending, queued, waiting, processing, completed, failed, bytesIn / (1024.0 * 1024.0), lagMillis);
+        }
+    }
+}
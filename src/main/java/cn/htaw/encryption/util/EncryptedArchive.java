@@ -0,0 +1,408 @@
+package cn.htaw.encryption.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * 加密归档：把目录中的大量小文件打包成一个v2/v3加密文件，整个归档只做一次SM2密钥封装、只有一个头部
+ * <pre>
+ * 明文 = int(魔数"SM4A") + byte(版本) + int(条目数)
+ *      + 条目索引 × N：UTF(相对路径，以/分隔) + long(数据偏移) + long(长度) + long(修改时间)
+ *      + 各条目数据（按索引顺序首尾相接）
+ * </pre>
+ * 索引位于明文开头，打包前先遍历目录得到各文件的大小，因此可以边读各文件边加密，无需临时文件。
+ * 读取时经 {@link EncryptedFileChannel} 随机访问：列出条目只解密索引所在的分段，提取单个条目只解密覆盖该条目的分组/分段。
+ * 归档总是使用分段格式且不压缩，选项中为v1格式时按v2处理；需要防篡改时请使用v3或GCM。
+ * 打开的归档实例非线程安全，并发提取时每个线程应各自打开。
+ */
+public class EncryptedArchive implements Closeable {
+    // 魔数："SM4A"
+    static final int MAGIC = 0x534D3441;
+    static final int VERSION_1 = 1;
+    // 归档文件后缀
+    public static final String SUFFIX = ".sm4a";
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final EncryptedFileChannel channel;
+    private final List<Entry> entries;
+    private final Map<String, Entry> entriesByName;
+
+    private EncryptedArchive(EncryptedFileChannel channel, List<Entry> entries) {
+        this.channel = channel;
+        this.entries = Collections.unmodifiableList(entries);
+        this.entriesByName = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            entriesByName.put(entry.getName(), entry);
+        }
+    }
+
+    /**
+     * 把目录（递归）中的所有文件打包加密为一个归档
+     * @param inputRoot 待打包目录，条目名为相对该目录的路径
+     * @param archiveFile 输出归档文件（位于inputRoot内时不会被打包）
+     * @param publicKeys 接收方公钥（多个时输出多接收方头部）
+     * @param listener 进度监听器（可为null）
+     * @return 处理结果（输入摘要为整个归档明文的SM3）
+     */
+    public static FileCryptoResult create(File inputRoot, File archiveFile, List<byte[]> publicKeys,
+                                          FileCryptoOptions options, FileCryptoEngine.ProgressListener listener)
+            throws Exception {
+        if (!inputRoot.isDirectory()) {
+            throw new IOException("输入目录不存在: " + inputRoot.getPath());
+        }
+        if (publicKeys == null || publicKeys.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个接收方公钥");
+        }
+        List<Entry> entries = scan(inputRoot.toPath().toAbsolutePath().normalize(),
+                archiveFile.toPath().toAbsolutePath().normalize());
+        byte[] index = writeIndex(entries);
+        long totalBytes = index.length;
+        for (Entry entry : entries) {
+            totalBytes += entry.length;
+        }
+
+        // 提取单个条目依赖随机访问，归档不压缩
+        FileCryptoOptions archiveOptions = options.copy().setCompressionLevel(0);
+        if (archiveOptions.getFormatVersion() == FileHeader.VERSION_1) {
+            archiveOptions.setFormatVersion(FileHeader.VERSION_2);
+        }
+        FileCryptoEngine engine = new FileCryptoEngine(archiveOptions);
+        try (InputStream in = new PackingInputStream(inputRoot, index, entries)) {
+            return engine.encryptStream(in, totalBytes, inputRoot.getPath(), archiveFile, publicKeys, listener);
+        } catch (Exception e) {
+            archiveFile.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * 打开归档并读取条目索引
+     * @param privateKey 任一接收方的SM2私钥
+     */
+    public static EncryptedArchive open(File archiveFile, byte[] privateKey) throws Exception {
+        EncryptedFileChannel channel = EncryptedFileChannel.open(archiveFile, privateKey);
+        try {
+            if (!channel.getHeader().isSegmented()) {
+                throw new IOException("不是加密归档文件: " + archiveFile.getPath());
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 8192));
+            return new EncryptedArchive(channel, readIndex(in, channel.size()));
+        } catch (Exception e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 归档中的条目（按打包顺序）
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * 按相对路径查找条目，不存在时返回null
+     */
+    public Entry getEntry(String name) {
+        return entriesByName.get(name);
+    }
+
+    /**
+     * 读取整个条目的内容（适合小文件）
+     */
+    public byte[] read(Entry entry) throws IOException {
+        if (entry.length > Integer.MAX_VALUE) {
+            throw new IOException("条目过大，请使用extract: " + entry.name);
+        }
+        return channel.read(entry.offset, (int) entry.length);
+    }
+
+    /**
+     * 将条目内容写入输出流，只解密覆盖该条目的分组/分段
+     */
+    public void extract(Entry entry, OutputStream out) throws IOException {
+        channel.position(entry.offset);
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        long remaining = entry.length;
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining));
+            int n = channel.read(buffer);
+            if (n <= 0) {
+                throw new IOException("加密归档被截断，文件可能已损坏");
+            }
+            out.write(buffer.array(), 0, n);
+            remaining -= n;
+        }
+    }
+
+    /**
+     * 将条目提取到 outputRoot 下的同名相对路径，恢复修改时间
+     * @return 提取出的文件
+     */
+    public File extract(Entry entry, File outputRoot) throws IOException {
+        Path root = outputRoot.toPath().toAbsolutePath().normalize();
+        Path target = root.resolve(entry.name).normalize();
+        // 拒绝指向输出目录之外的条目名
+        if (!target.startsWith(root) || target.equals(root)) {
+            throw new IOException("条目路径无效: " + entry.name);
+        }
+        Files.createDirectories(target.getParent());
+        File output = target.toFile();
+        try (OutputStream out = new FileOutputStream(output)) {
+            extract(entry, out);
+        } catch (IOException e) {
+            output.delete();
+            throw e;
+        }
+        output.setLastModified(entry.lastModified);
+        return output;
+    }
+
+    /**
+     * 提取全部条目（按打包顺序，即密文的顺序读取）
+     * @param listener 进度监听器（可为null）
+     */
+    public void extractAll(File outputRoot, FileCryptoEngine.ProgressListener listener) throws Exception {
+        if (listener == null) {
+            listener = FileCryptoEngine.ProgressListener.NONE;
+        }
+        long total = 0;
+        for (Entry entry : entries) {
+            total += entry.length;
+        }
+        long done = 0;
+        for (Entry entry : entries) {
+            if (listener.isCancelled()) {
+                throw new CancellationException("任务已取消");
+            }
+            extract(entry, outputRoot);
+            done += entry.length;
+            listener.onProgress(total == 0 ? 99 : (int) Math.min(99, done * 100.0 / total));
+        }
+        listener.onProgress(100);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 遍历目录得到条目（路径按字典序，同一目录的文件在归档中相邻）
+     */
+    private static List<Entry> scan(Path root, Path archive) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !file.equals(archive)) {
+                    String name = root.relativize(file).toString().replace(File.separatorChar, '/');
+                    entries.add(new Entry(name, 0, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        entries.sort((a, b) -> a.name.compareTo(b.name));
+        return entries;
+    }
+
+    /**
+     * 序列化索引，同时确定各条目的数据偏移（索引之后首尾相接）
+     */
+    private static byte[] writeIndex(List<Entry> entries) throws IOException {
+        int indexLength = 4 + 1 + 4;
+        for (Entry entry : entries) {
+            indexLength += 2 + utfLength(entry.name) + 8 + 8 + 8;
+        }
+        long offset = indexLength;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(indexLength);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION_1);
+        data.writeInt(entries.size());
+        for (Entry entry : entries) {
+            entry.offset = offset;
+            offset += entry.length;
+            data.writeUTF(entry.name);
+            data.writeLong(entry.offset);
+            data.writeLong(entry.length);
+            data.writeLong(entry.lastModified);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<Entry> readIndex(DataInputStream in, long plaintextLength) throws IOException {
+        if (plaintextLength < 9 || in.readInt() != MAGIC) {
+            throw new IOException("不是加密归档文件");
+        }
+        if (in.readUnsignedByte() != VERSION_1) {
+            throw new IOException("不支持的加密归档版本");
+        }
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("加密归档索引已损坏");
+        }
+        List<Entry> entries = new ArrayList<>(Math.min(count, 1 << 16));
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            long offset = in.readLong();
+            long length = in.readLong();
+            long lastModified = in.readLong();
+            if (offset < 0 || length < 0 || offset > plaintextLength - length) {
+                throw new IOException("加密归档索引已损坏: " + name);
+            }
+            entries.add(new Entry(name, offset, length, lastModified));
+        }
+        return entries;
+    }
+
+    /**
+     * writeUTF编码后的字节数（不含2字节长度）
+     */
+    private static int utfLength(String s) throws IOException {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        if (length > 0xFFFF) {
+            throw new IOException("文件路径过长: " + s);
+        }
+        return length;
+    }
+
+    /**
+     * 归档明文流：先输出索引，再依次打开各文件输出其内容，每个文件的长度须与遍历时一致
+     */
+    private static final class PackingInputStream extends InputStream {
+        private final File root;
+        private final List<Entry> entries;
+        private InputStream current;
+        private int next;
+        private long remaining;
+
+        PackingInputStream(File root, byte[] index, List<Entry> entries) {
+            this.root = root;
+            this.entries = entries;
+            this.current = new ByteArrayInputStream(index);
+            this.remaining = index.length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (remaining == 0) {
+                if (!advance()) {
+                    return -1;
+                }
+            }
+            int n = current.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new IOException("文件在打包过程中被修改: " + entries.get(next - 1).name);
+            }
+            remaining -= n;
+            return n;
+        }
+
+        /**
+         * 关闭当前文件并打开下一个，没有更多文件时返回false
+         */
+        private boolean advance() throws IOException {
+            if (current != null) {
+                boolean grown = next > 0 && current.read() != -1;
+                current.close();
+                current = null;
+                if (grown) {
+                    throw new IOException("文件在打包过程中被修改: " + entries.get(next - 1).name);
+                }
+            }
+            if (next == entries.size()) {
+                return false;
+            }
+            Entry entry = entries.get(next++);
+            current = new FileInputStream(new File(root, entry.name));
+            remaining = entry.length;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * 归档中的一个条目
+     */
+    public static final class Entry {
+        private final String name;
+        private long offset;
+        private final long length;
+        private final long lastModified;
+
+        Entry(String name, long offset, long length, long lastModified) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * 相对路径（以/分隔）
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 条目数据在归档明文中的偏移
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
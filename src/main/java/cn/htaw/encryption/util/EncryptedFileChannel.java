@@ -0,0 +1,308 @@
+package cn.htaw.encryption.util;
+
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 加密文件的只读随机访问视图：position/size均以明文计，每次读取只解密覆盖所需明文的分组
+ * <ul>
+ * <li>v1整体CBC、v2分段CBC：明文分组 = SM4解密(本分组密文) ⊕ 前一分组密文，只需多读一个前导分组</li>
+ * <li>v2 CTR：按明文偏移直接定位密钥流</li>
+ * <li>v2 GCM、v3：认证以分段为单位，读取时校验并解密所在的整个分段，最近一个分段的明文会被缓存</li>
+ * </ul>
+ * 压缩的加密文件（{@link FileHeader#FLAG_COMPRESSED}）明文偏移与密文位置没有对应关系，不支持随机访问。
+ * v1和v2 CBC/CTR本身不带认证，需要完整性保证时请使用GCM或v3格式。实例非线程安全，并发读取时每个线程应各自打开。
+ */
+public class EncryptedFileChannel implements SeekableByteChannel {
+    private static final int BLOCK_SIZE = 16;
+    // CBC/CTR单次read最多解密的明文字节数
+    private static final int MAX_READ = 64 * 1024;
+
+    private final FileChannel channel;
+    private final FileHeader header;
+    private final byte[] key;
+    // 以文件密钥初始化一次，各次读取不重复计算轮密钥
+    private final SM4FastEngine engine;
+    private final long size;
+    // v2/v3分段加解密器，v1为null
+    private final SegmentCipher segmentCipher;
+    // 是否须按整段校验后解密（GCM、v3）
+    private final boolean segmentAuthenticated;
+
+    private CBCBlockCipher cbc;
+    private byte[] cipherBuffer;
+    private byte[] plainBuffer;
+    // 最近校验并解密的分段序号（GCM、v3），-1表示没有缓存
+    private long cachedSegment = -1;
+    private int cachedLength;
+
+    private long position;
+    private boolean open = true;
+
+    private EncryptedFileChannel(FileChannel channel, FileHeader header, byte[] key) throws IOException {
+        this.channel = channel;
+        this.header = header;
+        this.key = key;
+        this.engine = new SM4FastEngine(key);
+        if (header.isCompressed()) {
+            throw new IOException("压缩的加密文件不支持随机访问，请顺序解密");
+        }
+        if (header.isSegmented()) {
+            if (channel.size() != header.getEncryptedFileLength()) {
+                throw new IOException("加密文件长度与头部信息不符，文件可能已损坏或被截断");
+            }
+            segmentCipher = SegmentCipher.forHeader(header, key);
+            segmentAuthenticated = header.getMode() == FileHeader.MODE_GCM || header.isAuthenticated();
+            size = header.getPlaintextLength();
+        } else {
+            segmentCipher = null;
+            segmentAuthenticated = false;
+            size = v1PlaintextLength();
+        }
+    }
+
+    /**
+     * 打开加密文件（自动识别v1/v2/v3），用SM2私钥解出文件密钥
+     */
+    public static EncryptedFileChannel open(File file, byte[] privateKey) throws Exception {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            // 头部经流读取，之后的密文均按绝对位置读取，与通道当前位置无关
+            FileHeader header = FileHeader.read(
+                    new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 4096)),
+                    channel.size());
+            byte[] sm4Key = header.unwrapKey(privateKey);
+            return new EncryptedFileChannel(channel, header, sm4Key);
+        } catch (Exception e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public FileHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * 从当前位置读取明文，一次读取不跨越v2/v3分段边界，因此可能少于dst的剩余空间
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        if (position >= size) {
+            return -1;
+        }
+        int n = (int) Math.min(dst.remaining(), size - position);
+        if (n == 0) {
+            return 0;
+        }
+        try {
+            if (segmentAuthenticated) {
+                n = readSegment(dst, n);
+            } else if (header.getMode() == FileHeader.MODE_CTR) {
+                n = readCTR(dst, Math.min(n, MAX_READ));
+            } else {
+                n = readCBC(dst, Math.min(n, MAX_READ));
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        position += n;
+        return n;
+    }
+
+    /**
+     * 读取明文区间 [offset, offset+length)，超出文件末尾的部分被截掉
+     */
+    public byte[] read(long offset, int length) throws IOException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("偏移和长度不能为负数");
+        }
+        position(offset);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(length, size - offset)));
+        while (buffer.hasRemaining() && read(buffer) > 0) {
+            // 逐段读取直至填满
+        }
+        return buffer.array();
+    }
+
+    private int readCTR(ByteBuffer dst, int n) throws IOException {
+        ensureBuffers(MAX_READ);
+        long cipherOffset = header.getLength() + position;
+        readCiphertext(cipherOffset, cipherBuffer, n);
+        SM4Util.processCTR(engine, header.getIV(), position, cipherBuffer, 0, n, plainBuffer, 0);
+        dst.put(plainBuffer, 0, n);
+        return n;
+    }
+
+    private int readCBC(ByteBuffer dst, int n) throws IOException {
+        // 定位所在分段（v1视为只有一个分段）
+        long segment = 0;
+        long offset = position;
+        long cipherBase = header.getLength();
+        byte[] segmentIV = header.getIV();
+        if (segmentCipher != null) {
+            segment = position / header.getSegmentSize();
+            offset = position - segment * header.getSegmentSize();
+            n = (int) Math.min(n, header.getSegmentPlainLength(segment) - offset);
+            cipherBase = header.getSegmentOffset(segment);
+        }
+
+        long firstBlock = offset / BLOCK_SIZE;
+        long endBlock = (offset + n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int blocks = (int) (endBlock - firstBlock);
+        ensureBuffers(MAX_READ + 2 * BLOCK_SIZE);
+
+        // 首个分组的IV：分段内第一个分组用分段IV，否则为前一个密文分组
+        byte[] iv;
+        int ivLength = firstBlock == 0 ? 0 : BLOCK_SIZE;
+        readCiphertext(cipherBase + firstBlock * BLOCK_SIZE - ivLength, cipherBuffer, ivLength + blocks * BLOCK_SIZE);
+        if (firstBlock == 0) {
+            iv = segmentCipher != null ? segmentCipher.segmentIV(segment) : segmentIV;
+        } else {
+            iv = new byte[BLOCK_SIZE];
+            System.arraycopy(cipherBuffer, 0, iv, 0, BLOCK_SIZE);
+        }
+
+        if (cbc == null) {
+            cbc = new CBCBlockCipher(engine);
+            cbc.init(false, new ParametersWithIV(new KeyParameter(key), iv));
+        } else {
+            // 密钥和方向不变，只更换IV
+            cbc.init(false, new ParametersWithIV(null, iv));
+        }
+        for (int i = 0; i < blocks; i++) {
+            cbc.processBlock(cipherBuffer, ivLength + i * BLOCK_SIZE, plainBuffer, i * BLOCK_SIZE);
+        }
+        dst.put(plainBuffer, (int) (offset - firstBlock * BLOCK_SIZE), n);
+        return n;
+    }
+
+    private int readSegment(ByteBuffer dst, int n) throws Exception {
+        int segmentSize = header.getSegmentSize();
+        long segment = position / segmentSize;
+        if (segment != cachedSegment) {
+            boolean last = segment == header.getSegmentCount() - 1;
+            int cipherLength = header.getSegmentStoredLength(segment);
+            ensureBuffers(segmentSize + SegmentCipher.MAX_OVERHEAD);
+            readCiphertext(header.getSegmentOffset(segment), cipherBuffer, cipherLength);
+            cachedSegment = -1;
+            cachedLength = segmentCipher.decryptSegment(segment, last, cipherBuffer, 0, cipherLength, plainBuffer, 0);
+            cachedSegment = segment;
+        }
+        int offset = (int) (position - segment * segmentSize);
+        n = Math.min(n, cachedLength - offset);
+        dst.put(plainBuffer, offset, n);
+        return n;
+    }
+
+    /**
+     * v1明文长度：解密最后一个分组得到PKCS7填充长度
+     */
+    private long v1PlaintextLength() throws IOException {
+        long bodyLength = channel.size() - header.getLength();
+        if (bodyLength <= 0 || bodyLength % BLOCK_SIZE != 0) {
+            throw new IOException("加密文件长度无效，文件可能已损坏或被截断");
+        }
+        position = bodyLength - 1;
+        ByteBuffer last = ByteBuffer.allocate(1);
+        readCBC(last, 1);
+        position = 0;
+        int pad = last.get(0) & 0xFF;
+        if (pad < 1 || pad > BLOCK_SIZE) {
+            throw new IOException("解密失败（可能密钥不匹配或数据损坏）");
+        }
+        return bodyLength - pad;
+    }
+
+    private void readCiphertext(long offset, byte[] buffer, int len) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, len);
+        while (target.hasRemaining()) {
+            if (channel.read(target, offset + target.position()) < 0) {
+                throw new IOException("加密文件被截断，文件可能已损坏");
+            }
+        }
+    }
+
+    private void ensureBuffers(int length) {
+        if (cipherBuffer == null || cipherBuffer.length < length) {
+            cipherBuffer = new byte[length];
+            plainBuffer = new byte[length];
+            cachedSegment = -1;
+        }
+    }
+
+    @Override
+    public long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    @Override
+    public EncryptedFileChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("位置不能为负数: " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    /**
+     * 明文长度
+     */
+    @Override
+    public long size() throws IOException {
+        checkOpen();
+        return size;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            Arrays.fill(key, (byte) 0);
+            if (plainBuffer != null) {
+                Arrays.fill(plainBuffer, (byte) 0);
+            }
+            channel.close();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
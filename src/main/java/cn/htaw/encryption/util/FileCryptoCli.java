@@ -0,0 +1,1005 @@
+package cn.htaw.encryption.util;
+
+import org.bouncycastle.util.encoders.Hex;
+
+import javax.management.JMException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * SM2+SM4文件加解密命令行工具（无界面，适用于服务器和定时任务）
+ * 用法见 {@link #printUsage()}
+ */
+public class FileCryptoCli {
+    // 加密输出文件后缀
+    static final String ENCRYPTED_SUFFIX = DirectoryCrypto.ENCRYPTED_SUFFIX;
+    // 解密输出文件后缀（输入文件无加密后缀时使用）
+    static final String DECRYPTED_SUFFIX = DirectoryCrypto.DECRYPTED_SUFFIX;
+    // 系统密钥配置文件路径（resources目录下）
+    static final String SYSTEM_KEY_CONFIG_FILE = "/sm2_keys.properties";
+
+    // 退出码
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILED = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private boolean encrypt;
+    private boolean verify;
+    private boolean rekey;
+    // 更换密钥时的新公钥及其配置文件
+    private String newPublicKeyHex;
+    private String newKeyFile;
+    private boolean keygen;
+    // 加密归档：打包、解包及只列出条目、只提取指定条目
+    private boolean pack;
+    private boolean unpack;
+    private boolean listEntries;
+    private final List<String> entryNames = new ArrayList<>();
+    // 守护进程：监听端口和令牌文件
+    private boolean daemon;
+    private int port = CryptoDaemon.DEFAULT_PORT;
+    private File tokenFile = new File(System.getProperty("user.home"), ".sm2sm4" + File.separator + "daemon.token");
+    // 监视模式：落地目录中的文件写完后即加密
+    private boolean watch;
+    private long stableMillis = DirectoryWatcher.DEFAULT_STABLE_MILLIS;
+    private boolean deleteSource;
+    private long keyCount;
+    private boolean uncompressed;
+    private String keyFile;
+    private String publicKeyHex;
+    private String privateKeyHex;
+    // 额外的接收方公钥（多接收方加密）
+    private final List<String> recipientHexes = new ArrayList<>();
+    private File outputDir;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private final FileCryptoOptions options = new FileCryptoOptions();
+    private boolean recursive;
+    // 目录树模式：边遍历边处理，工作窃取调度
+    private boolean tree;
+    private boolean printSm3;
+    private boolean resume;
+    private final List<File> inputs = new ArrayList<>();
+    // 运行指标：定期输出间隔（秒，0为不输出）、输出格式、是否注册JMX
+    private long metricsInterval;
+    private boolean metricsJson;
+    private boolean jmx;
+
+    public static void main(String[] args) {
+        System.exit(new FileCryptoCli().run(args));
+    }
+
+    /**
+     * 执行命令行
+     * @return 进程退出码
+     */
+    int run(String[] args) {
+        try {
+            parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("参数错误: " + e.getMessage());
+            printUsage();
+            return EXIT_USAGE;
+        }
+
+        CryptoMetrics.Registration reporter = null;
+        if (metricsInterval > 0 || jmx) {
+            CryptoMetrics.setEnabled(true);
+        }
+        if (jmx) {
+            try {
+                CryptoMetrics.registerMBean();
+            } catch (JMException e) {
+                System.err.println("注册JMX失败: " + e.getMessage());
+            }
+        }
+        if (metricsInterval > 0) {
+            reporter = CryptoMetrics.startReporter(metricsInterval * 1000, System.err, metricsJson);
+        }
+        try {
+            return execute();
+        } finally {
+            if (reporter != null) {
+                reporter.close();
+                // 结束时输出整个运行期间的累计指标
+                CryptoMetrics.Snapshot total = CryptoMetrics.snapshot();
+                System.err.println(metricsJson ? total.toJson() : total.toText());
+            }
+        }
+    }
+
+    private int execute() {
+        if (keygen) {
+            return generateKeyStore();
+        }
+        if (daemon) {
+            return runDaemon();
+        }
+
+        byte[] key;
+        byte[] resumeKey;
+        List<byte[]> publicKeys = new ArrayList<>();
+        try {
+            key = loadKey(encrypt);
+            if (encrypt || rekey) {
+                publicKeys.add(rekey ? loadNewPublicKey() : key);
+                for (String hex : recipientHexes) {
+                    publicKeys.add(decodeHex(hex, "接收方公钥"));
+                }
+            }
+            // 续加密需用私钥解出输出文件头部中的SM4密钥以校验断点日志
+            resumeKey = resume ? loadKey(false) : null;
+        } catch (Exception e) {
+            System.err.println("加载密钥失败: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+
+        if (tree) {
+            return processTrees(key, publicKeys);
+        }
+        if (watch) {
+            return watchDirectory(publicKeys);
+        }
+        if (pack || unpack) {
+            return processArchives(key, publicKeys);
+        }
+
+        // 收集待处理文件
+        List<File[]> jobs = new ArrayList<>();
+        for (File input : inputs) {
+            if (input.isDirectory()) {
+                collectFiles(input, input, jobs);
+            } else if (input.isFile()) {
+                jobs.add(new File[]{input, resolveOutput(input, null, input)});
+            } else {
+                System.err.println("跳过不存在的路径: " + input.getPath());
+            }
+        }
+        if (jobs.isEmpty()) {
+            System.err.println("没有找到待处理的文件");
+            return EXIT_FAILED;
+        }
+
+        FileCryptoEngine engine = new FileCryptoEngine(options);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, jobs.size()));
+        long startTime = System.currentTimeMillis();
+        int failed = 0;
+        long totalBytes = 0;
+        try {
+            List<Future<FileCryptoResult>> futures = new ArrayList<>(jobs.size());
+            for (File[] job : jobs) {
+                futures.add(pool.submit(() -> processFile(engine, job[0], job[1], key, publicKeys, resumeKey)));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                File[] job = jobs.get(i);
+                try {
+                    FileCryptoResult result = futures.get(i).get();
+                    totalBytes += result.getInputLength();
+                    if (rekey) {
+                        System.out.println("已更换密钥: " + job[0].getPath());
+                        continue;
+                    }
+                    if (verify) {
+                        System.out.println("校验通过: " + job[0].getPath());
+                        if (printSm3) {
+                            System.out.println("  SM3 " + result.getInputSm3Hex() + "  " + job[0].getPath());
+                        }
+                        continue;
+                    }
+                    System.out.println("完成: " + job[0].getPath() + " -> " + job[1].getPath());
+                    if (printSm3 && result.getInputSm3() != null) {
+                        System.out.println("  SM3 " + result.getInputSm3Hex() + "  " + job[0].getPath());
+                        if (result.getOutputSm3() != null) {
+                            System.out.println("  SM3 " + result.getOutputSm3Hex() + "  " + job[1].getPath());
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.err.println("失败: " + job[0].getPath() + " (" + e.getCause().getMessage() + ")");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("处理被中断");
+            return EXIT_FAILED;
+        } finally {
+            pool.shutdownNow();
+        }
+
+        long timeCost = System.currentTimeMillis() - startTime;
+        System.out.println(String.format("共%d个文件，成功%d个，失败%d个，处理%d字节，耗时%dms",
+                jobs.size(), jobs.size() - failed, failed, totalBytes, timeCost));
+        return failed == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    /**
+     * 批量生成SM2密钥对并写入密钥库文件
+     */
+    private int generateKeyStore() {
+        File output = inputs.get(0);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long startTime = System.currentTimeMillis();
+        try {
+            SM2KeyStore.generate(output, keyCount, !uncompressed, pool, null);
+        } catch (Exception e) {
+            System.err.println("生成密钥库失败: " + e.getMessage());
+            return EXIT_FAILED;
+        } finally {
+            pool.shutdownNow();
+        }
+        long timeCost = System.currentTimeMillis() - startTime;
+        System.out.println(String.format("已生成%d个SM2密钥对: %s，耗时%dms", keyCount, output.getPath(), timeCost));
+        return EXIT_OK;
+    }
+
+    /**
+     * 守护进程模式：加载密钥后常驻，直至进程收到终止信号
+     */
+    private int runDaemon() {
+        List<byte[]> publicKeys = new ArrayList<>();
+        byte[] privateKey;
+        try {
+            publicKeys.add(loadKey(true));
+            for (String hex : recipientHexes) {
+                publicKeys.add(decodeHex(hex, "接收方公钥"));
+            }
+        } catch (Exception e) {
+            // 未配置公钥时每个加密请求须自带接收方公钥
+            publicKeys.clear();
+        }
+        try {
+            privateKey = loadKey(false);
+        } catch (Exception e) {
+            privateKey = null;
+        }
+        if (publicKeys.isEmpty() && privateKey == null) {
+            System.err.println("加载密钥失败: 未提供SM2公钥或私钥");
+            return EXIT_USAGE;
+        }
+
+        CryptoDaemon server;
+        try {
+            server = new CryptoDaemon(options, privateKey, publicKeys, port, tokenFile, threads);
+        } catch (Exception e) {
+            System.err.println("启动守护进程失败: " + e.getMessage());
+            return EXIT_FAILED;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // 进程退出中，忽略
+            }
+        }));
+        System.out.println(String.format("守护进程已启动: 127.0.0.1:%d，令牌文件 %s%s", server.getPort(),
+                tokenFile.getPath(), privateKey == null ? "（未加载私钥，只能加密）" : ""));
+        try {
+            server.serve();
+        } catch (IOException e) {
+            System.err.println("守护进程异常退出: " + e.getMessage());
+            return EXIT_FAILED;
+        }
+        return EXIT_OK;
+    }
+
+    /**
+     * 监视模式：持续加密放入输入目录的文件，直至进程收到终止信号
+     */
+    private int watchDirectory(List<byte[]> publicKeys) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        DirectoryWatcher watcher;
+        try {
+            watcher = new DirectoryWatcher(options.copy().setSegmentPool(pool), inputs.get(0), outputDir, publicKeys)
+                    .setStableMillis(stableMillis)
+                    .setDeleteSource(deleteSource);
+        } catch (IOException e) {
+            pool.shutdownNow();
+            System.err.println("启动监视失败: " + e.getMessage());
+            return EXIT_FAILED;
+        }
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                watcher.close();
+                // 等待已提交的文件加密完成（不能等待主线程结束，主线程的System.exit会等待本钩子）
+                stopped.await();
+            } catch (IOException | InterruptedException e) {
+                // 进程退出中，忽略
+            }
+        }));
+        System.out.println("开始监视: " + inputs.get(0).getPath() + " -> " + outputDir.getPath());
+        try {
+            watcher.watch(new DirectoryWatcher.Listener() {
+                private String last;
+
+                @Override
+                public void onStatus(DirectoryWatcher.Status status) {
+                    // 状态无变化时不重复输出
+                    String text = status.toString();
+                    if (!text.equals(last)) {
+                        last = text;
+                        System.out.println("状态: " + text);
+                    }
+                }
+
+                @Override
+                public void onEncrypted(File input, File output, FileCryptoResult result) {
+                    System.out.println("完成: " + input.getPath() + " -> " + output.getPath());
+                }
+
+                @Override
+                public void onFailure(File input, Exception e) {
+                    System.err.println("失败: " + input.getPath() + " (" + e.getMessage() + ")");
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("监视被中断");
+            return EXIT_FAILED;
+        } catch (Exception e) {
+            System.err.println("监视失败: " + e.getMessage());
+            return EXIT_FAILED;
+        } finally {
+            pool.shutdownNow();
+            stopped.countDown();
+        }
+        return EXIT_OK;
+    }
+
+    /**
+     * 目录树模式：每个输入目录的相对结构镜像到输出目录，每秒输出一次累计吞吐量
+     */
+    private int processTrees(byte[] key, List<byte[]> publicKeys) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        DirectoryCrypto crypto = new DirectoryCrypto(options.copy().setSegmentPool(pool));
+        DirectoryCrypto.Listener listener = new DirectoryCrypto.Listener() {
+            @Override
+            public void onProgress(DirectoryCrypto.Progress progress) {
+                System.out.println("进度: " + progress);
+            }
+
+            @Override
+            public void onFailure(File input, Exception e) {
+                System.err.println("失败: " + input.getPath() + " (" + e.getMessage() + ")");
+            }
+        };
+        long failed = 0;
+        try {
+            for (File input : inputs) {
+                DirectoryCrypto.Progress result = encrypt
+                        ? crypto.encrypt(input, outputDir, publicKeys, listener)
+                        : crypto.decrypt(input, outputDir, key, listener);
+                failed += result.getFailed();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("处理被中断");
+            return EXIT_FAILED;
+        } catch (Exception e) {
+            System.err.println("处理失败: " + e.getMessage());
+            return EXIT_FAILED;
+        } finally {
+            pool.shutdownNow();
+        }
+        return failed == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    /**
+     * 加密归档：pack把每个输入目录打包为一个归档，unpack提取（或列出）归档中的条目
+     */
+    private int processArchives(byte[] key, List<byte[]> publicKeys) {
+        long startTime = System.currentTimeMillis();
+        int failed = 0;
+        long totalBytes = 0;
+        for (File input : inputs) {
+            try {
+                if (pack) {
+                    File archive = new File(outputDir != null ? outputDir : input.getAbsoluteFile().getParentFile(),
+                            input.getAbsoluteFile().getName() + EncryptedArchive.SUFFIX);
+                    File parent = archive.getParentFile();
+                    if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+                        throw new IOException("输出目录不存在且无法创建: " + parent.getPath());
+                    }
+                    FileCryptoResult result = EncryptedArchive.create(input, archive, publicKeys, options, null);
+                    totalBytes += result.getInputLength();
+                    System.out.println("完成: " + input.getPath() + " -> " + archive.getPath());
+                    continue;
+                }
+                try (EncryptedArchive archive = EncryptedArchive.open(input, key)) {
+                    if (listEntries) {
+                        for (EncryptedArchive.Entry entry : archive.getEntries()) {
+                            System.out.println(String.format("%12d  %s", entry.getLength(), entry.getName()));
+                        }
+                        continue;
+                    }
+                    File outputRoot = outputDir != null ? outputDir : new File(input.getAbsoluteFile().getParentFile(),
+                            archiveDirectoryName(input.getName()));
+                    if (entryNames.isEmpty()) {
+                        archive.extractAll(outputRoot, null);
+                        for (EncryptedArchive.Entry entry : archive.getEntries()) {
+                            totalBytes += entry.getLength();
+                        }
+                    } else {
+                        for (String name : entryNames) {
+                            EncryptedArchive.Entry entry = archive.getEntry(name);
+                            if (entry == null) {
+                                throw new IOException("归档中没有条目: " + name);
+                            }
+                            archive.extract(entry, outputRoot);
+                            totalBytes += entry.getLength();
+                        }
+                    }
+                    System.out.println("完成: " + input.getPath() + " -> " + outputRoot.getPath());
+                }
+            } catch (Exception e) {
+                failed++;
+                System.err.println("失败: " + input.getPath() + " (" + e.getMessage() + ")");
+            }
+        }
+        long timeCost = System.currentTimeMillis() - startTime;
+        if (!listEntries) {
+            System.out.println(String.format("共%d个归档，成功%d个，失败%d个，处理%d字节，耗时%dms",
+                    inputs.size(), inputs.size() - failed, failed, totalBytes, timeCost));
+        }
+        return failed == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    /**
+     * 解包目录名：去掉归档后缀（无该后缀则追加解密后缀）
+     */
+    static String archiveDirectoryName(String name) {
+        if (name.endsWith(EncryptedArchive.SUFFIX) && name.length() > EncryptedArchive.SUFFIX.length()) {
+            return name.substring(0, name.length() - EncryptedArchive.SUFFIX.length());
+        }
+        return name + DECRYPTED_SUFFIX;
+    }
+
+    private FileCryptoResult processFile(FileCryptoEngine engine, File input, File output, byte[] key,
+                                         List<byte[]> publicKeys, byte[] resumeKey) throws Exception {
+        if (verify) {
+            // 只校验，不写出任何文件
+            return engine.verify(input, key, null);
+        }
+        if (rekey) {
+            // 只重写头部，密文主体不变
+            engine.rekey(input, key, publicKeys);
+            return new FileCryptoResult(input.length(), input.length(), null, null);
+        }
+        File parent = output.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IOException("输出目录不存在且无法创建: " + parent.getPath());
+        }
+        try {
+            if (encrypt) {
+                if (resumeKey != null && CheckpointJournal.journalFile(output).isFile()) {
+                    System.out.println("从断点继续: " + input.getPath());
+                    return engine.resumeEncrypt(input, output, resumeKey, null);
+                }
+                return engine.encrypt(input, output, publicKeys, null);
+            }
+            return engine.decrypt(input, output, key, null);
+        } catch (Exception e) {
+            // 清理不完整文件（已保存断点的保留，供 --resume 继续）
+            if (!CheckpointJournal.journalFile(output).isFile()) {
+                output.delete();
+            }
+            throw e;
+        }
+    }
+
+    private void collectFiles(File root, File dir, List<File[]> jobs) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            System.err.println("无法读取目录: " + dir.getPath());
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                if (recursive) {
+                    collectFiles(root, child, jobs);
+                }
+            } else if (child.isFile()) {
+                // 更换密钥时目录中只处理加密文件
+                if (rekey && !child.getName().endsWith(ENCRYPTED_SUFFIX)) {
+                    continue;
+                }
+                jobs.add(new File[]{child, resolveOutput(child, root, dir)});
+            }
+        }
+    }
+
+    /**
+     * 计算输出文件路径：指定输出目录时保持相对目录结构，否则输出到输入文件所在目录
+     */
+    private File resolveOutput(File input, File root, File dir) {
+        String name = input.getName();
+        if (encrypt) {
+            name = name + ENCRYPTED_SUFFIX;
+        } else if (name.endsWith(ENCRYPTED_SUFFIX) && name.length() > ENCRYPTED_SUFFIX.length()) {
+            name = name.substring(0, name.length() - ENCRYPTED_SUFFIX.length());
+        } else {
+            name = name + DECRYPTED_SUFFIX;
+        }
+
+        if (outputDir == null) {
+            return new File(input.getAbsoluteFile().getParentFile(), name);
+        }
+        if (root == null) {
+            return new File(outputDir, name);
+        }
+        String relative = root.getAbsoluteFile().toURI().relativize(dir.getAbsoluteFile().toURI()).getPath();
+        return new File(new File(outputDir, relative), name);
+    }
+
+    private byte[] loadKey(boolean publicKey) throws Exception {
+        String hex = publicKey ? publicKeyHex : privateKeyHex;
+        if (hex == null) {
+            Properties props = new Properties();
+            if (keyFile != null) {
+                try (InputStream is = new FileInputStream(keyFile)) {
+                    props.load(is);
+                }
+            } else {
+                try (InputStream is = FileCryptoCli.class.getResourceAsStream(SYSTEM_KEY_CONFIG_FILE)) {
+                    if (is == null) {
+                        throw new IOException("未找到系统密钥配置文件: " + SYSTEM_KEY_CONFIG_FILE);
+                    }
+                    props.load(is);
+                }
+            }
+            hex = props.getProperty(publicKey ? "sm2.publicKey" : "sm2.privateKey", "").trim();
+        }
+        if (hex.isEmpty()) {
+            throw new IllegalArgumentException(publicKey ? "未提供SM2公钥" : "未提供SM2私钥");
+        }
+        return decodeHex(hex, publicKey ? "公钥" : "私钥");
+    }
+
+    /**
+     * 更换密钥时的新公钥：--new-public-key，或新密钥配置文件中的sm2.publicKey（同时读取其中的sm2.recipients）
+     */
+    private byte[] loadNewPublicKey() throws Exception {
+        String hex = newPublicKeyHex;
+        if (hex == null && newKeyFile != null) {
+            Properties props = new Properties();
+            try (InputStream is = new FileInputStream(newKeyFile)) {
+                props.load(is);
+            }
+            hex = props.getProperty("sm2.publicKey", "").trim();
+            for (String recipient : props.getProperty("sm2.recipients", "").split(",")) {
+                if (!recipient.trim().isEmpty()) {
+                    recipientHexes.add(recipient.trim());
+                }
+            }
+        }
+        if (hex == null || hex.isEmpty()) {
+            throw new IllegalArgumentException("未提供新的SM2公钥（--new-public-key 或 --new-key-file）");
+        }
+        return decodeHex(hex, "新公钥");
+    }
+
+    private static byte[] decodeHex(String hex, String name) {
+        try {
+            return Hex.decode(hex);
+        } catch (Exception e) {
+            throw new IllegalArgumentException(name + "格式错误，必须是十六进制字符串");
+        }
+    }
+
+    /**
+     * 读取接收方公钥列表文件：每行一个十六进制公钥，忽略空行和#开头的注释行
+     */
+    private void readRecipientsFile(String path) {
+        try {
+            for (String line : Files.readAllLines(new File(path).toPath(), StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    recipientHexes.add(line);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("无法读取接收方公钥列表: " + path);
+        }
+    }
+
+    private void parseArgs(String[] args) {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("缺少操作类型");
+        }
+        String command = args[0];
+        if ("encrypt".equals(command)) {
+            encrypt = true;
+        } else if ("decrypt".equals(command)) {
+            encrypt = false;
+        } else if ("verify".equals(command)) {
+            verify = true;
+        } else if ("rekey".equals(command)) {
+            rekey = true;
+        } else if ("keygen".equals(command)) {
+            keygen = true;
+        } else if ("pack".equals(command)) {
+            pack = true;
+            encrypt = true;
+        } else if ("unpack".equals(command)) {
+            unpack = true;
+        } else if ("watch".equals(command)) {
+            watch = true;
+            encrypt = true;
+        } else if ("daemon".equals(command)) {
+            daemon = true;
+            encrypt = true;
+        } else {
+            throw new IllegalArgumentException("未知操作: " + command);
+        }
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-k":
+                case "--key-file":
+                    keyFile = requireValue(args, ++i, arg);
+                    break;
+                case "--public-key":
+                    publicKeyHex = requireValue(args, ++i, arg).trim();
+                    break;
+                case "--private-key":
+                    privateKeyHex = requireValue(args, ++i, arg).trim();
+                    break;
+                case "--new-public-key":
+                    newPublicKeyHex = requireValue(args, ++i, arg).trim();
+                    break;
+                case "--new-key-file":
+                    newKeyFile = requireValue(args, ++i, arg);
+                    break;
+                case "--recipient":
+                    recipientHexes.add(requireValue(args, ++i, arg).trim());
+                    break;
+                case "--recipients-file":
+                    readRecipientsFile(requireValue(args, ++i, arg));
+                    break;
+                case "-o":
+                case "--output-dir":
+                    outputDir = new File(requireValue(args, ++i, arg));
+                    break;
+                case "-t":
+                case "--threads":
+                    threads = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "-b":
+                case "--buffer-size":
+                    options.setBufferSize(parsePositiveInt(requireValue(args, ++i, arg), arg));
+                    break;
+                case "-f":
+                case "--format":
+                    options.setFormatVersion(parsePositiveInt(requireValue(args, ++i, arg), arg));
+                    break;
+                case "-m":
+                case "--mode":
+                    options.setMode(parseMode(requireValue(args, ++i, arg)));
+                    break;
+                case "--segment-size":
+                    options.setSegmentSize(parsePositiveInt(requireValue(args, ++i, arg), arg));
+                    break;
+                case "--pipeline":
+                    options.setPipelineDepth(parsePositiveInt(requireValue(args, ++i, arg), arg));
+                    break;
+                case "--checkpoint":
+                    options.setCheckpointInterval(parsePositiveInt(requireValue(args, ++i, arg), arg) * 1024L * 1024L);
+                    break;
+                case "-z":
+                case "--compress":
+                    options.setCompressionLevel(parseCompressionLevel(requireValue(args, ++i, arg)));
+                    break;
+                case "--resume":
+                    resume = true;
+                    break;
+                case "--random":
+                    SecureRandomProvider.setAlgorithm(parseRandomAlgorithm(requireValue(args, ++i, arg)));
+                    break;
+                case "--io":
+                    options.setIoMode(parseIoMode(requireValue(args, ++i, arg)));
+                    break;
+                case "-n":
+                case "--count":
+                    keyCount = parsePositiveLong(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--uncompressed":
+                    uncompressed = true;
+                    break;
+                case "-r":
+                case "--recursive":
+                    recursive = true;
+                    break;
+                case "--sm3":
+                    printSm3 = true;
+                    break;
+                case "--tree":
+                    tree = true;
+                    break;
+                case "--entry":
+                    entryNames.add(requireValue(args, ++i, arg));
+                    break;
+                case "--list":
+                    listEntries = true;
+                    break;
+                case "--stable":
+                    stableMillis = parseNonNegativeLong(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--delete-source":
+                    deleteSource = true;
+                    break;
+                case "--metrics":
+                    metricsInterval = parsePositiveLong(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--metrics-format":
+                    metricsJson = parseMetricsFormat(requireValue(args, ++i, arg));
+                    break;
+                case "--jmx":
+                    jmx = true;
+                    break;
+                case "--port":
+                    port = parsePort(requireValue(args, ++i, arg));
+                    break;
+                case "--token-file":
+                    tokenFile = new File(requireValue(args, ++i, arg));
+                    break;
+                default:
+                    if (arg.startsWith("-")) {
+                        throw new IllegalArgumentException("未知选项: " + arg);
+                    }
+                    inputs.add(new File(arg));
+            }
+        }
+
+        if (options.getCompressionLevel() > 0) {
+            if (!encrypt || pack || options.getFormatVersion() == FileHeader.VERSION_1) {
+                throw new IllegalArgumentException("--compress 仅用于格式2/3的加密（-f 2 或 -f 3）");
+            }
+            if (options.getCheckpointInterval() > 0 || resume) {
+                throw new IllegalArgumentException("--compress 不能与 --checkpoint、--resume 同时使用");
+            }
+        }
+        if (resume && !encrypt) {
+            throw new IllegalArgumentException("--resume 仅用于加密");
+        }
+        if ((listEntries || !entryNames.isEmpty()) && !unpack) {
+            throw new IllegalArgumentException("--list 和 --entry 仅用于 unpack");
+        }
+        if ((pack || unpack) && (tree || resume)) {
+            throw new IllegalArgumentException("pack/unpack 不能与 --tree、--resume 同时使用");
+        }
+        // 归档总是分段格式，-f 1 时按格式2打包
+        if (!recipientHexes.isEmpty() && !rekey && !pack
+                && (!encrypt || options.getFormatVersion() == FileHeader.VERSION_1)) {
+            throw new IllegalArgumentException("--recipient 仅用于格式2/3的加密（-f 2 或 -f 3）或更换密钥");
+        }
+        if (tree) {
+            if (verify || rekey || keygen || resume) {
+                throw new IllegalArgumentException("--tree 仅用于加密和解密，且不能与 --resume 同时使用");
+            }
+            if (outputDir == null) {
+                throw new IllegalArgumentException("--tree 需要 -o 指定输出目录");
+            }
+            for (File input : inputs) {
+                if (!input.isDirectory()) {
+                    throw new IllegalArgumentException("--tree 的输入必须是目录: " + input.getPath());
+                }
+            }
+        }
+        if (watch) {
+            if (tree || resume || options.getCheckpointInterval() > 0) {
+                throw new IllegalArgumentException("watch 不能与 --tree、--resume、--checkpoint 同时使用");
+            }
+            if (outputDir == null) {
+                throw new IllegalArgumentException("watch 需要 -o 指定输出目录");
+            }
+            if (inputs.size() != 1 || !inputs.get(0).isDirectory()) {
+                throw new IllegalArgumentException("watch 需要且只能指定一个输入目录");
+            }
+        }
+        if (daemon) {
+            if (!inputs.isEmpty() || tree || resume || options.getCheckpointInterval() > 0) {
+                throw new IllegalArgumentException("daemon 不接受文件参数，且不能与 --tree、--resume、--checkpoint 同时使用");
+            }
+        } else if (keygen) {
+            if (keyCount == 0) {
+                throw new IllegalArgumentException("keygen 需要 -n 指定密钥对数量");
+            }
+            if (inputs.size() != 1) {
+                throw new IllegalArgumentException("keygen 需要且只能指定一个密钥库文件");
+            }
+        } else if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("缺少待处理的文件或目录");
+        }
+    }
+
+    static String requireValue(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " 缺少参数值");
+        }
+        return args[index];
+    }
+
+    static int parseMode(String value) {
+        switch (value.toLowerCase()) {
+            case "cbc":
+                return FileHeader.MODE_CBC;
+            case "ctr":
+                return FileHeader.MODE_CTR;
+            case "gcm":
+                return FileHeader.MODE_GCM;
+            default:
+                throw new IllegalArgumentException("未知加密模式: " + value);
+        }
+    }
+
+    static FileCryptoOptions.IoMode parseIoMode(String value) {
+        switch (value.toLowerCase()) {
+            case "stream":
+                return FileCryptoOptions.IoMode.STREAM;
+            case "channel":
+                return FileCryptoOptions.IoMode.CHANNEL;
+            case "mapped":
+                return FileCryptoOptions.IoMode.MAPPED;
+            default:
+                throw new IllegalArgumentException("未知读写方式: " + value);
+        }
+    }
+
+    static SecureRandomProvider.Algorithm parseRandomAlgorithm(String value) {
+        switch (value.toLowerCase()) {
+            case "system":
+                return SecureRandomProvider.Algorithm.SYSTEM;
+            case "nonblocking":
+                return SecureRandomProvider.Algorithm.NON_BLOCKING;
+            case "sm3-drbg":
+                return SecureRandomProvider.Algorithm.HASH_DRBG_SM3;
+            case "sha256-drbg":
+                return SecureRandomProvider.Algorithm.HASH_DRBG_SHA256;
+            default:
+                throw new IllegalArgumentException("未知随机数算法: " + value);
+        }
+    }
+
+    static int parseCompressionLevel(String value) {
+        try {
+            int level = Integer.parseInt(value);
+            if (level >= 1 && level <= 9) {
+                return level;
+            }
+        } catch (NumberFormatException e) {
+            // 在下方统一报错
+        }
+        throw new IllegalArgumentException("--compress 必须是1到9之间的整数: " + value);
+    }
+
+    static boolean parseMetricsFormat(String value) {
+        switch (value.toLowerCase()) {
+            case "text":
+                return false;
+            case "json":
+                return true;
+            default:
+                throw new IllegalArgumentException("--metrics-format 必须是 text 或 json: " + value);
+        }
+    }
+
+    static int parsePort(String value) {
+        try {
+            int n = Integer.parseInt(value.trim());
+            if (n >= 0 && n <= 65535) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // 在下方统一报错
+        }
+        throw new IllegalArgumentException("--port 必须是0~65535之间的整数: " + value);
+    }
+
+    static int parsePositiveInt(String value, String option) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n > 0) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // 在下方统一报错
+        }
+        throw new IllegalArgumentException(option + " 必须是正整数: " + value);
+    }
+
+    static long parseNonNegativeLong(String value, String option) {
+        try {
+            long n = Long.parseLong(value);
+            if (n >= 0) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // 在下方统一报错
+        }
+        throw new IllegalArgumentException(option + " 必须是非负整数: " + value);
+    }
+
+    static long parsePositiveLong(String value, String option) {
+        try {
+            long n = Long.parseLong(value);
+            if (n > 0) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // 在下方统一报错
+        }
+        throw new IllegalArgumentException(option + " 必须是正整数: " + value);
+    }
+
+    private static void printUsage() {
+        System.err.println("用法: java -cp <jar> cn.htaw.encryption.util.FileCryptoCli <encrypt|decrypt|verify> [选项] <文件或目录>...");
+        System.err.println("      java -cp <jar> cn.htaw.encryption.util.FileCryptoCli rekey -k <旧密钥文件> --new-key-file <新密钥文件> [-t <n>] [-r] <文件或目录>...");
+        System.err.println("      java -cp <jar> cn.htaw.encryption.util.FileCryptoCli pack [选项] <目录>...");
+        System.err.println("      java -cp <jar> cn.htaw.encryption.util.FileCryptoCli unpack [--list] [--entry <相对路径>]... [-o <目录>] <归档文件>...");
+        System.err.println("      java -cp <jar> cn.htaw.encryption.util.FileCryptoCli watch -o <目录> [--stable <ms>] [--delete-source] [选项] <目录>");
+        System.err.println("      java -cp <jar> cn.htaw.encryption.util.FileCryptoCli daemon [--port <n>] [--token-file <路径>] [-t <n>] [选项]");
+        System.err.println("      java -cp <jar> cn.htaw.encryption.util.FileCryptoCli keygen -n <数量> [-t <n>] [--uncompressed] <密钥库文件>");
+        System.err.println("选项:");
+        System.err.println("  -k, --key-file <路径>     SM2密钥配置文件（默认使用resources中的sm2_keys.properties）");
+        System.err.println("      --public-key <hex>    SM2公钥（加密时使用，优先于密钥文件）");
+        System.err.println("      --private-key <hex>   SM2私钥（解密时使用，优先于密钥文件）");
+        System.err.println("      --recipient <hex>     额外的接收方公钥，可重复；文件内容只加密一次，各接收方用自己的私钥即可解密（需格式2/3）");
+        System.err.println("      --recipients-file <路径>  接收方公钥列表文件（每行一个十六进制公钥，#开头为注释）");
+        System.err.println("      --new-key-file <路径> rekey的新密钥配置文件（读取sm2.publicKey和可选的sm2.recipients）");
+        System.err.println("      --new-public-key <hex>  rekey的新SM2公钥（优先于新密钥配置文件）");
+        System.err.println("  -o, --output-dir <目录>   输出目录（默认与输入文件同目录，目录输入时保持相对结构）");
+        System.err.println("  -t, --threads <n>         并发处理的文件数（默认CPU核数；keygen时为生成线程数）");
+        System.err.println("  -b, --buffer-size <n>     读写缓冲区大小（字节，默认" + FileCryptoOptions.DEFAULT_BUFFER_SIZE + "）");
+        System.err.println("  -f, --format <1|2|3>      加密输出格式：1=整体CBC（默认，与图形界面一致），2=分段并行（适合大文件多核加密），");
+        System.err.println("                            3=分段并行且每段附HMAC-SM3认证标签（仅cbc/ctr，解密时逐段校验，遇到损坏的分段立即停止）");
+        System.err.println("  -m, --mode <cbc|ctr|gcm>  格式2/3的分段加密模式（默认cbc；gcm带每段认证标签，仅用于格式2）");
+        System.err.println("      --segment-size <n>    格式2/3的分段大小（字节，16的整数倍，默认" + SegmentCipher.DEFAULT_SEGMENT_SIZE + "）");
+        System.err.println("  -z, --compress <1-9>      格式2/3加密前按块自适应Deflate压缩（1最快），已压缩的数据原样存储；");
+        System.err.println("                            压缩后的文件只能顺序解密，不支持断点续加密");
+        System.err.println("      --io <stream|channel|mapped>  读写方式：stream=文件流（默认），channel=FileChannel+直接缓冲区，");
+        System.err.println("                            mapped=内存映射读取输入文件；后两者建议配合 -b 1048576 等大缓冲区");
+        System.err.println("      --pipeline <n>        启用读取/加解密/写出三级流水线，n为缓冲槽数量（不小于2），适合网络存储等高延迟磁盘");
+        System.err.println("      --checkpoint <MB>     加密时每处理约MB兆字节保存一次断点（输出文件旁的.journal日志），中断后可续加密");
+        System.err.println("      --resume              存在断点日志时从断点继续加密，需提供SM2私钥（--private-key或密钥文件）");
+        System.err.println("      --random <system|nonblocking|sm3-drbg|sha256-drbg>  随机数来源（默认system；drbg为SP 800-90A Hash_DRBG）");
+        System.err.println("  -r, --recursive           递归处理子目录");
+        System.err.println("      --sm3                 输出输入、输出文件的SM3摘要（加解密时同步计算，不额外读取文件）");
+        System.err.println("      --tree                目录树模式：边遍历边处理整棵目录树（总是递归），小文件成批、大文件分段，");
+        System.err.println("                            由-t个工作线程窃取执行，相对结构镜像到-o目录，每秒输出累计吞吐量");
+        System.err.println("      --list                unpack时只列出归档中的条目（长度和相对路径）");
+        System.err.println("      --entry <相对路径>    unpack时只提取指定条目，可重复；只解密覆盖该条目的分段");
+        System.err.println("      --stable <ms>         watch判定文件写完所需的大小不变时间（毫秒，默认" + DirectoryWatcher.DEFAULT_STABLE_MILLIS + "；先写临时文件再改名移入时可用0）");
+        System.err.println("      --delete-source       watch加密成功后删除输入文件");
+        System.err.println("      --port <n>            daemon监听的本机端口（默认" + CryptoDaemon.DEFAULT_PORT + "，0为系统分配）");
+        System.err.println("      --token-file <路径>   daemon启动时写出的鉴权令牌文件（默认~/.sm2sm4/daemon.token，仅属主可读）");
+        System.err.println("      --metrics <秒>        启用运行指标（各操作的延迟分位数、吞吐量、错误数、队列深度等），每隔指定秒数输出到标准错误，结束时输出累计值");
+        System.err.println("      --metrics-format <text|json>  运行指标的输出格式（默认text）");
+        System.err.println("      --jmx                 启用运行指标并注册为JMX MBean（" + CryptoMetrics.OBJECT_NAME + "），适合daemon、watch等常驻进程");
+        System.err.println("  -n, --count <n>           keygen生成的SM2密钥对数量（多线程并行生成，流式写入紧凑密钥库文件）");
+        System.err.println("      --uncompressed        keygen使用非压缩格式公钥（65字节，默认33字节压缩格式）");
+        System.err.println("rekey用旧私钥解出文件密钥，再用新公钥重新加密后只重写头部，密文不变；目录中只处理" + ENCRYPTED_SUFFIX + "文件，-t为并发文件数");
+        System.err.println("verify只校验加密文件的完整性（需SM2私钥），不写出明文；格式3和GCM可发现篡改，其余格式只能发现长度、填充错误");
+        System.err.println("watch持续监视输入目录（含子目录），文件写完后加密到-o目录，-t为加密线程数；排队已满时暂缓提交，"
+                + "状态中的等待数和延迟持续增长说明生产速度超过加密速度");
+        System.err.println("daemon常驻加载密钥和预热的引擎，经127.0.0.1上的TCP连接接受请求（协议见CryptoDaemon，客户端见CryptoDaemonClient），"
+                + "-t为同时服务的连接数");
+        System.err.println("pack把目录中的所有文件打包加密为一个" + EncryptedArchive.SUFFIX + "归档（只做一次SM2加密，格式1按格式2处理），"
+                + "unpack默认解包到去掉后缀的同名目录");
+        System.err.println("加密输出文件追加" + ENCRYPTED_SUFFIX + "后缀，解密时去掉该后缀（无该后缀则追加" + DECRYPTED_SUFFIX + "）");
+    }
+}
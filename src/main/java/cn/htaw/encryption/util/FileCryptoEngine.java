@@ -0,0 +1,1049 @@
+package cn.htaw.encryption.util;
+
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.paddings.PKCS7Padding;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SM2+SM4文件加解密引擎（不依赖任何界面组件，可在无图形环境下使用）
+ * 文件格式见 {@link FileHeader}，加密时按配置选择v1（整体CBC）、v2（分段并行，CBC/CTR/GCM）
+ * 或v3（分段并行，CBC/CTR + 分段认证标签），解密时自动识别
+ * 同一实例可被多个线程同时使用
+ */
+public class FileCryptoEngine {
+    static {
+        // 确保BouncyCastleProvider已加载（SM3摘要）
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    // 原地更换密钥时原头部的备份文件后缀
+    static final String REKEY_BACKUP_SUFFIX = ".rekey";
+
+    private final FileCryptoOptions options;
+    private final int bufferSize;
+
+    public FileCryptoEngine() {
+        this(new FileCryptoOptions());
+    }
+
+    /**
+     * @param bufferSize 读写缓冲区大小（字节）
+     */
+    public FileCryptoEngine(int bufferSize) {
+        this(new FileCryptoOptions().setBufferSize(bufferSize));
+    }
+
+    public FileCryptoEngine(FileCryptoOptions options) {
+        if (options.getFormatVersion() == FileHeader.VERSION_1 && options.getMode() != FileHeader.MODE_CBC) {
+            throw new IllegalArgumentException("v1格式仅支持CBC模式，CTR/GCM模式请使用v2格式");
+        }
+        if (options.getFormatVersion() == FileHeader.VERSION_3 && options.getMode() == FileHeader.MODE_GCM) {
+            throw new IllegalArgumentException("GCM模式自带认证标签，请使用v2格式");
+        }
+        if (options.getCompressionLevel() > 0 && options.getFormatVersion() == FileHeader.VERSION_1) {
+            throw new IllegalArgumentException("压缩需使用v2或v3格式");
+        }
+        if (options.getCompressionLevel() > 0 && options.getCheckpointInterval() > 0) {
+            throw new IllegalArgumentException("压缩加密不支持断点续加密");
+        }
+        this.options = options.copy();
+        this.bufferSize = options.getBufferSize();
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public FileCryptoOptions getOptions() {
+        return options.copy();
+    }
+
+    /**
+     * 加密文件，明文和密文文件的SM3摘要在读写过程中同步计算
+     * @param inputFile 待加密文件
+     * @param outputFile 输出文件
+     * @param publicKey SM2公钥
+     * @param listener 进度监听器（可为null）
+     * @return 处理结果（含明文、密文文件的SM3摘要）
+     */
+    public FileCryptoResult encrypt(File inputFile, File outputFile, byte[] publicKey, ProgressListener listener) throws Exception {
+        return measure(CryptoMetrics.Operation.FILE_ENCRYPT, inputFile,
+                () -> encryptFile(inputFile, outputFile, publicKey, listener));
+    }
+
+    private FileCryptoResult encryptFile(File inputFile, File outputFile, byte[] publicKey, ProgressListener listener)
+            throws Exception {
+        if (listener == null) {
+            listener = ProgressListener.NONE;
+        }
+        if (options.getFormatVersion() != FileHeader.VERSION_1) {
+            return encryptSegmented(inputFile, outputFile, Collections.singletonList(publicKey), listener);
+        }
+        listener.onProgress(0);
+        checkCancelled(listener);
+
+        // 生成SM4密钥和IV
+        byte[] sm4Key = SM4Util.generateKey();
+        byte[] iv = SM4Util.generateIV();
+        listener.onProgress(10);
+        checkCancelled(listener);
+
+        // 用SM2公钥加密SM4密钥
+        byte[] encryptedSm4Key = SM2Util.encrypt(publicKey, sm4Key);
+        listener.onProgress(20);
+        checkCancelled(listener);
+
+        // 加密文件内容
+        long totalBytes = inputFile.length();
+        MessageDigest inputDigest = newSm3Digest();
+        MessageDigest outputDigest = newSm3Digest();
+        FileHeader header = FileHeader.v1(encryptedSm4Key, iv);
+        CheckpointJournal journal = newJournal(outputFile, inputFile, sm4Key, 0, header.getLength(), iv);
+        // 重新加密时清理上一次任务遗留的日志
+        journal.delete();
+
+        try (InputStream fis = new DigestInputStream(openInput(inputFile), inputDigest);
+             OutputStream fos = new DigestOutputStream(openOutput(outputFile), outputDigest)) {
+
+            // 写入加密文件头部信息（包含加密的SM4密钥和IV）
+            fos.write(header.toByteArray());
+
+            SM4Context context = new SM4Context(SM4Context.Mode.CBC, sm4Key);
+            context.init(true, iv);
+            processWhole(context, fis, fos, 0, totalBytes, 20, 80, listener, journal);
+        }
+
+        journal.delete();
+        listener.onProgress(100);
+        return new FileCryptoResult(totalBytes, outputFile.length(), inputDigest.digest(), outputDigest.digest());
+    }
+
+    /**
+     * 为多个接收方加密文件（需v2/v3格式）：文件内容只加密一次，同一个SM4密钥分别用各接收方的公钥加密后写入头部，
+     * 任一接收方的私钥均可解密，解密时按密钥标识定位自己的条目
+     * @param publicKeys 各接收方的SM2公钥（只有一个时输出普通单接收方头部）
+     * @see FileHeader#FLAG_MULTI_RECIPIENT
+     */
+    public FileCryptoResult encrypt(File inputFile, File outputFile, List<byte[]> publicKeys,
+                                    ProgressListener listener) throws Exception {
+        if (publicKeys == null || publicKeys.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个接收方公钥");
+        }
+        if (publicKeys.size() == 1) {
+            return encrypt(inputFile, outputFile, publicKeys.get(0), listener);
+        }
+        if (options.getFormatVersion() == FileHeader.VERSION_1) {
+            throw new IllegalArgumentException("多接收方需使用v2或v3格式");
+        }
+        return measure(CryptoMetrics.Operation.FILE_ENCRYPT, inputFile, () -> encryptSegmented(inputFile, outputFile,
+                publicKeys, listener == null ? ProgressListener.NONE : listener));
+    }
+
+    /**
+     * 从断点日志继续一次被中断的加密（需启用 {@link FileCryptoOptions#setCheckpointInterval(long)}）
+     * 输出文件头部中的SM4密钥由SM2私钥解出，用于校验断点日志；格式、模式和分段大小沿用输出文件头部。
+     * 输出文件截断到最后一个断点后继续追加，输入文件跳过已加密的部分，无需重新加密。
+     * @param privateKey 与加密时所用公钥对应的SM2私钥
+     * @return 处理结果（只加密了文件的一部分，不含SM3摘要）
+     */
+    public FileCryptoResult resumeEncrypt(File inputFile, File outputFile, byte[] privateKey,
+                                          ProgressListener listener) throws Exception {
+        return measure(CryptoMetrics.Operation.FILE_ENCRYPT, inputFile,
+                () -> resumeEncryptFile(inputFile, outputFile, privateKey, listener));
+    }
+
+    private FileCryptoResult resumeEncryptFile(File inputFile, File outputFile, byte[] privateKey,
+                                               ProgressListener listener) throws Exception {
+        if (listener == null) {
+            listener = ProgressListener.NONE;
+        }
+        listener.onProgress(0);
+        checkCancelled(listener);
+
+        FileHeader header;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(outputFile)))) {
+            header = FileHeader.read(in, outputFile.length());
+        }
+        byte[] sm4Key = header.unwrapKey(privateKey);
+        CheckpointJournal.Entry entry = CheckpointJournal.load(outputFile, inputFile, sm4Key);
+        checkResumePoint(outputFile, header, entry);
+        listener.onProgress(20);
+        checkCancelled(listener);
+
+        long totalBytes = inputFile.length();
+        CheckpointJournal journal = newJournal(outputFile, inputFile, sm4Key,
+                entry.plaintextOffset, entry.outputLength, entry.chain);
+        try (InputStream fis = openInput(inputFile);
+             OutputStream fos = openOutput(outputFile, entry.outputLength)) {
+            skipFully(fis, entry.plaintextOffset);
+            if (header.isSegmented()) {
+                SegmentCipher cipher = SegmentCipher.forHeader(header, sm4Key);
+                encryptSegments(inputFile.getPath(), header, cipher, fis, fos,
+                        entry.plaintextOffset / header.getSegmentSize(), listener, journal);
+            } else {
+                SM4Context context = new SM4Context(SM4Context.Mode.CBC, sm4Key);
+                context.init(true, entry.chain);
+                processWhole(context, fis, fos, entry.plaintextOffset, totalBytes, 20, 80, listener, journal);
+            }
+        }
+
+        journal.delete();
+        listener.onProgress(100);
+        return new FileCryptoResult(totalBytes, outputFile.length(), null, null);
+    }
+
+    /**
+     * 核对断点与输出文件：断点须位于已写出的数据范围内且落在分组/分段边界上，
+     * v1的链接状态须与输出文件中断点前的最后一个密文分组一致
+     */
+    private static void checkResumePoint(File outputFile, FileHeader header, CheckpointJournal.Entry entry)
+            throws IOException {
+        long bodyLength = entry.outputLength - header.getLength();
+        boolean valid;
+        if (header.isSegmented()) {
+            int segmentSize = header.getSegmentSize();
+            long segments = entry.plaintextOffset / segmentSize;
+            valid = entry.plaintextOffset % segmentSize == 0 && segments < header.getSegmentCount()
+                    && entry.outputLength == header.getSegmentOffset(segments);
+        } else {
+            valid = bodyLength >= 0 && bodyLength == entry.plaintextOffset && bodyLength % SM4Util.IV_SIZE == 0;
+            if (valid) {
+                byte[] expected = header.getIV();
+                if (bodyLength > 0) {
+                    expected = new byte[SM4Util.IV_SIZE];
+                    try (RandomAccessFile raf = new RandomAccessFile(outputFile, "r")) {
+                        raf.seek(entry.outputLength - SM4Util.IV_SIZE);
+                        raf.readFully(expected);
+                    }
+                }
+                valid = Arrays.equals(expected, entry.chain);
+            }
+        }
+        if (!valid) {
+            throw new IOException("断点日志与输出文件不符，文件可能已损坏");
+        }
+    }
+
+    /**
+     * 按配置创建断点日志；未启用断点时日志不保存，但仍负责在完成后清理旧日志
+     */
+    private CheckpointJournal newJournal(File outputFile, File inputFile, byte[] sm4Key,
+                                         long plaintextOffset, long outputLength, byte[] chain) {
+        return new CheckpointJournal(outputFile, inputFile, sm4Key, options.getCheckpointInterval(),
+                plaintextOffset, outputLength, chain);
+    }
+
+    /**
+     * 解密文件，密文和明文文件的SM3摘要在读写过程中同步计算
+     * @param inputFile 加密文件
+     * @param outputFile 输出文件
+     * @param privateKey SM2私钥
+     * @param listener 进度监听器（可为null）
+     * @return 处理结果（含密文、明文文件的SM3摘要）
+     */
+    public FileCryptoResult decrypt(File inputFile, File outputFile, byte[] privateKey, ProgressListener listener) throws Exception {
+        return measure(CryptoMetrics.Operation.FILE_DECRYPT, inputFile,
+                () -> decryptFile(inputFile, outputFile, privateKey, listener));
+    }
+
+    private FileCryptoResult decryptFile(File inputFile, File outputFile, byte[] privateKey, ProgressListener listener)
+            throws Exception {
+        if (listener == null) {
+            listener = ProgressListener.NONE;
+        }
+        listener.onProgress(0);
+        checkCancelled(listener);
+
+        MessageDigest inputDigest = newSm3Digest();
+        MessageDigest outputDigest = newSm3Digest();
+
+        // 头部和密文通过同一输入流读取，无需重新打开文件或跳过头部
+        try (InputStream in = new DigestInputStream(openInput(inputFile), inputDigest);
+             OutputStream out = new DigestOutputStream(openOutput(outputFile), outputDigest)) {
+
+            // 读取头部信息（自动识别v1/v2）
+            FileHeader header = FileHeader.read(new DataInputStream(in), inputFile.length());
+            listener.onProgress(20);
+            checkCancelled(listener);
+
+            // 用SM2私钥解密SM4密钥
+            byte[] sm4Key = header.unwrapKey(privateKey);
+            listener.onProgress(40);
+            checkCancelled(listener);
+
+            if (header.isSegmented()) {
+                decryptSegmented(inputFile, header, sm4Key, in, out, false, listener);
+            } else {
+                long totalBytes = inputFile.length() - header.getLength();
+                if (totalBytes <= 0) {
+                    throw new Exception("加密文件内容为空");
+                }
+                SM4Context context = new SM4Context(SM4Context.Mode.CBC, sm4Key);
+                context.init(false, header.getIV());
+                processWhole(context, in, out, 0, totalBytes, 40, 60, listener, null);
+            }
+        }
+
+        listener.onProgress(100);
+        return new FileCryptoResult(inputFile.length(), outputFile.length(), inputDigest.digest(), outputDigest.digest());
+    }
+
+    /**
+     * 只校验加密文件的完整性，不写出任何明文
+     * <ul>
+     * <li>v3：并行校验各分段的HMAC-SM3标签，无需解密</li>
+     * <li>v2 GCM：解密并校验各分段的认证标签，明文在内存中丢弃</li>
+     * <li>v1及v2 CBC/CTR：没有认证标签，只能发现长度不符、填充错误（CBC）或密钥不匹配，无法发现篡改</li>
+     * </ul>
+     * 遇到第一个校验失败的分段即停止并抛出异常
+     * @param inputFile 加密文件
+     * @param privateKey SM2私钥
+     * @param listener 进度监听器（可为null）
+     * @return 处理结果（含加密文件的SM3摘要，输出长度为明文长度）
+     */
+    public FileCryptoResult verify(File inputFile, byte[] privateKey, ProgressListener listener) throws Exception {
+        return measure(CryptoMetrics.Operation.FILE_VERIFY, inputFile, () -> verifyFile(inputFile, privateKey, listener));
+    }
+
+    private FileCryptoResult verifyFile(File inputFile, byte[] privateKey, ProgressListener listener) throws Exception {
+        if (listener == null) {
+            listener = ProgressListener.NONE;
+        }
+        listener.onProgress(0);
+        checkCancelled(listener);
+
+        MessageDigest inputDigest = newSm3Digest();
+        DiscardingOutputStream out = new DiscardingOutputStream();
+        try (InputStream in = new DigestInputStream(openInput(inputFile), inputDigest)) {
+            FileHeader header = FileHeader.read(new DataInputStream(in), inputFile.length());
+            listener.onProgress(20);
+            checkCancelled(listener);
+
+            byte[] sm4Key = header.unwrapKey(privateKey);
+            listener.onProgress(40);
+            checkCancelled(listener);
+
+            if (header.isSegmented()) {
+                decryptSegmented(inputFile, header, sm4Key, in, out, true, listener);
+                if (!header.isCompressed()) {
+                    out.count = header.getPlaintextLength();
+                }
+            } else {
+                long totalBytes = inputFile.length() - header.getLength();
+                if (totalBytes <= 0) {
+                    throw new Exception("加密文件内容为空");
+                }
+                SM4Context context = new SM4Context(SM4Context.Mode.CBC, sm4Key);
+                context.init(false, header.getIV());
+                processWhole(context, in, out, 0, totalBytes, 40, 60, listener, null);
+            }
+        }
+
+        listener.onProgress(100);
+        return new FileCryptoResult(inputFile.length(), out.count, inputDigest.digest(), null);
+    }
+
+    /**
+     * 更换加密文件的接收方（密钥轮换）：用旧私钥解出SM4密钥，再用新公钥重新加密后只重写头部，密文主体保持不变。
+     * 新头部与原头部等长时（如单接收方之间，SM2密文长度固定）原地覆盖头部：先把原头部和新头部一起备份到 文件名.rekey 并落盘，
+     * 覆盖并落盘后删除备份；中途退出时下次执行先检查备份：文件头部已是新头部（覆盖已完成）则只删除备份，否则恢复原头部；
+     * 长度变化时（如接收方数量改变）把新头部和原密文主体写入临时文件后原子替换原文件，密文主体只复制不解密。
+     * v3的分段认证标签不绑定头部中的密钥部分，更换后依然有效。
+     * @param oldPrivateKey 能解出文件密钥的SM2私钥（多接收方文件中任一接收方的私钥）
+     * @param newPublicKeys 新接收方公钥（多个时需v2/v3文件）
+     * @return 是否原地重写了头部
+     */
+    public boolean rekey(File file, byte[] oldPrivateKey, List<byte[]> newPublicKeys) throws Exception {
+        if (newPublicKeys == null || newPublicKeys.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个新接收方公钥");
+        }
+        if (CheckpointJournal.journalFile(file).isFile()) {
+            throw new IOException("文件尚未加密完成（存在断点日志），不能更换密钥");
+        }
+        File backup = new File(file.getPath() + REKEY_BACKUP_SUFFIX);
+        if (backup.isFile()) {
+            recoverHeader(file, backup);
+        }
+
+        FileHeader header;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            header = FileHeader.read(in, file.length());
+        }
+        byte[] sm4Key = header.unwrapKey(oldPrivateKey);
+        FileHeader newHeader;
+        try {
+            List<FileHeader.Recipient> recipients = new ArrayList<>(newPublicKeys.size());
+            for (byte[] publicKey : newPublicKeys) {
+                recipients.add(FileHeader.Recipient.wrap(publicKey, sm4Key));
+            }
+            newHeader = recipients.size() == 1
+                    ? header.withWrappedKey(recipients.get(0).getWrappedKey())
+                    : header.withRecipients(recipients);
+        } finally {
+            Arrays.fill(sm4Key, (byte) 0);
+        }
+        byte[] bytes = newHeader.toByteArray();
+
+        if (newHeader.getLength() == header.getLength()) {
+            byte[] original = new byte[header.getLength()];
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                readFully(channel, ByteBuffer.wrap(original), 0);
+                writeRekeyBackup(backup, original, bytes);
+                writeFully(channel, ByteBuffer.wrap(bytes), 0);
+                channel.force(false);
+            }
+            backup.delete();
+            return true;
+        }
+
+        File temp = new File(file.getPath() + REKEY_BACKUP_SUFFIX + ".tmp");
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(target, ByteBuffer.wrap(bytes), 0);
+            // 按位置写入不移动通道位置，密文主体紧接新头部追加
+            target.position(bytes.length);
+            long position = header.getLength();
+            long size = source.size();
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+            target.force(false);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return false;
+    }
+
+    /**
+     * 写出原地更换头部前的备份并落盘：int(原头部长度) + 原头部 + int(新头部长度) + 新头部
+     */
+    static void writeRekeyBackup(File backup, byte[] original, byte[] replacement) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(backup)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(original.length);
+            out.write(original);
+            out.writeInt(replacement.length);
+            out.write(replacement);
+            out.flush();
+            fos.getFD().sync();
+        }
+    }
+
+    /**
+     * 处理上次中断时留下的备份：
+     * <ul>
+     * <li>备份不完整：中断于写备份时，头部尚未改动，直接删除</li>
+     * <li>文件头部与备份中的新头部一致：覆盖已完成（中断于删除备份前），直接删除，不能再写回原头部</li>
+     * <li>其余情况（未覆盖或覆盖了一部分）：恢复原头部</li>
+     * </ul>
+     */
+    private static void recoverHeader(File file, File backup) throws IOException {
+        byte[] original;
+        byte[] replacement;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(backup)))) {
+            original = readBackupHeader(in, backup.length());
+            replacement = readBackupHeader(in, backup.length());
+        } catch (EOFException e) {
+            original = null;
+            replacement = null;
+        }
+        if (original != null) {
+            if (original.length != replacement.length) {
+                throw new IOException("更换密钥的备份无效: " + backup.getPath());
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                byte[] current = new byte[replacement.length];
+                if (channel.size() < current.length) {
+                    throw new IOException("加密文件被截断，文件可能已损坏");
+                }
+                readFully(channel, ByteBuffer.wrap(current), 0);
+                if (!Arrays.equals(current, replacement)) {
+                    writeFully(channel, ByteBuffer.wrap(original), 0);
+                    channel.force(false);
+                }
+            }
+        }
+        Files.delete(backup.toPath());
+    }
+
+    private static byte[] readBackupHeader(DataInputStream in, long backupLength) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > backupLength) {
+            throw new EOFException();
+        }
+        byte[] header = new byte[length];
+        in.readFully(header);
+        return header;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("加密文件被截断，文件可能已损坏");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * 解密加密文件中的一段明文，只读取和解密覆盖该区间的分组（GCM为所在分段），无需从头解密
+     * 需要反复读取同一文件时，请使用 {@link EncryptedFileChannel#open(File, byte[])} 以免每次重新解出文件密钥
+     * @param offset 明文偏移
+     * @param length 读取长度，超出文件末尾的部分被截掉
+     */
+    public byte[] decryptRange(File inputFile, byte[] privateKey, long offset, int length) throws Exception {
+        try (EncryptedFileChannel channel = EncryptedFileChannel.open(inputFile, privateKey)) {
+            return channel.read(offset, length);
+        }
+    }
+
+    /**
+     * v1整体CBC加/解密：按缓冲区大小分块读取，经流水线加/解密后写出，in已位于头部之后（续加密时位于断点处）
+     * @param processedBase 此前已处理的输入字节数（续加密时为断点位置）
+     * @param totalBytes 输入总字节数（用于计算进度）
+     * @param journal 加密时的断点日志，解密时为null
+     */
+    private void processWhole(SM4Context context, InputStream in, OutputStream out, long processedBase, long totalBytes,
+                              int progressBase, int progressSpan, ProgressListener listener,
+                              CheckpointJournal journal) throws Exception {
+        CryptoPipeline pipeline = new CryptoPipeline(options.getPipelineDepth(),
+                bufferSize, bufferSize + 2 * SM4Util.IV_SIZE, 1);
+        pipeline.run(slot -> {
+            int n = readFully(in, slot.in, 0, slot.in.length);
+            slot.inLens[0] = n;
+            slot.count = 1;
+            slot.last = n < slot.in.length;
+        }, slot -> {
+            checkCancelled(listener);
+            long start = CryptoMetrics.start();
+            try {
+                slot.outLens[0] = slot.last
+                        ? context.doFinal(slot.in, 0, slot.inLens[0], slot.out, 0)
+                        : context.update(slot.in, 0, slot.inLens[0], slot.out, 0);
+            } catch (RuntimeException | SM4Util.SM4Exception e) {
+                CryptoMetrics.error(CryptoMetrics.Operation.SM4);
+                throw e;
+            }
+            CryptoMetrics.stop(CryptoMetrics.Operation.SM4, start, slot.inLens[0]);
+
+            long processedBytes = processedBase + slot.sequence * slot.in.length + slot.inLens[0];
+            int progress = totalBytes == 0 ? 99 : (int) ((processedBytes * (double) progressSpan) / totalBytes + progressBase);
+            listener.onProgress(Math.min(progress, 99));
+        }, slot -> {
+            int length = slot.outLens[0];
+            out.write(slot.out, 0, length);
+            if (journal != null && !slot.last) {
+                // CBC已输出的密文与已加密的明文等长（不足一个分组的明文留在加密器中，续加密时从断点重新读取）
+                journal.advance(length, length);
+                if (length > 0) {
+                    journal.setChain(slot.out, length - SM4Util.IV_SIZE);
+                }
+                journal.checkpoint(out);
+            }
+        });
+    }
+
+    /**
+     * v2/v3分段加密：按窗口读取若干分段，在ForkJoin线程池中并行加密后按顺序写出
+     */
+    private FileCryptoResult encryptSegmented(File inputFile, File outputFile, List<byte[]> publicKeys,
+                                              ProgressListener listener) throws Exception {
+        if (options.getCompressionLevel() > 0) {
+            return encryptCompressed(inputFile, outputFile, publicKeys, listener);
+        }
+        long totalBytes = inputFile.length();
+        byte[] sm4Key = SM4Util.generateKey();
+        FileHeader header = newSegmentedHeader(sm4Key, totalBytes, publicKeys, listener);
+        SegmentCipher cipher = SegmentCipher.forHeader(header, sm4Key);
+
+        MessageDigest inputDigest = newSm3Digest();
+        MessageDigest outputDigest = newSm3Digest();
+        CheckpointJournal journal = newJournal(outputFile, inputFile, sm4Key, 0, header.getLength(),
+                new byte[SM4Util.IV_SIZE]);
+        journal.delete();
+
+        try (InputStream fis = new DigestInputStream(openInput(inputFile), inputDigest);
+             OutputStream fos = new DigestOutputStream(openOutput(outputFile), outputDigest)) {
+            fos.write(header.toByteArray());
+            encryptSegments(inputFile.getPath(), header, cipher, fis, fos, 0, listener, journal);
+        }
+
+        journal.delete();
+        listener.onProgress(100);
+        return new FileCryptoResult(totalBytes, outputFile.length(), inputDigest.digest(), outputDigest.digest());
+    }
+
+    /**
+     * v2/v3压缩加密：读取线程把输入按块压缩为帧序列（见 {@link CompressingInputStream}），再按分段并行加密。
+     * 帧序列的总长度要到输入结束才知道，头部先以0占位，写完后原位回填（头部长度不变，v3认证标签不绑定该字段）。
+     * 输出文件的SM3摘要需在回填后重新读取文件才能得到，因此结果不含输出摘要。
+     */
+    private FileCryptoResult encryptCompressed(File inputFile, File outputFile, List<byte[]> publicKeys,
+                                               ProgressListener listener) throws Exception {
+        long totalBytes = inputFile.length();
+        byte[] sm4Key = SM4Util.generateKey();
+        FileHeader header = newSegmentedHeader(sm4Key, 0, publicKeys, listener).withCompression();
+        SegmentCipher cipher = SegmentCipher.forHeader(header, sm4Key);
+
+        MessageDigest inputDigest = newSm3Digest();
+        // 重新加密时清理上一次任务遗留的日志
+        CheckpointJournal.journalFile(outputFile).delete();
+        long frameBytes;
+        try (CompressingInputStream fis = new CompressingInputStream(
+                new DigestInputStream(openInput(inputFile), inputDigest), options.getCompressionLevel());
+             OutputStream fos = openOutput(outputFile)) {
+            fos.write(header.toByteArray());
+            frameBytes = encryptFrames(header, cipher, fis, fos, totalBytes, listener);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(outputFile, "rw")) {
+            raf.write(header.withPlaintextLength(frameBytes).toByteArray());
+        }
+
+        listener.onProgress(100);
+        return new FileCryptoResult(totalBytes, outputFile.length(), inputDigest.digest(), null);
+    }
+
+    /**
+     * 分段加密长度未知的压缩帧序列：读满分段大小的为中间段，不足的（可能为空）为最后一段
+     * @return 帧序列总长度
+     */
+    private long encryptFrames(FileHeader header, SegmentCipher cipher, CompressingInputStream fis,
+                               OutputStream fos, long totalBytes, ProgressListener listener) throws Exception {
+        ForkJoinPool pool = options.getSegmentPool();
+        int segmentSize = header.getSegmentSize();
+        int window = windowSegments(pool, Long.MAX_VALUE);
+        int inStride = segmentSize;
+        int outStride = segmentSize + SegmentCipher.MAX_OVERHEAD;
+        AtomicLong frameBytes = new AtomicLong();
+
+        CryptoPipeline pipeline = new CryptoPipeline(options.getPipelineDepth(),
+                window * inStride, window * outStride, window);
+        pipeline.run(slot -> {
+            slot.count = 0;
+            while (slot.count < window && !slot.last) {
+                int n = readFully(fis, slot.in, slot.count * inStride, segmentSize);
+                slot.inLens[slot.count++] = n;
+                frameBytes.addAndGet(n);
+                slot.last = n < segmentSize;
+            }
+        }, slot -> {
+            checkCancelled(listener);
+            long first = slot.sequence * window;
+            long lastIndex = slot.last ? first + slot.count - 1 : Long.MAX_VALUE;
+            cipher.processSegments(pool, true, first, lastIndex, slot.count,
+                    slot.in, inStride, slot.inLens, slot.out, outStride, slot.outLens);
+
+            int progress = totalBytes == 0 ? 99 : (int) ((fis.getConsumed() * 80.0) / totalBytes + 20);
+            listener.onProgress(Math.min(progress, 99));
+        }, slot -> {
+            for (int i = 0; i < slot.count; i++) {
+                fos.write(slot.out, i * outStride, slot.outLens[i]);
+            }
+        });
+        return frameBytes.get();
+    }
+
+    /**
+     * 将输入流中恰好totalBytes字节的明文加密为v2/v3格式（不保存断点），用于明文不是单个文件的场景，如 {@link EncryptedArchive}
+     * @param inputName 输入名称（用于错误信息）
+     */
+    FileCryptoResult encryptStream(InputStream in, long totalBytes, String inputName, File outputFile,
+                                   List<byte[]> publicKeys, ProgressListener listener) throws Exception {
+        if (options.getFormatVersion() == FileHeader.VERSION_1) {
+            throw new IllegalArgumentException("流式加密需使用v2或v3格式");
+        }
+        if (listener == null) {
+            listener = ProgressListener.NONE;
+        }
+        byte[] sm4Key = SM4Util.generateKey();
+        FileHeader header = newSegmentedHeader(sm4Key, totalBytes, publicKeys, listener);
+        SegmentCipher cipher = SegmentCipher.forHeader(header, sm4Key);
+
+        MessageDigest inputDigest = newSm3Digest();
+        MessageDigest outputDigest = newSm3Digest();
+        try (InputStream fis = new DigestInputStream(in, inputDigest);
+             OutputStream fos = new DigestOutputStream(openOutput(outputFile), outputDigest)) {
+            fos.write(header.toByteArray());
+            encryptSegments(inputName, header, cipher, fis, fos, 0, listener, null);
+        }
+
+        listener.onProgress(100);
+        return new FileCryptoResult(totalBytes, outputFile.length(), inputDigest.digest(), outputDigest.digest());
+    }
+
+    /**
+     * 生成分段nonce，用各接收方的SM2公钥加密SM4密钥，按配置创建v2/v3头部（进度0~20）
+     */
+    private FileHeader newSegmentedHeader(byte[] sm4Key, long totalBytes, List<byte[]> publicKeys,
+                                          ProgressListener listener) throws Exception {
+        listener.onProgress(0);
+        checkCancelled(listener);
+
+        byte[] nonce = SM4Util.generateIV();
+        listener.onProgress(10);
+        checkCancelled(listener);
+
+        List<FileHeader.Recipient> recipients = new ArrayList<>(publicKeys.size());
+        for (byte[] publicKey : publicKeys) {
+            recipients.add(FileHeader.Recipient.wrap(publicKey, sm4Key));
+            checkCancelled(listener);
+        }
+        byte[] encryptedSm4Key = recipients.get(0).getWrappedKey();
+        listener.onProgress(20);
+
+        int segmentSize = options.getSegmentSize();
+        FileHeader header = options.getFormatVersion() == FileHeader.VERSION_3
+                ? FileHeader.authenticated(options.getMode(), segmentSize, totalBytes, encryptedSm4Key, nonce)
+                : FileHeader.segmented(options.getMode(), segmentSize, totalBytes, encryptedSm4Key, nonce);
+        if (recipients.size() > 1) {
+            header = header.withRecipients(recipients);
+        }
+        return header;
+    }
+
+    /**
+     * v2/v3分段加密主体：fis位于第firstSegment段的开头，fos位于对应密文位置
+     * @param inputName 输入名称（用于错误信息）
+     * @param journal 断点日志，不保存断点时为null
+     */
+    private void encryptSegments(String inputName, FileHeader header, SegmentCipher cipher, InputStream fis,
+                                 OutputStream fos, long firstSegment, ProgressListener listener,
+                                 CheckpointJournal journal) throws Exception {
+        ForkJoinPool pool = options.getSegmentPool();
+        int segmentSize = header.getSegmentSize();
+        long totalBytes = header.getPlaintextLength();
+        long segmentCount = header.getSegmentCount();
+        int window = windowSegments(pool, segmentCount - firstSegment);
+        int inStride = segmentSize;
+        int outStride = segmentSize + SegmentCipher.MAX_OVERHEAD;
+
+        CryptoPipeline pipeline = new CryptoPipeline(options.getPipelineDepth(),
+                window * inStride, window * outStride, window);
+        pipeline.run(slot -> {
+            long first = firstSegment + slot.sequence * window;
+            slot.count = (int) Math.min(window, segmentCount - first);
+            for (int i = 0; i < slot.count; i++) {
+                int expected = header.getSegmentPlainLength(first + i);
+                slot.inLens[i] = readFully(fis, slot.in, i * inStride, expected);
+                if (slot.inLens[i] != expected) {
+                    throw new IOException("文件在加密过程中被修改: " + inputName);
+                }
+            }
+            slot.last = first + slot.count == segmentCount;
+            if (slot.last && fis.read() != -1) {
+                throw new IOException("文件在加密过程中被修改: " + inputName);
+            }
+        }, slot -> {
+            checkCancelled(listener);
+            long first = firstSegment + slot.sequence * window;
+            cipher.processSegments(pool, true, first, segmentCount - 1, slot.count,
+                    slot.in, inStride, slot.inLens, slot.out, outStride, slot.outLens);
+
+            long processedBytes = Math.min(totalBytes, (first + slot.count) * segmentSize);
+            int progress = totalBytes == 0 ? 99 : (int) ((processedBytes * 80.0) / totalBytes + 20);
+            listener.onProgress(Math.min(progress, 99));
+        }, slot -> {
+            for (int i = 0; i < slot.count; i++) {
+                fos.write(slot.out, i * outStride, slot.outLens[i]);
+                if (journal != null) {
+                    journal.advance(slot.inLens[i], slot.outLens[i]);
+                }
+            }
+            if (journal != null && !slot.last) {
+                journal.checkpoint(fos);
+            }
+        });
+    }
+
+    /**
+     * v2/v3分段解密：按窗口读取若干分段密文，并行解密后按顺序写出，in已位于头部之后
+     * v3各分段先校验标签再解密，某个分段校验失败时其所在窗口及之后的分段都不会写出
+     * @param verifyOnly 只校验不输出：v3只校验标签，v2照常解密（GCM校验标签）但不写出；压缩文件还需解压以校验压缩帧
+     */
+    private void decryptSegmented(File inputFile, FileHeader header, byte[] sm4Key, InputStream fis, OutputStream fos,
+                                  boolean verifyOnly, ProgressListener listener) throws Exception {
+        int segmentSize = header.getSegmentSize();
+        SegmentCipher cipher = SegmentCipher.forHeader(header, sm4Key);
+        // 压缩文件校验时也解压，以便发现损坏的压缩帧
+        boolean tagsOnly = verifyOnly && cipher.isAuthenticated() && !header.isCompressed();
+        DecompressingOutputStream decompressor = header.isCompressed() ? new DecompressingOutputStream(fos) : null;
+        OutputStream target = decompressor != null ? decompressor : fos;
+        ForkJoinPool pool = options.getSegmentPool();
+
+        long segmentCount = header.getSegmentCount();
+        if (inputFile.length() != header.getEncryptedFileLength()) {
+            throw new IOException("加密文件长度与头部信息不符，文件可能已损坏或被截断");
+        }
+
+        int window = windowSegments(pool, segmentCount);
+        int inStride = segmentSize + SegmentCipher.MAX_OVERHEAD;
+        int outStride = segmentSize + SegmentCipher.MAX_OVERHEAD;
+        long totalBytes = header.getPlaintextLength();
+
+        CryptoPipeline pipeline = new CryptoPipeline(options.getPipelineDepth(),
+                window * inStride, window * outStride, window);
+        pipeline.run(slot -> {
+            long first = slot.sequence * window;
+            slot.count = (int) Math.min(window, segmentCount - first);
+            for (int i = 0; i < slot.count; i++) {
+                long segment = first + i;
+                int expected = cipher.encryptedLength(header.getSegmentPlainLength(segment), segment == segmentCount - 1);
+                slot.inLens[i] = readFully(fis, slot.in, i * inStride, expected);
+                if (slot.inLens[i] != expected) {
+                    throw new IOException("加密文件被截断，文件可能已损坏");
+                }
+            }
+            slot.last = first + slot.count == segmentCount;
+        }, slot -> {
+            checkCancelled(listener);
+            long first = slot.sequence * window;
+            if (tagsOnly) {
+                cipher.verifySegments(pool, first, segmentCount - 1, slot.count, slot.in, inStride, slot.inLens);
+            } else {
+                cipher.processSegments(pool, false, first, segmentCount - 1, slot.count,
+                        slot.in, inStride, slot.inLens, slot.out, outStride, slot.outLens);
+                for (int i = 0; i < slot.count; i++) {
+                    if (slot.outLens[i] != header.getSegmentPlainLength(first + i)) {
+                        throw new IOException("分段解密长度与头部信息不符，文件可能已损坏");
+                    }
+                }
+            }
+
+            long processedBytes = Math.min(totalBytes, (first + slot.count) * segmentSize);
+            int progress = totalBytes == 0 ? 99 : (int) ((processedBytes * 60.0) / totalBytes + 40);
+            listener.onProgress(Math.min(progress, 99));
+        }, slot -> {
+            if (verifyOnly && decompressor == null) {
+                return;
+            }
+            for (int i = 0; i < slot.count; i++) {
+                target.write(slot.out, i * outStride, slot.outLens[i]);
+            }
+        });
+        if (decompressor != null) {
+            decompressor.finish();
+            decompressor.close();
+        }
+    }
+
+    /**
+     * 每个窗口包含的分段数：线程池并行度的2倍，保证各线程都有任务可做
+     */
+    private static int windowSegments(ForkJoinPool pool, long segmentCount) {
+        return (int) Math.max(1, Math.min(pool.getParallelism() * 2L, segmentCount));
+    }
+
+    /**
+     * 尽量读满指定长度，返回实际读取的字节数（到达文件末尾时可能小于len）
+     */
+    static int readFully(InputStream in, byte[] buffer, int off, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int n = in.read(buffer, off + total, len - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * 跳过输入流开头的n个字节（续加密时定位到断点）
+     */
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                throw new IOException("输入文件长度与断点不符");
+            }
+            n -= skipped;
+        }
+    }
+
+    /**
+     * 创建SM4-CBC加解密器（PKCS7填充）
+     */
+    static PaddedBufferedBlockCipher getSM4Cipher(byte[] key, byte[] iv, boolean isEncrypt) {
+        if (key == null || key.length != SM4Util.KEY_SIZE) {
+            throw new IllegalArgumentException("SM4密钥必须是16字节");
+        }
+        if (iv == null || iv.length != SM4Util.IV_SIZE) {
+            throw new IllegalArgumentException("IV必须是16字节");
+        }
+
+        SM4FastEngine engine = new SM4FastEngine();
+        CBCBlockCipher cbcBlockCipher = new CBCBlockCipher(engine);
+        PaddedBufferedBlockCipher cipher = new PaddedBufferedBlockCipher(cbcBlockCipher, new PKCS7Padding());
+        CipherParameters keyParam = new ParametersWithIV(new KeyParameter(key), iv);
+        cipher.init(isEncrypt, keyParam);
+        return cipher;
+    }
+
+    /**
+     * 按配置的读写方式打开输入文件（已带缓冲）
+     */
+    private InputStream openInput(File file) throws IOException {
+        switch (options.getIoMode()) {
+            case CHANNEL:
+            case MAPPED:
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                return new ChannelInputStream(channel, bufferSize, options.getIoMode() == FileCryptoOptions.IoMode.MAPPED);
+            default:
+                return new BufferedInputStream(new FileInputStream(file), bufferSize);
+        }
+    }
+
+    /**
+     * 按配置的读写方式创建输出文件（已带缓冲），头部和密文通过同一个流写出
+     */
+    private OutputStream openOutput(File file) throws IOException {
+        switch (options.getIoMode()) {
+            case CHANNEL:
+            case MAPPED:
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                return new ChannelOutputStream(channel, bufferSize);
+            default:
+                return new BufferedOutputStream(new FileOutputStream(file), bufferSize);
+        }
+    }
+
+    /**
+     * 打开已有的输出文件继续写入：截断到length后从该位置追加
+     */
+    private OutputStream openOutput(File file, long length) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        try {
+            channel.truncate(length);
+            channel.position(length);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (options.getIoMode() == FileCryptoOptions.IoMode.STREAM) {
+            return new BufferedOutputStream(Channels.newOutputStream(channel), bufferSize);
+        }
+        return new ChannelOutputStream(channel, bufferSize);
+    }
+
+    /**
+     * 只校验时的输出：丢弃写入的明文，只记录字节数
+     */
+    private static final class DiscardingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    /**
+     * 记录整个文件操作的耗时、字节数和失败次数，JFR录制时提交文件事件（指标未启用且未录制时直接执行）
+     */
+    private static FileCryptoResult measure(CryptoMetrics.Operation operation, File inputFile,
+                                            Callable<FileCryptoResult> task) throws Exception {
+        long start = CryptoMetrics.start();
+        CryptoEvents.Scope events = CryptoEvents.open(operation.getMetricName(), inputFile);
+        if (start == 0L && !events.isActive()) {
+            return task.call();
+        }
+        FileCryptoResult result = null;
+        try {
+            result = task.call();
+        } catch (Exception e) {
+            CryptoMetrics.error(operation);
+            throw e;
+        } finally {
+            events.close(result);
+        }
+        CryptoMetrics.stop(operation, start, result.getInputLength());
+        return result;
+    }
+
+    /**
+     * 创建SM3摘要计算器（在文件操作中创建时，JFR录制的文件事件记录其耗时）
+     */
+    static MessageDigest newSm3Digest() throws GeneralSecurityException {
+        return CryptoEvents.current().timed(MessageDigest.getInstance("SM3", BouncyCastleProvider.PROVIDER_NAME));
+    }
+
+    private static void checkCancelled(ProgressListener listener) {
+        if (listener.isCancelled()) {
+            throw new CancellationException("任务已取消");
+        }
+    }
+
+    /**
+     * 进度监听器
+     */
+    public interface ProgressListener {
+        // 不关心进度时使用
+        ProgressListener NONE = progress -> {
+        };
+
+        /**
+         * @param progress 进度百分比（0-100）
+         */
+        void onProgress(int progress);
+
+        /**
+         * 是否已取消，返回true时引擎将抛出CancellationException
+         */
+        default boolean isCancelled() {
+            return false;
+        }
+    }
+}
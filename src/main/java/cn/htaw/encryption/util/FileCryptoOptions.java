@@ -0,0 +1,174 @@
+package cn.htaw.encryption.util;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 文件加解密引擎配置
+ */
+public class FileCryptoOptions {
+    // 默认读写缓冲区大小
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * 文件读写方式：
+     * STREAM为传统文件流；CHANNEL使用FileChannel和直接缓冲区；MAPPED按窗口内存映射输入文件，输出同CHANNEL。
+     * CHANNEL/MAPPED建议配合较大的缓冲区（如1MB）使用。
+     */
+    public enum IoMode {
+        STREAM, CHANNEL, MAPPED
+    }
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private IoMode ioMode = IoMode.STREAM;
+    // 读取/加解密/写出流水线的缓冲槽数量，0表示三个阶段在调用线程中依次执行
+    private int pipelineDepth;
+    // 加密输出格式版本（解密时自动识别）
+    private int formatVersion = FileHeader.VERSION_1;
+    // v2格式分段加密模式
+    private int mode = FileHeader.MODE_CBC;
+    // v2格式分段大小
+    private int segmentSize = SegmentCipher.DEFAULT_SEGMENT_SIZE;
+    // 分段并行处理使用的线程池，为null时使用公共线程池
+    private ForkJoinPool segmentPool;
+    // 加密时保存断点的间隔（明文字节数），0表示不保存断点
+    private long checkpointInterval;
+    // 加密前的分块压缩级别（1~9），0表示不压缩
+    private int compressionLevel;
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public FileCryptoOptions setBufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("缓冲区大小必须大于0");
+        }
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    public IoMode getIoMode() {
+        return ioMode;
+    }
+
+    public FileCryptoOptions setIoMode(IoMode ioMode) {
+        if (ioMode == null) {
+            throw new IllegalArgumentException("读写方式不能为空");
+        }
+        this.ioMode = ioMode;
+        return this;
+    }
+
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /**
+     * 设置流水线深度：读取和写出各使用一个独立线程，与加解密重叠执行，
+     * 每个缓冲槽占用 2 × 缓冲区大小（v2为 2 × 窗口内分段总大小）的内存
+     * @param pipelineDepth 0表示不启用，否则不小于2
+     */
+    public FileCryptoOptions setPipelineDepth(int pipelineDepth) {
+        if (pipelineDepth != 0 && pipelineDepth < 2) {
+            throw new IllegalArgumentException("流水线深度必须为0（不启用）或不小于2");
+        }
+        this.pipelineDepth = pipelineDepth;
+        return this;
+    }
+
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+
+    public FileCryptoOptions setFormatVersion(int formatVersion) {
+        if (formatVersion != FileHeader.VERSION_1 && formatVersion != FileHeader.VERSION_2
+                && formatVersion != FileHeader.VERSION_3) {
+            throw new IllegalArgumentException("不支持的加密文件版本: " + formatVersion);
+        }
+        this.formatVersion = formatVersion;
+        return this;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * 设置分段加密模式（CTR/GCM仅适用于v2格式）
+     */
+    public FileCryptoOptions setMode(int mode) {
+        SegmentCipher.checkMode(mode);
+        this.mode = mode;
+        return this;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public FileCryptoOptions setSegmentSize(int segmentSize) {
+        SegmentCipher.checkSegmentSize(segmentSize);
+        this.segmentSize = segmentSize;
+        return this;
+    }
+
+    public ForkJoinPool getSegmentPool() {
+        return segmentPool != null ? segmentPool : ForkJoinPool.commonPool();
+    }
+
+    public FileCryptoOptions setSegmentPool(ForkJoinPool segmentPool) {
+        this.segmentPool = segmentPool;
+        return this;
+    }
+
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * 设置断点保存间隔：加密每前进约该字节数，在输出文件旁的 .journal 日志中记录断点，
+     * 任务被取消或进程退出后可用 {@link FileCryptoEngine#resumeEncrypt} 从断点继续（v2在分段窗口边界保存）
+     * @param checkpointInterval 明文字节数，0表示不保存断点
+     */
+    public FileCryptoOptions setCheckpointInterval(long checkpointInterval) {
+        if (checkpointInterval < 0) {
+            throw new IllegalArgumentException("断点间隔不能为负数");
+        }
+        this.checkpointInterval = checkpointInterval;
+        return this;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * 设置加密前的分块自适应压缩（仅v2/v3，不支持断点续加密）：明文按块用Deflate压缩，已压缩的数据原样存储。
+     * 压缩后的加密文件只能顺序解密，不支持 {@link EncryptedFileChannel} 随机访问
+     * @param compressionLevel Deflate压缩级别1~9（1最快），0表示不压缩
+     */
+    public FileCryptoOptions setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("压缩级别必须在0到9之间");
+        }
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    /**
+     * 复制一份配置，引擎持有副本以免外部修改影响运行中的任务
+     */
+    public FileCryptoOptions copy() {
+        FileCryptoOptions copy = new FileCryptoOptions();
+        copy.bufferSize = bufferSize;
+        copy.ioMode = ioMode;
+        copy.pipelineDepth = pipelineDepth;
+        copy.formatVersion = formatVersion;
+        copy.mode = mode;
+        copy.segmentSize = segmentSize;
+        copy.segmentPool = segmentPool;
+        copy.checkpointInterval = checkpointInterval;
+        copy.compressionLevel = compressionLevel;
+        return copy;
+    }
+}
@@ -0,0 +1,57 @@
+package cn.htaw.encryption.util;
+
+import org.bouncycastle.util.encoders.Hex;
+
+/**
+ * 文件加解密结果
+ * 输入、输出文件的SM3摘要在加解密过程中同步计算，无需再次读取文件
+ */
+public class FileCryptoResult {
+    private final long inputLength;
+    private final long outputLength;
+    private final byte[] inputSm3;
+    private final byte[] outputSm3;
+
+    public FileCryptoResult(long inputLength, long outputLength, byte[] inputSm3, byte[] outputSm3) {
+        this.inputLength = inputLength;
+        this.outputLength = outputLength;
+        this.inputSm3 = inputSm3;
+        this.outputSm3 = outputSm3;
+    }
+
+    /**
+     * 输入字节数（加密时为明文长度，解密时为加密文件长度）
+     */
+    public long getInputLength() {
+        return inputLength;
+    }
+
+    /**
+     * 输出字节数（加密时为加密文件长度，解密时为明文长度）
+     */
+    public long getOutputLength() {
+        return outputLength;
+    }
+
+    /**
+     * 输入文件的SM3摘要（32字节）
+     */
+    public byte[] getInputSm3() {
+        return inputSm3 == null ? null : inputSm3.clone();
+    }
+
+    /**
+     * 输出文件的SM3摘要（32字节）
+     */
+    public byte[] getOutputSm3() {
+        return outputSm3 == null ? null : outputSm3.clone();
+    }
+
+    public String getInputSm3Hex() {
+        return inputSm3 == null ? "" : Hex.toHexString(inputSm3);
+    }
+
+    public String getOutputSm3Hex() {
+        return outputSm3 == null ? "" : Hex.toHexString(outputSm3);
+    }
+}
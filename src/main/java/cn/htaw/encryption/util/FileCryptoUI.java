@@ -1,12 +1,5 @@
 package cn.htaw.encryption.util;
 
-import org.bouncycastle.crypto.CipherParameters;
-import org.bouncycastle.crypto.engines.SM4Engine;
-import org.bouncycastle.crypto.modes.CBCBlockCipher;
-import org.bouncycastle.crypto.paddings.PKCS7Padding;
-import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
-import org.bouncycastle.crypto.params.KeyParameter;
-import org.bouncycastle.crypto.params.ParametersWithIV;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.util.encoders.Hex;
 
@@ -19,7 +12,6 @@ import java.awt.datatransfer.StringSelection;
 import java.awt.event.*;
 import java.io.*;
 import java.lang.reflect.Method;
-import java.security.MessageDigest;
 import java.security.Security;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -70,7 +62,9 @@ public class FileCryptoUI extends JFrame {
     // 常量定义 - 其他设置
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyyMMddHHmmss", Locale.CHINA);
     private static final SimpleDateFormat FULL_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.CHINA);
-    private static final int BUFFER_SIZE = 8192;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int PIPELINE_DEPTH = 4; // 读取/加解密/写出流水线缓冲槽数量
+    private static final long CHECKPOINT_INTERVAL = 256L * 1024 * 1024; // 加密断点保存间隔（256MB）
     private static final String ICON_PATH = "/crypto_icon_large.png";
     private static final String APP_TITLE = "SM2+SM4文件加解密工具";
     private static final int BUTTON_DELAY = 1000; // 按钮防连击延迟(毫秒)
@@ -95,6 +89,16 @@ public class FileCryptoUI extends JFrame {
     private JButton decryptBtn;
     private JButton loadKeyFileBtn; // 新增：加载密钥文件按钮
 
+    // 文件加解密引擎（与界面无关），读写与加解密在流水线中重叠执行
+    private final FileCryptoEngine cryptoEngine = new FileCryptoEngine(
+            new FileCryptoOptions().setBufferSize(BUFFER_SIZE).setPipelineDepth(PIPELINE_DEPTH)
+                    .setCheckpointInterval(CHECKPOINT_INTERVAL));
+    // 多接收方加密使用的引擎：多接收方头部需v2格式
+    private final FileCryptoEngine recipientEngine = new FileCryptoEngine(
+            cryptoEngine.getOptions().setFormatVersion(FileHeader.VERSION_2));
+    // 额外的接收方公钥（密钥配置文件中的sm2.recipients，逗号分隔），加密时与本机公钥一起写入头部
+    private final List<byte[]> recipientKeys = new ArrayList<>();
+
     static {
         // 添加BouncyCastle加密提供者
         Security.addProvider(new BouncyCastleProvider());
@@ -363,7 +367,8 @@ public class FileCryptoUI extends JFrame {
 
             showInfoDialog("SM2密钥对已成功生成并保存至:\n" + saveFile.getAbsolutePath());
 
-            // 更新界面显示的密钥
+            // 更新界面显示的密钥（新密钥不带额外接收方）
+            recipientKeys.clear();
             updateKeyFields(publicKey, privateKey);
 
         } catch (IOException e) {
@@ -389,9 +394,9 @@ public class FileCryptoUI extends JFrame {
             String publicKey = props.getProperty("sm2.publicKey", "").trim();
             String privateKey = props.getProperty("sm2.privateKey", "").trim();
 
-            if (validateKeys(publicKey, privateKey)) {
+            if (validateKeys(publicKey, privateKey) && loadRecipients(props)) {
                 updateKeyFields(publicKey, privateKey);
-                showInfoDialog("系统密钥加载成功");
+                showInfoDialog("系统密钥加载成功" + recipientsSummary());
             }
 
         } catch (IOException e) {
@@ -436,9 +441,9 @@ public class FileCryptoUI extends JFrame {
             String publicKey = props.getProperty("sm2.publicKey", "").trim();
             String privateKey = props.getProperty("sm2.privateKey", "").trim();
 
-            if (validateKeys(publicKey, privateKey)) {
+            if (validateKeys(publicKey, privateKey) && loadRecipients(props)) {
                 updateKeyFields(publicKey, privateKey);
-                showInfoDialog("密钥文件加载成功:\n" + keyFile.getAbsolutePath());
+                showInfoDialog("密钥文件加载成功:\n" + keyFile.getAbsolutePath() + recipientsSummary());
             }
 
         } catch (IOException e) {
@@ -475,6 +480,32 @@ public class FileCryptoUI extends JFrame {
         return true;
     }
 
+    /**
+     * 读取额外的接收方公钥（sm2.recipients，逗号分隔的十六进制公钥，可不配置）
+     */
+    private boolean loadRecipients(Properties props) {
+        List<byte[]> keys = new ArrayList<>();
+        for (String hex : props.getProperty("sm2.recipients", "").split(",")) {
+            hex = hex.trim();
+            if (hex.isEmpty()) {
+                continue;
+            }
+            try {
+                keys.add(Hex.decode(hex));
+            } catch (Exception e) {
+                showErrorDialog("接收方公钥格式错误，必须是十六进制字符串");
+                return false;
+            }
+        }
+        recipientKeys.clear();
+        recipientKeys.addAll(keys);
+        return true;
+    }
+
+    private String recipientsSummary() {
+        return recipientKeys.isEmpty() ? "" : "\n另有" + recipientKeys.size() + "个接收方，加密文件可由其中任一方解密";
+    }
+
     /**
      * 更新界面上的密钥显示
      */
@@ -950,61 +981,26 @@ public class FileCryptoUI extends JFrame {
     // 业务逻辑方法
     private void browseInputFile(ActionEvent e) {
         JFileChooser chooser = createFileChooser();
+        // 选择目录时加解密整个目录树
+        chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
         if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
             File selectedFile = chooser.getSelectedFile();
             String inputPath = selectedFile.getAbsolutePath();
             inputFileField.setText(inputPath);
             outputFileField.setText(generateBaseOutputPath(inputPath));
 
-            long fileSizeBytes = selectedFile.length();
-            fileSizeLabel.setText("文件大小: " + formatFileSize(fileSizeBytes));
+            if (selectedFile.isDirectory()) {
+                fileSizeLabel.setText("目录: 加解密其中的所有文件");
+            } else {
+                fileSizeLabel.setText("文件大小: " + formatFileSize(selectedFile.length()));
+            }
             timeCostLabel.setText("");
-            calculateFileSm3(selectedFile, true);
+            // SM3摘要在加解密过程中同步计算，完成后显示
+            inputFileSm3Label.setText("待处理文件SM3: ");
             outputFileSm3Label.setText("输出文件SM3: ");
         }
     }
 
-    private void calculateFileSm3(File file, boolean isInput) {
-        new SwingWorker<String, Void>() {
-            @Override
-            protected String doInBackground() throws Exception {
-                if (!file.exists() || !file.isFile()) {
-                    return "文件不存在";
-                }
-
-                MessageDigest sm3 = MessageDigest.getInstance("SM3", "BC");
-                try (FileInputStream fis = new FileInputStream(file)) {
-                    byte[] buffer = new byte[BUFFER_SIZE];
-                    int len;
-                    while ((len = fis.read(buffer)) != -1) {
-                        sm3.update(buffer, 0, len);
-                    }
-                    return Hex.toHexString(sm3.digest());
-                } catch (Exception e) {
-                    return "计算失败: " + e.getMessage();
-                }
-            }
-
-            @Override
-            protected void done() {
-                try {
-                    String digest = get();
-                    if (isInput) {
-                        inputFileSm3Label.setText("待处理文件SM3: " + digest);
-                    } else {
-                        outputFileSm3Label.setText("输出文件SM3: " + digest);
-                    }
-                } catch (Exception e) {
-                    if (isInput) {
-                        inputFileSm3Label.setText("待处理文件SM3: 计算失败");
-                    } else {
-                        outputFileSm3Label.setText("输出文件SM3: 计算失败");
-                    }
-                }
-            }
-        }.execute();
-    }
-
     private JFileChooser createFileChooser() {
         JFileChooser chooser = new JFileChooser();
         chooser.setFont(COMPONENT_FONT);
@@ -1107,7 +1103,40 @@ public class FileCryptoUI extends JFrame {
             return;
         }
 
-        currentWorker = new EncryptWorker(inputPath, outputPath, publicKey);
+        if (new File(inputPath).isDirectory()) {
+            List<byte[]> publicKeys = new ArrayList<>(recipientKeys.size() + 1);
+            publicKeys.add(publicKey);
+            publicKeys.addAll(recipientKeys);
+            currentWorker = new TreeWorker(true, inputPath, outputPath, publicKeys, null);
+            currentWorker.execute();
+            showTreeLoading("加密中");
+            return;
+        }
+
+        // 上次加密同一文件时中断并保存了断点，询问是否继续
+        byte[] resumeKey = null;
+        if (CheckpointJournal.journalFile(new File(outputPath)).isFile()) {
+            int choice = JOptionPane.showConfirmDialog(
+                    this,
+                    "检测到该文件上次未完成的加密，是否从断点继续？\n选择“否”将重新加密",
+                    "继续加密",
+                    JOptionPane.YES_NO_OPTION
+            );
+            if (choice == JOptionPane.YES_OPTION) {
+                try {
+                    resumeKey = Hex.decode(privateKeyStr);
+                } catch (Exception ex) {
+                    showErrorDialog("私钥格式错误，请重新加载或生成密钥");
+                    enableOperationButtons();
+                    return;
+                }
+            }
+        }
+
+        List<byte[]> publicKeys = new ArrayList<>(recipientKeys.size() + 1);
+        publicKeys.add(publicKey);
+        publicKeys.addAll(recipientKeys);
+        currentWorker = new EncryptWorker(inputPath, outputPath, publicKeys, resumeKey);
         currentWorker.execute();
         showLoading("加密中");
     }
@@ -1160,6 +1189,13 @@ public class FileCryptoUI extends JFrame {
             return;
         }
 
+        if (new File(inputPath).isDirectory()) {
+            currentWorker = new TreeWorker(false, inputPath, outputPath, null, privateKey);
+            currentWorker.execute();
+            showTreeLoading("解密中");
+            return;
+        }
+
         currentWorker = new DecryptWorker(inputPath, outputPath, privateKey);
         currentWorker.execute();
         showLoading("解密中");
@@ -1178,19 +1214,53 @@ public class FileCryptoUI extends JFrame {
         timer.start();
     }
 
+    /**
+     * 将引擎进度转发给Worker的publish，并把Worker的取消状态传递给引擎
+     */
+    private FileCryptoEngine.ProgressListener workerListener(CryptoWorker worker) {
+        return new FileCryptoEngine.ProgressListener() {
+            @Override
+            public void onProgress(int progress) {
+                worker.publishProgress(progress);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return worker.isCancelled();
+            }
+        };
+    }
+
+    private void showResultSm3(FileCryptoResult result) {
+        inputFileSm3Label.setText("待处理文件SM3: " + result.getInputSm3Hex());
+        outputFileSm3Label.setText("输出文件SM3: " + result.getOutputSm3Hex());
+    }
+
+    // 加密解密Worker基类
+    private abstract class CryptoWorker extends SwingWorker<Void, Integer> {
+        void publishProgress(int progress) {
+            publish(progress);
+        }
+    }
+
     // 加密解密Worker
-    private class EncryptWorker extends SwingWorker<Void, Integer> {
+    private class EncryptWorker extends CryptoWorker {
         private final String inputPath;
         private final String outputPath;
-        private final byte[] publicKey;
+        // 本机公钥及额外的接收方公钥
+        private final List<byte[]> publicKeys;
+        // 从断点继续时用于解出文件密钥的私钥，重新加密时为null
+        private final byte[] resumeKey;
         private String errorMessage;
         private long timeCost;
+        private FileCryptoResult result;
         private final String operation = "加密中";
 
-        public EncryptWorker(String inputPath, String outputPath, byte[] publicKey) {
+        public EncryptWorker(String inputPath, String outputPath, List<byte[]> publicKeys, byte[] resumeKey) {
             this.inputPath = inputPath;
             this.outputPath = outputPath;
-            this.publicKey = publicKey;
+            this.publicKeys = publicKeys;
+            this.resumeKey = resumeKey;
         }
 
         @Override
@@ -1199,17 +1269,23 @@ public class FileCryptoUI extends JFrame {
             // 恢复按钮状态
             enableOperationButtons();
 
+            // 已保存断点时保留不完整的输出文件，下次加密同一文件时可继续
+            boolean resumable = CheckpointJournal.journalFile(new File(outputPath)).isFile();
             if (isCancelled()) {
-                showInfoDialog("加密已取消");
+                showInfoDialog(resumable ? "加密已取消，已保存断点，下次加密该文件时可继续" : "加密已取消");
                 timeCostLabel.setText("");
                 // 清理可能的不完整文件
-                new File(outputPath).delete();
+                if (!resumable) {
+                    new File(outputPath).delete();
+                }
             } else if (errorMessage != null) {
                 showErrorDialog(errorMessage);
-                new File(outputPath).delete();
+                if (!resumable) {
+                    new File(outputPath).delete();
+                }
             } else {
                 timeCostLabel.setText("加密耗时: " + formatTimeCost(timeCost));
-                calculateFileSm3(new File(outputPath), false);
+                showResultSm3(result);
                 showInfoDialog("加密成功！\n文件已保存至：" + outputPath);
             }
             currentWorker = null;
@@ -1219,55 +1295,13 @@ public class FileCryptoUI extends JFrame {
         protected Void doInBackground() throws Exception {
             try {
                 long startTime = System.currentTimeMillis();
-                publish(0);
-
-                if (isCancelled()) return null;
-
-                // 生成SM4密钥和IV
-                byte[] sm4Key = SM4Util.generateKey();
-                byte[] iv = SM4Util.generateIV();
-                publish(10);
-
-                if (isCancelled()) return null;
-
-                // 用SM2公钥加密SM4密钥
-                byte[] encryptedSm4Key = SM2Util.encrypt(publicKey, sm4Key);
-                publish(20);
-
-                if (isCancelled()) return null;
-
-                // 写入加密文件头部信息（包含加密的SM4密钥和IV）
-                try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(outputPath))) {
-                    dos.writeInt(encryptedSm4Key.length);
-                    dos.write(encryptedSm4Key);
-                    dos.write(iv);
-                }
-
-                // 加密文件内容
-                File inputFile = new File(inputPath);
-                long totalBytes = inputFile.length();
-                long processedBytes = 0;
-
-                try (FileInputStream fis = new FileInputStream(inputFile);
-                     FileOutputStream fos = new FileOutputStream(outputPath, true);
-                     org.bouncycastle.crypto.io.CipherOutputStream cos =
-                             new org.bouncycastle.crypto.io.CipherOutputStream(fos, getSM4Cipher(sm4Key, iv, true))) {
-
-                    byte[] buffer = new byte[BUFFER_SIZE];
-                    int bytesRead;
-                    while ((bytesRead = fis.read(buffer)) != -1) {
-                        if (isCancelled()) return null;
-
-                        cos.write(buffer, 0, bytesRead);
-                        processedBytes += bytesRead;
-                        int progress = (int) ((processedBytes * 80.0) / totalBytes + 20);
-                        publish(Math.min(progress, 99));
-                    }
-                }
-
+                result = resumeKey != null
+                        ? cryptoEngine.resumeEncrypt(new File(inputPath), new File(outputPath), resumeKey, workerListener(this))
+                        : (publicKeys.size() > 1 ? recipientEngine : cryptoEngine)
+                                .encrypt(new File(inputPath), new File(outputPath), publicKeys, workerListener(this));
                 timeCost = System.currentTimeMillis() - startTime;
-                publish(100);
             } catch (Exception ex) {
+                if (isCancelled()) return null;
                 errorMessage = "加密过程失败: " + ex.getMessage();
                 ex.printStackTrace();
             }
@@ -1281,12 +1315,13 @@ public class FileCryptoUI extends JFrame {
         }
     }
 
-    private class DecryptWorker extends SwingWorker<Void, Integer> {
+    private class DecryptWorker extends CryptoWorker {
         private final String inputPath;
         private final String outputPath;
         private final byte[] privateKey;
         private String errorMessage;
         private long timeCost;
+        private FileCryptoResult result;
         private final String operation = "解密中";
 
         public DecryptWorker(String inputPath, String outputPath, byte[] privateKey) {
@@ -1311,7 +1346,7 @@ public class FileCryptoUI extends JFrame {
                 new File(outputPath).delete();
             } else {
                 timeCostLabel.setText("解密耗时: " + formatTimeCost(timeCost));
-                calculateFileSm3(new File(outputPath), false);
+                showResultSm3(result);
                 showInfoDialog("解密成功！\n文件已保存至：" + outputPath);
             }
             currentWorker = null;
@@ -1321,66 +1356,10 @@ public class FileCryptoUI extends JFrame {
         protected Void doInBackground() throws Exception {
             try {
                 long startTime = System.currentTimeMillis();
-                publish(0);
-
-                if (isCancelled()) return null;
-
-                try (DataInputStream dis = new DataInputStream(new FileInputStream(inputPath))) {
-                    // 读取加密的SM4密钥长度和内容
-                    int keyLen = dis.readInt();
-                    byte[] encryptedSm4Key = new byte[keyLen];
-                    dis.readFully(encryptedSm4Key);
-
-                    // 读取IV
-                    byte[] iv = new byte[16];
-                    dis.readFully(iv);
-                    publish(20);
-
-                    if (isCancelled()) return null;
-
-                    // 用SM2私钥解密SM4密钥
-                    byte[] sm4Key = SM2Util.decrypt(privateKey, encryptedSm4Key);
-                    publish(40);
-
-                    if (isCancelled()) return null;
-
-                    // 解密文件内容
-                    File inputFile = new File(inputPath);
-                    long skipBytes = 4 + keyLen + 16; // 头部信息长度
-                    long totalBytes = inputFile.length() - skipBytes;
-                    if (totalBytes <= 0) {
-                        throw new Exception("加密文件内容为空");
-                    }
-
-                    long processedBytes = 0;
-
-                    try (FileInputStream fis = new FileInputStream(inputFile);
-                         FileOutputStream fos = new FileOutputStream(outputPath);
-                         org.bouncycastle.crypto.io.CipherInputStream cis =
-                                 new org.bouncycastle.crypto.io.CipherInputStream(fis, getSM4Cipher(sm4Key, iv, false))) {
-
-                        // 跳过头部信息
-                        long skipped = fis.skip(skipBytes);
-                        if (skipped != skipBytes) {
-                            throw new Exception("无法跳过足够的头部信息，文件可能已损坏");
-                        }
-
-                        byte[] buffer = new byte[BUFFER_SIZE];
-                        int bytesRead;
-                        while ((bytesRead = cis.read(buffer)) != -1) {
-                            if (isCancelled()) return null;
-
-                            fos.write(buffer, 0, bytesRead);
-                            processedBytes += bytesRead;
-                            int progress = (int) ((processedBytes * 60.0) / totalBytes + 40);
-                            publish(Math.min(progress, 99));
-                        }
-                    }
-                }
-
+                result = cryptoEngine.decrypt(new File(inputPath), new File(outputPath), privateKey, workerListener(this));
                 timeCost = System.currentTimeMillis() - startTime;
-                publish(100);
             } catch (Exception ex) {
+                if (isCancelled()) return null;
                 errorMessage = "解密过程失败: " + ex.getMessage();
                 ex.printStackTrace();
             }
@@ -1394,6 +1373,102 @@ public class FileCryptoUI extends JFrame {
         }
     }
 
+    /**
+     * 目录树加解密Worker：只显示累计文件数和吞吐量，单个文件失败不中断其余文件
+     */
+    private class TreeWorker extends CryptoWorker {
+        private final boolean encrypt;
+        private final String inputPath;
+        private final String outputPath;
+        private final List<byte[]> publicKeys;
+        private final byte[] privateKey;
+        private final String operation;
+        // 最近一次进度快照（进度线程写入，界面线程读取）
+        private volatile DirectoryCrypto.Progress progress;
+        private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        private String errorMessage;
+
+        TreeWorker(boolean encrypt, String inputPath, String outputPath, List<byte[]> publicKeys, byte[] privateKey) {
+            this.encrypt = encrypt;
+            this.inputPath = inputPath;
+            this.outputPath = outputPath;
+            this.publicKeys = publicKeys;
+            this.privateKey = privateKey;
+            this.operation = encrypt ? "加密中" : "解密中";
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            DirectoryCrypto.Listener listener = new DirectoryCrypto.Listener() {
+                @Override
+                public void onProgress(DirectoryCrypto.Progress snapshot) {
+                    progress = snapshot;
+                    publishProgress(0);
+                }
+
+                @Override
+                public void onFailure(File input, Exception e) {
+                    failures.add(input.getPath() + " (" + e.getMessage() + ")");
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return TreeWorker.this.isCancelled();
+                }
+            };
+            try {
+                FileCryptoEngine engine = encrypt && publicKeys.size() > 1 ? recipientEngine : cryptoEngine;
+                DirectoryCrypto crypto = new DirectoryCrypto(engine.getOptions());
+                progress = encrypt
+                        ? crypto.encrypt(new File(inputPath), new File(outputPath), publicKeys, listener)
+                        : crypto.decrypt(new File(inputPath), new File(outputPath), privateKey, listener);
+            } catch (Exception ex) {
+                if (isCancelled()) return null;
+                errorMessage = (encrypt ? "加密过程失败: " : "解密过程失败: ") + ex.getMessage();
+                ex.printStackTrace();
+            }
+            return null;
+        }
+
+        @Override
+        protected void process(List<Integer> chunks) {
+            DirectoryCrypto.Progress snapshot = progress;
+            if (snapshot != null) {
+                loadingLabel.setText(String.format("%s 已完成%d个文件 %.1f MB/s", operation,
+                        snapshot.getFiles(), snapshot.getBytesPerSecond() / (1024 * 1024)));
+            }
+        }
+
+        @Override
+        protected void done() {
+            progressBar.setIndeterminate(false);
+            progressBar.setStringPainted(true);
+            hideLoading();
+            enableOperationButtons();
+
+            String name = encrypt ? "加密" : "解密";
+            DirectoryCrypto.Progress snapshot = progress;
+            if (isCancelled()) {
+                showInfoDialog(name + "已取消" + (snapshot != null ? "，已完成" + snapshot.getFiles() + "个文件" : ""));
+                timeCostLabel.setText("");
+            } else if (errorMessage != null) {
+                showErrorDialog(errorMessage);
+            } else {
+                timeCostLabel.setText(name + "耗时: " + formatTimeCost(snapshot.getElapsedMillis()));
+                inputFileSm3Label.setText("待处理文件SM3: ");
+                outputFileSm3Label.setText("输出文件SM3: ");
+                if (failures.isEmpty()) {
+                    showInfoDialog(String.format("%s成功！共%d个文件，%s\n已保存至：%s", name, snapshot.getFiles(),
+                            formatFileSize(snapshot.getBytesIn()), outputPath));
+                } else {
+                    showErrorDialog(String.format("%s完成%d个文件，失败%d个，首个失败：\n%s\n已保存至：%s", name,
+                            snapshot.getFiles(), failures.size(), failures.get(0), outputPath));
+                }
+            }
+            currentWorker = null;
+        }
+    }
+
     // 工具方法
     private String formatFileSize(long bytes) {
         if (bytes < 0) {
@@ -1446,7 +1521,7 @@ public class FileCryptoUI extends JFrame {
             return false;
         }
         File inputFile = new File(inputPath);
-        if (!inputFile.exists() || !inputFile.isFile()) {
+        if (!inputFile.exists() || !(inputFile.isFile() || inputFile.isDirectory())) {
             showErrorDialog("待处理文件不存在或不是有效文件");
             return false;
         }
@@ -1466,22 +1541,6 @@ public class FileCryptoUI extends JFrame {
         return true;
     }
 
-    private PaddedBufferedBlockCipher getSM4Cipher(byte[] key, byte[] iv, boolean isEncrypt) throws Exception {
-        if (key == null || key.length != 16) {
-            throw new IllegalArgumentException("SM4密钥必须是16字节");
-        }
-        if (iv == null || iv.length != 16) {
-            throw new IllegalArgumentException("IV必须是16字节");
-        }
-
-        SM4Engine engine = new SM4Engine();
-        CBCBlockCipher cbcBlockCipher = new CBCBlockCipher(engine);
-        PaddedBufferedBlockCipher cipher = new PaddedBufferedBlockCipher(cbcBlockCipher, new PKCS7Padding());
-        CipherParameters keyParam = new ParametersWithIV(new KeyParameter(key), iv);
-        cipher.init(isEncrypt, keyParam);
-        return cipher;
-    }
-
     // 加载和对话框方法
     private void showLoading(String message) {
         loadingLabel.setText(message);
@@ -1491,6 +1550,15 @@ public class FileCryptoUI extends JFrame {
         setComponentEnabled(this.getContentPane(), false);
     }
 
+    /**
+     * 目录树处理：总量未知，进度条不显示百分比
+     */
+    private void showTreeLoading(String message) {
+        showLoading(message);
+        progressBar.setStringPainted(false);
+        progressBar.setIndeterminate(true);
+    }
+
     private void updateLoadingProgress(String message, int progress) {
         loadingLabel.setText(message);
         progressBar.setValue(progress);
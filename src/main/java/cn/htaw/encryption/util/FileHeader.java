@@ -0,0 +1,475 @@
+package cn.htaw.encryption.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 加密文件头部信息
+ * <pre>
+ * v1: int(SM2密文长度) + SM2加密的SM4密钥 + IV(16字节)，随后为整体SM4-CBC密文
+ * v2: int(魔数"SM4F") + byte(版本) + byte(模式：0=CBC,1=CTR,2=GCM) + short(标志位) + int(分段大小)
+ *     + long(明文长度) + int(SM2密文长度) + SM2加密的SM4密钥 + nonce(16字节)，随后为各分段密文
+ * v3: 头部与v2相同（版本为3，模式仅限CBC/CTR），每段密文后附32字节HMAC-SM3认证标签，见 {@link SegmentMac}
+ * </pre>
+ * v2/v3标志位含 {@link #FLAG_MULTI_RECIPIENT} 时，"int(SM2密文长度) + SM2加密的SM4密钥"替换为接收方列表：
+ * short(接收方数量) + 各接收方[密钥标识(8字节) + int(SM2密文长度) + SM2加密的SM4密钥]，
+ * 同一个SM4密钥分别用各接收方的公钥加密，解密时按私钥对应的密钥标识直接定位，无需逐个尝试。
+ * 标志位含 {@link #FLAG_COMPRESSED} 时，分段加密的明文是 {@link CompressingInputStream} 生成的压缩帧序列，
+ * 明文长度字段为帧序列的长度（加密完成后回填）。
+ * v1文件的首个int为SM2密文长度（远小于魔数），据此区分两种格式
+ */
+public class FileHeader {
+    // v2及以后格式的魔数："SM4F"
+    public static final int MAGIC = 0x534D3446;
+
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+    public static final int VERSION_3 = 3;
+
+    // 分段加密模式，见 {@link SegmentCipher}
+    public static final int MODE_CBC = 0;
+    public static final int MODE_CTR = 1;
+    public static final int MODE_GCM = 2;
+
+    // 标志位：多接收方头部
+    public static final int FLAG_MULTI_RECIPIENT = 0x0001;
+    // 标志位：明文为分块压缩帧序列
+    public static final int FLAG_COMPRESSED = 0x0002;
+    // 当前版本能识别的全部标志位
+    private static final int KNOWN_FLAGS = FLAG_MULTI_RECIPIENT | FLAG_COMPRESSED;
+    // 接收方数量上限（short）
+    public static final int MAX_RECIPIENTS = 0xFFFF;
+
+    // v2固定部分长度（不含SM2密文）：魔数+版本+模式+标志位+分段大小+明文长度+密文长度
+    private static final int SEGMENTED_FIXED_LENGTH = 4 + 1 + 1 + 2 + 4 + 8 + 4;
+
+    private final int version;
+    private final int mode;
+    private final int flags;
+    private final int segmentSize;
+    private final long plaintextLength;
+    // 单接收方时的SM2密文，多接收方时为null
+    private final byte[] wrappedKey;
+    // 多接收方列表，单接收方时为空
+    private final List<Recipient> recipients;
+    private final byte[] iv;
+
+    private FileHeader(int version, int mode, int flags, int segmentSize, long plaintextLength,
+                       byte[] wrappedKey, List<Recipient> recipients, byte[] iv) {
+        this.version = version;
+        this.mode = mode;
+        this.flags = flags;
+        this.segmentSize = segmentSize;
+        this.plaintextLength = plaintextLength;
+        this.wrappedKey = wrappedKey;
+        this.recipients = recipients;
+        this.iv = iv;
+    }
+
+    private FileHeader(int version, int mode, int flags, int segmentSize, long plaintextLength,
+                       byte[] wrappedKey, byte[] iv) {
+        this(version, mode, flags, segmentSize, plaintextLength, wrappedKey, Collections.<Recipient>emptyList(), iv);
+    }
+
+    /**
+     * 创建v1头部（整体CBC）
+     */
+    public static FileHeader v1(byte[] wrappedKey, byte[] iv) {
+        return new FileHeader(VERSION_1, MODE_CBC, 0, 0, -1, wrappedKey, iv);
+    }
+
+    /**
+     * 创建v2分段格式头部
+     * @param nonce 派生各分段IV使用的16字节随机数
+     */
+    public static FileHeader segmented(int mode, int segmentSize, long plaintextLength, byte[] wrappedKey, byte[] nonce) {
+        SegmentCipher.checkMode(mode);
+        SegmentCipher.checkSegmentSize(segmentSize);
+        return new FileHeader(VERSION_2, mode, 0, segmentSize, plaintextLength, wrappedKey, nonce);
+    }
+
+    /**
+     * 创建v3分段认证格式头部：与v2相同，每段密文后附HMAC-SM3认证标签
+     * GCM自带认证标签，不使用v3格式
+     */
+    public static FileHeader authenticated(int mode, int segmentSize, long plaintextLength, byte[] wrappedKey, byte[] nonce) {
+        SegmentCipher.checkMode(mode);
+        SegmentCipher.checkSegmentSize(segmentSize);
+        if (mode == MODE_GCM) {
+            throw new IllegalArgumentException("GCM模式自带认证标签，请使用v2格式");
+        }
+        return new FileHeader(VERSION_3, mode, 0, segmentSize, plaintextLength, wrappedKey, nonce);
+    }
+
+    /**
+     * 以接收方列表替换头部中的密钥部分（v2/v3），其余字段不变
+     * @param recipients 各接收方的密钥标识和SM2密文（至少一个，密钥标识不能重复）
+     */
+    public FileHeader withRecipients(List<Recipient> recipients) {
+        if (!isSegmented()) {
+            throw new IllegalArgumentException("多接收方需使用v2或v3格式");
+        }
+        if (recipients == null || recipients.isEmpty() || recipients.size() > MAX_RECIPIENTS) {
+            throw new IllegalArgumentException("接收方数量必须在1到" + MAX_RECIPIENTS + "之间");
+        }
+        List<Recipient> copy = new ArrayList<>(recipients);
+        for (int i = 0; i < copy.size(); i++) {
+            for (int j = 0; j < i; j++) {
+                if (Arrays.equals(copy.get(i).keyId, copy.get(j).keyId)) {
+                    throw new IllegalArgumentException("接收方公钥重复");
+                }
+            }
+        }
+        return new FileHeader(version, mode, flags | FLAG_MULTI_RECIPIENT, segmentSize, plaintextLength,
+                null, Collections.unmodifiableList(copy), iv);
+    }
+
+    /**
+     * 以单个SM2密文替换头部中的密钥部分，其余字段不变
+     */
+    public FileHeader withWrappedKey(byte[] wrappedKey) {
+        return new FileHeader(version, mode, flags & ~FLAG_MULTI_RECIPIENT, segmentSize, plaintextLength,
+                wrappedKey, iv);
+    }
+
+    /**
+     * 标记明文为分块压缩帧序列（v2/v3），其余字段不变
+     */
+    public FileHeader withCompression() {
+        if (!isSegmented()) {
+            throw new IllegalArgumentException("压缩需使用v2或v3格式");
+        }
+        return new FileHeader(version, mode, flags | FLAG_COMPRESSED, segmentSize, plaintextLength,
+                wrappedKey, recipients, iv);
+    }
+
+    /**
+     * 替换明文长度（v2/v3），其余字段不变，头部长度不变
+     */
+    public FileHeader withPlaintextLength(long plaintextLength) {
+        if (!isSegmented() || plaintextLength < 0) {
+            throw new IllegalArgumentException("明文长度无效: " + plaintextLength);
+        }
+        return new FileHeader(version, mode, flags, segmentSize, plaintextLength, wrappedKey, recipients, iv);
+    }
+
+    /**
+     * 从文件开头读取头部信息（自动识别v1/v2/v3）
+     * @param fileLength 加密文件总长度，用于校验头部中的长度字段
+     */
+    public static FileHeader read(DataInputStream in, long fileLength) throws IOException {
+        int first = in.readInt();
+        if (first != MAGIC) {
+            // v1：首个int即SM2密文长度
+            byte[] wrappedKey = readWrappedKey(in, first, fileLength);
+            byte[] iv = new byte[SM4Util.IV_SIZE];
+            in.readFully(iv);
+            return v1(wrappedKey, iv);
+        }
+
+        int version = in.readUnsignedByte();
+        if (version != VERSION_2 && version != VERSION_3) {
+            throw new IOException("不支持的加密文件版本: " + version);
+        }
+        int mode = in.readUnsignedByte();
+        if (mode != MODE_CBC && mode != MODE_CTR && (mode != MODE_GCM || version != VERSION_2)) {
+            throw new IOException("不支持的加密模式: " + mode);
+        }
+        int flags = in.readUnsignedShort();
+        if ((flags & ~KNOWN_FLAGS) != 0) {
+            throw new IOException("不支持的头部标志位: 0x" + Integer.toHexString(flags));
+        }
+        int segmentSize = in.readInt();
+        try {
+            SegmentCipher.checkSegmentSize(segmentSize);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("加密文件头部信息无效: " + e.getMessage());
+        }
+        long plaintextLength = in.readLong();
+        if (plaintextLength < 0) {
+            throw new IOException("加密文件头部信息无效，文件可能已损坏");
+        }
+        if ((flags & FLAG_MULTI_RECIPIENT) != 0) {
+            int count = in.readUnsignedShort();
+            if (count == 0) {
+                throw new IOException("加密文件头部信息无效，文件可能已损坏");
+            }
+            List<Recipient> recipients = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] keyId = new byte[SM2Util.KEY_ID_LENGTH];
+                in.readFully(keyId);
+                recipients.add(new Recipient(keyId, readWrappedKey(in, in.readInt(), fileLength)));
+            }
+            byte[] nonce = new byte[SM4Util.IV_SIZE];
+            in.readFully(nonce);
+            return new FileHeader(version, mode, flags, segmentSize, plaintextLength,
+                    null, Collections.unmodifiableList(recipients), nonce);
+        }
+        byte[] wrappedKey = readWrappedKey(in, in.readInt(), fileLength);
+        byte[] nonce = new byte[SM4Util.IV_SIZE];
+        in.readFully(nonce);
+        return new FileHeader(version, mode, flags, segmentSize, plaintextLength, wrappedKey, nonce);
+    }
+
+    private static byte[] readWrappedKey(DataInputStream in, int keyLen, long fileLength) throws IOException {
+        if (keyLen <= 0 || keyLen > fileLength) {
+            throw new IOException("加密文件头部信息无效，文件可能已损坏");
+        }
+        byte[] wrappedKey = new byte[keyLen];
+        in.readFully(wrappedKey);
+        return wrappedKey;
+    }
+
+    /**
+     * 写出头部信息
+     */
+    public void write(DataOutputStream out) throws IOException {
+        if (version != VERSION_1) {
+            out.writeInt(MAGIC);
+            out.writeByte(version);
+            out.writeByte(mode);
+            out.writeShort(flags);
+            out.writeInt(segmentSize);
+            out.writeLong(plaintextLength);
+        }
+        if (isMultiRecipient()) {
+            out.writeShort(recipients.size());
+            for (Recipient recipient : recipients) {
+                out.write(recipient.keyId);
+                out.writeInt(recipient.wrappedKey.length);
+                out.write(recipient.wrappedKey);
+            }
+        } else {
+            out.writeInt(wrappedKey.length);
+            out.write(wrappedKey);
+        }
+        out.write(iv);
+    }
+
+    /**
+     * 分段认证标签绑定的头部字段（v3）：版本、模式、标志位（不含多接收方标志）、分段大小、明文长度和nonce，
+     * 不含密钥部分，更换接收方或重新加密SM4密钥后各分段标签依然有效。
+     * 压缩文件的明文长度在加密完成后才回填，此处按0计；截断或追加分段仍会因最后一段的结束标志和文件长度校验而被发现
+     */
+    byte[] authenticatedBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(SEGMENTED_FIXED_LENGTH + SM4Util.IV_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(version);
+            out.writeByte(mode);
+            out.writeShort(flags & ~FLAG_MULTI_RECIPIENT);
+            out.writeInt(segmentSize);
+            out.writeLong(isCompressed() ? 0 : plaintextLength);
+            out.write(iv);
+        } catch (IOException e) {
+            // 写入内存不会失败
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 用SM2私钥解出文件密钥：多接收方头部按私钥对应的密钥标识定位条目，只解密匹配的条目
+     * @throws SM2Util.InvalidKeyException 头部中没有该私钥对应的接收方
+     */
+    public byte[] unwrapKey(byte[] privateKey) throws Exception {
+        if (!isMultiRecipient()) {
+            return SM2Util.decrypt(privateKey, wrappedKey);
+        }
+        byte[] keyId = SM2Util.keyIdOfPrivateKey(privateKey);
+        Exception failure = null;
+        for (Recipient recipient : recipients) {
+            if (Arrays.equals(keyId, recipient.keyId)) {
+                try {
+                    return SM2Util.decrypt(privateKey, recipient.wrappedKey);
+                } catch (Exception e) {
+                    // 8字节标识理论上可能碰撞，继续查找其余匹配的条目
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        throw new SM2Util.InvalidKeyException("该文件的接收方中没有与此私钥对应的公钥", null);
+    }
+
+    /**
+     * 头部信息的字节表示
+     */
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(getLength());
+        try {
+            write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            // 写入内存不会失败
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 头部在文件中占用的字节数
+     */
+    public int getLength() {
+        if (isMultiRecipient()) {
+            int length = SEGMENTED_FIXED_LENGTH - 4 + 2 + iv.length;
+            for (Recipient recipient : recipients) {
+                length += recipient.keyId.length + 4 + recipient.wrappedKey.length;
+            }
+            return length;
+        }
+        int length = 4 + wrappedKey.length + iv.length;
+        if (version != VERSION_1) {
+            length += SEGMENTED_FIXED_LENGTH - 4;
+        }
+        return length;
+    }
+
+    /**
+     * 分段数量（v2/v3）：最后一段可能不足分段大小甚至为空，因此总是 明文长度/分段大小 + 1
+     */
+    public long getSegmentCount() {
+        return plaintextLength / segmentSize + 1;
+    }
+
+    /**
+     * 第index段的明文长度（v2/v3）
+     */
+    public int getSegmentPlainLength(long index) {
+        long remaining = plaintextLength - index * segmentSize;
+        return (int) Math.min(remaining, segmentSize);
+    }
+
+    /**
+     * 第index段在文件中占用的字节数（v2/v3，v3含认证标签）
+     */
+    public int getSegmentStoredLength(long index) {
+        int length = SegmentCipher.encryptedLength(mode, getSegmentPlainLength(index), index == getSegmentCount() - 1);
+        return isAuthenticated() ? length + SegmentMac.TAG_SIZE : length;
+    }
+
+    /**
+     * 第index段在文件中的起始位置（v2/v3）
+     */
+    public long getSegmentOffset(long index) {
+        // 除最后一段外各段明文都等于分段大小，占用长度相同
+        long stride = SegmentCipher.encryptedLength(mode, segmentSize, false)
+                + (isAuthenticated() ? SegmentMac.TAG_SIZE : 0);
+        return getLength() + index * stride;
+    }
+
+    /**
+     * 头部描述的加密文件总长度（v2/v3），可用于发现截断或追加的数据
+     */
+    public long getEncryptedFileLength() {
+        long last = getSegmentCount() - 1;
+        return getSegmentOffset(last) + getSegmentStoredLength(last);
+    }
+
+    public boolean isSegmented() {
+        return version != VERSION_1;
+    }
+
+    /**
+     * 是否每段附带HMAC-SM3认证标签（v3）
+     */
+    public boolean isAuthenticated() {
+        return version == VERSION_3;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public long getPlaintextLength() {
+        return plaintextLength;
+    }
+
+    /**
+     * 单接收方头部的SM2密文，多接收方头部返回null（见 {@link #getRecipients()}）
+     */
+    public byte[] getWrappedKey() {
+        return wrappedKey;
+    }
+
+    /**
+     * 是否为多接收方头部
+     */
+    public boolean isMultiRecipient() {
+        return (flags & FLAG_MULTI_RECIPIENT) != 0;
+    }
+
+    /**
+     * 明文是否为分块压缩帧序列
+     */
+    public boolean isCompressed() {
+        return (flags & FLAG_COMPRESSED) != 0;
+    }
+
+    /**
+     * 多接收方列表（只读），单接收方头部返回空列表
+     */
+    public List<Recipient> getRecipients() {
+        return recipients;
+    }
+
+    public byte[] getIV() {
+        return iv;
+    }
+
+    /**
+     * 多接收方头部中的一个接收方：密钥标识 + 用该接收方公钥加密的SM4密钥
+     */
+    public static final class Recipient {
+        private final byte[] keyId;
+        private final byte[] wrappedKey;
+
+        public Recipient(byte[] keyId, byte[] wrappedKey) {
+            if (keyId == null || keyId.length != SM2Util.KEY_ID_LENGTH) {
+                throw new IllegalArgumentException("密钥标识必须是" + SM2Util.KEY_ID_LENGTH + "字节");
+            }
+            if (wrappedKey == null || wrappedKey.length == 0) {
+                throw new IllegalArgumentException("SM2密文不能为空");
+            }
+            this.keyId = keyId.clone();
+            this.wrappedKey = wrappedKey.clone();
+        }
+
+        /**
+         * 用接收方公钥加密SM4密钥
+         * @param publicKey SM2公钥（33或65字节）
+         */
+        public static Recipient wrap(byte[] publicKey, byte[] sm4Key) throws Exception {
+            SM2PublicKey key = SM2Util.getPublicKey(publicKey);
+            return new Recipient(key.getKeyId(), SM2Util.encrypt(key, sm4Key));
+        }
+
+        public byte[] getKeyId() {
+            return keyId.clone();
+        }
+
+        public byte[] getWrappedKey() {
+            return wrappedKey.clone();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package cn.htaw.encryption.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * SM2密钥库文件：批量生成的密钥对按顺序紧凑存放，每个密钥对占一条定长记录
+ * <pre>
+ * int(魔数"SM2K") + byte(版本) + byte(公钥长度：33=压缩,65=非压缩) + long(密钥对数量)
+ * 随后为各条记录：私钥(32字节) + 公钥(33或65字节)
+ * </pre>
+ * 第i个密钥对（从0开始）位于 头部长度 + i*记录长度 处，可按序号直接读取。
+ * 文件中的私钥未加密，应与单个密钥对的配置文件一样妥善保管。
+ */
+public class SM2KeyStore {
+    // 魔数："SM2K"
+    public static final int MAGIC = 0x534D324B;
+    public static final int VERSION_1 = 1;
+
+    // 头部长度：魔数+版本+公钥长度+数量
+    public static final int HEADER_LENGTH = 4 + 1 + 1 + 8;
+
+    // 每个生成任务的密钥对数量：批量转换仿射坐标只需一次模逆，任务也不至于过大
+    static final int BATCH_SIZE = 256;
+
+    private SM2KeyStore() {
+    }
+
+    /**
+     * 使用公共ForkJoin线程池批量生成密钥对
+     * @see #generate(File, long, boolean, ExecutorService, FileCryptoEngine.ProgressListener)
+     */
+    public static void generate(File file, long count, boolean compressed) throws Exception {
+        generate(file, count, compressed, ForkJoinPool.commonPool(), null);
+    }
+
+    /**
+     * 批量生成密钥对并流式写入密钥库文件
+     * 各批次在线程池中并行生成，按提交顺序写出；同时进行中的批次数有上限，内存占用与总数量无关
+     * @param count 密钥对数量
+     * @param compressed 是否使用压缩格式公钥
+     * @param executor 执行生成任务的线程池
+     * @param listener 进度回调（可为null）
+     */
+    public static void generate(File file, long count, boolean compressed, ExecutorService executor,
+                                FileCryptoEngine.ProgressListener listener) throws Exception {
+        if (count <= 0) {
+            throw new IllegalArgumentException("密钥对数量必须大于0");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("线程池不能为空");
+        }
+        if (listener == null) {
+            listener = FileCryptoEngine.ProgressListener.NONE;
+        }
+
+        int parallelism = executor instanceof ForkJoinPool
+                ? ((ForkJoinPool) executor).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        // 每个线程最多两个批次在途：一个在生成，一个等待写出
+        int window = Math.max(1, parallelism) * 2;
+        long batches = (count + BATCH_SIZE - 1) / BATCH_SIZE;
+
+        Deque<Future<byte[]>> pending = new ArrayDeque<>(window);
+        boolean success = false;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION_1);
+            out.writeByte(compressed ? SM2Util.COMPRESSED_PUBLIC_KEY_LENGTH : SM2Util.UNCOMPRESSED_PUBLIC_KEY_LENGTH);
+            out.writeLong(count);
+
+            long submitted = 0;
+            for (long written = 0; written < batches; written++) {
+                while (submitted < batches && pending.size() < window) {
+                    int size = (int) Math.min(BATCH_SIZE, count - submitted * BATCH_SIZE);
+                    pending.add(executor.submit(() -> SM2Util.generateKeyPairRecords(size, compressed)));
+                    submitted++;
+                }
+                byte[] records = await(pending.poll());
+                out.write(records);
+                Arrays.fill(records, (byte) 0);
+                listener.onProgress((int) ((written + 1) * 100 / batches));
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                for (Future<byte[]> future : pending) {
+                    future.cancel(true);
+                }
+                file.delete();
+            }
+        }
+    }
+
+    private static byte[] await(Future<byte[]> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * 按序号读取单个密钥对
+     * @param index 序号（从0开始）
+     * @return 包含公钥和私钥的Map，格式与 {@link SM2Util#generateKeyPair(boolean)} 相同
+     */
+    public static Map<String, byte[]> read(File file, long index) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] header = new byte[HEADER_LENGTH];
+            raf.readFully(header);
+            Reader reader = new Reader(new DataInputStream(new ByteArrayInputStream(header)), raf.length());
+            if (index < 0 || index >= reader.getCount()) {
+                throw new IndexOutOfBoundsException("密钥对序号超出范围: " + index);
+            }
+            raf.seek(HEADER_LENGTH + index * reader.getRecordLength());
+            byte[] privateKey = new byte[SM2Util.PRIVATE_KEY_LENGTH];
+            byte[] publicKey = new byte[reader.getPublicKeyLength()];
+            raf.readFully(privateKey);
+            raf.readFully(publicKey);
+            Map<String, byte[]> keys = new HashMap<>(2);
+            keys.put("publicKey", publicKey);
+            keys.put("privateKey", privateKey);
+            return keys;
+        }
+    }
+
+    /**
+     * 顺序读取密钥库中的全部密钥对
+     */
+    public static Reader open(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            return new Reader(in, file.length());
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 密钥库顺序读取器：每次调用 {@link #next()} 读入一个密钥对
+     */
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long count;
+        private final int publicKeyLength;
+        private final byte[] privateKey = new byte[SM2Util.PRIVATE_KEY_LENGTH];
+        private final byte[] publicKey;
+        private long index = -1;
+
+        private Reader(DataInputStream in, long fileLength) throws IOException {
+            this.in = in;
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不是SM2密钥库文件");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION_1) {
+                throw new IOException("不支持的密钥库版本: " + version);
+            }
+            publicKeyLength = in.readUnsignedByte();
+            if (publicKeyLength != SM2Util.COMPRESSED_PUBLIC_KEY_LENGTH
+                    && publicKeyLength != SM2Util.UNCOMPRESSED_PUBLIC_KEY_LENGTH) {
+                throw new IOException("密钥库头部信息无效，文件可能已损坏");
+            }
+            count = in.readLong();
+            if (count < 0 || HEADER_LENGTH + count * getRecordLength() != fileLength) {
+                throw new IOException("密钥库长度与头部记录的数量不符，文件可能已损坏");
+            }
+            publicKey = new byte[publicKeyLength];
+        }
+
+        /**
+         * 读入下一个密钥对
+         * @return 已读完全部密钥对时返回false
+         */
+        public boolean next() throws IOException {
+            if (index + 1 >= count) {
+                return false;
+            }
+            try {
+                in.readFully(privateKey);
+                in.readFully(publicKey);
+            } catch (EOFException e) {
+                throw new IOException("密钥库文件不完整", e);
+            }
+            index++;
+            return true;
+        }
+
+        /**
+         * 当前密钥对的序号（从0开始）
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        /**
+         * 当前密钥对的私钥（32字节）
+         */
+        public byte[] getPrivateKey() {
+            return privateKey.clone();
+        }
+
+        /**
+         * 当前密钥对的公钥（33或65字节）
+         */
+        public byte[] getPublicKey() {
+            return publicKey.clone();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public int getPublicKeyLength() {
+            return publicKeyLength;
+        }
+
+        int getRecordLength() {
+            return SM2Util.PRIVATE_KEY_LENGTH + publicKeyLength;
+        }
+
+        @Override
+        public void close() throws IOException {
+            Arrays.fill(privateKey, (byte) 0);
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package cn.htaw.encryption.util;
+
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.WNafUtil;
+
+/**
+ * 预解码的SM2公钥句柄
+ * 公钥解码（含点解压缩和有效性校验）只在创建时执行一次。同一句柄重复用于加密时，
+ * BouncyCastle把可变基点标量乘法的wNAF预计算表缓存在公钥点上，后续加密直接复用该表。
+ * 实例不可变，可被多个线程同时使用。
+ */
+public final class SM2PublicKey {
+    // 默认预计算窗口宽度：预计算2^(w-2)个点，窗口越宽每次标量乘法所需的点加越少
+    public static final int DEFAULT_PRECOMPUTE_WIDTH = 6;
+
+    private final byte[] encoded;
+    private final ECPublicKeyParameters parameters;
+
+    private SM2PublicKey(byte[] encoded, ECPublicKeyParameters parameters) {
+        this.encoded = encoded;
+        this.parameters = parameters;
+    }
+
+    /**
+     * 解码公钥（不经过缓存），需要缓存时使用 {@link SM2Util#getPublicKey(byte[])}
+     * @param publicKey 公钥字节数组（压缩格式33字节，非压缩格式65字节）
+     */
+    public static SM2PublicKey decode(byte[] publicKey) throws SM2Util.InvalidKeyException {
+        if (publicKey == null || (publicKey.length != SM2Util.COMPRESSED_PUBLIC_KEY_LENGTH
+                && publicKey.length != SM2Util.UNCOMPRESSED_PUBLIC_KEY_LENGTH)) {
+            throw new IllegalArgumentException("SM2公钥必须为33字节（压缩）或65字节（非压缩）");
+        }
+        try {
+            ECPoint ecPoint = SM2Util.getDomainParameters().getCurve().decodePoint(publicKey);
+            return new SM2PublicKey(publicKey.clone(),
+                    new ECPublicKeyParameters(ecPoint, SM2Util.getDomainParameters()));
+        } catch (Exception e) {
+            throw new SM2Util.InvalidKeyException("公钥解析失败，可能不是有效的SM2公钥", e);
+        }
+    }
+
+    /**
+     * 以默认窗口宽度预计算公钥点的倍点表
+     */
+    public SM2PublicKey precompute() {
+        return precompute(DEFAULT_PRECOMPUTE_WIDTH);
+    }
+
+    /**
+     * 预计算公钥点的倍点表，已有不小于该宽度的表时不重复计算
+     * @param width wNAF窗口宽度（2~16）
+     */
+    public SM2PublicKey precompute(int width) {
+        if (width < 2 || width > 16) {
+            throw new IllegalArgumentException("预计算窗口宽度必须在2到16之间: " + width);
+        }
+        WNafUtil.precompute(parameters.getQ(), width, true);
+        return this;
+    }
+
+    /**
+     * 公钥的原始编码
+     */
+    public byte[] getEncoded() {
+        return encoded.clone();
+    }
+
+    /**
+     * 密钥标识：SM3(压缩格式公钥)的前8字节，见 {@link SM2Util#keyId(byte[])}
+     */
+    public byte[] getKeyId() {
+        return SM2Util.keyIdOf(parameters.getQ());
+    }
+
+    ECPublicKeyParameters getParameters() {
+        return parameters;
+    }
+}
@@ -2,20 +2,35 @@ package cn.htaw.encryption.util;
 
 import org.bouncycastle.asn1.gm.GMNamedCurves;
 import org.bouncycastle.asn1.x9.X9ECParameters;
-import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
-import org.bouncycastle.crypto.generators.ECKeyPairGenerator;
+import org.bouncycastle.crypto.digests.SM3Digest;
+import org.bouncycastle.crypto.engines.SM2Engine;
 import org.bouncycastle.crypto.params.ECDomainParameters;
-import org.bouncycastle.crypto.params.ECKeyGenerationParameters;
 import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
-import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.params.ParametersWithRandom;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.bouncycastle.math.ec.FixedPointUtil;
+import org.bouncycastle.math.ec.WNafUtil;
+import org.bouncycastle.util.BigIntegers;
+import org.bouncycastle.util.encoders.Hex;
 
+import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * SM2非对称加密工具类（基于国密标准GM/T 0003-2012）
@@ -36,9 +51,96 @@ public class SM2Util {
             x9ECParameters.getN()
     );
 
+    // 公钥句柄缓存的默认容量
+    public static final int DEFAULT_PUBLIC_KEY_CACHE_SIZE = 64;
+
+    // 公钥句柄LRU缓存（按公钥编码索引），向同一接收方重复加密时不再重复解码公钥
+    private static int publicKeyCacheSize = DEFAULT_PUBLIC_KEY_CACHE_SIZE;
+    private static final Map<String, SM2PublicKey> publicKeyCache =
+            new LinkedHashMap<String, SM2PublicKey>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SM2PublicKey> eldest) {
+                    return size() > publicKeyCacheSize;
+                }
+            };
+
+    // 私钥和公钥编码长度
+    static final int PRIVATE_KEY_LENGTH = 32;
+    static final int COMPRESSED_PUBLIC_KEY_LENGTH = 33;
+    static final int UNCOMPRESSED_PUBLIC_KEY_LENGTH = 65;
+    // 密钥标识长度：SM3(压缩格式公钥)的前8字节
+    public static final int KEY_ID_LENGTH = 8;
+
+    // 基点G的固定基梳状乘法器：预计算表缓存在G上，所有线程共享，只需计算一次
+    private static final FixedPointCombMultiplier BASE_POINT_MULTIPLIER = new FixedPointCombMultiplier();
+
+    static {
+        FixedPointUtil.precompute(ecDomainParameters.getG());
+    }
+
+    // SM2加密器不是线程安全的，每个线程复用各自的实例
+    private static final ThreadLocal<SM2Engine> ENCRYPT_ENGINE = ThreadLocal.withInitial(SM2Engine::new);
+    private static final ThreadLocal<SM2Engine> DECRYPT_ENGINE = ThreadLocal.withInitial(SM2Engine::new);
+
+    static ECDomainParameters getDomainParameters() {
+        return ecDomainParameters;
+    }
+
+    /**
+     * 获取公钥句柄：优先从LRU缓存中取，未命中时解码公钥并预计算倍点表后放入缓存
+     * @param publicKey 公钥字节数组（压缩格式33字节，非压缩格式65字节）
+     */
+    public static SM2PublicKey getPublicKey(byte[] publicKey) throws InvalidKeyException {
+        if (publicKey == null || (publicKey.length != COMPRESSED_PUBLIC_KEY_LENGTH && publicKey.length != UNCOMPRESSED_PUBLIC_KEY_LENGTH)) {
+            throw new IllegalArgumentException("SM2公钥必须为33字节（压缩）或65字节（非压缩）");
+        }
+        String cacheKey = Hex.toHexString(publicKey);
+        synchronized (publicKeyCache) {
+            SM2PublicKey cached = publicKeyCache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // 解码和预计算在锁外进行，并发未命中时重复计算的结果等价
+        SM2PublicKey key = SM2PublicKey.decode(publicKey).precompute();
+        synchronized (publicKeyCache) {
+            if (publicKeyCacheSize > 0) {
+                publicKeyCache.put(cacheKey, key);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * 设置公钥句柄缓存容量，0表示不缓存
+     */
+    public static void setPublicKeyCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("缓存容量不能为负数");
+        }
+        synchronized (publicKeyCache) {
+            publicKeyCacheSize = size;
+            Iterator<String> iterator = publicKeyCache.keySet().iterator();
+            while (publicKeyCache.size() > size && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 清空公钥句柄缓存
+     */
+    public static void clearPublicKeyCache() {
+        synchronized (publicKeyCache) {
+            publicKeyCache.clear();
+        }
+    }
+
     /**
      * 生成SM2密钥对（默认返回压缩格式公钥）
-     * @return 包含公钥（64字节）和私钥（32字节）的Map
+     * @return 包含公钥（33字节）和私钥（32字节）的Map
      */
     public static Map<String, byte[]> generateKeyPair() throws Exception {
         return generateKeyPair(true);
@@ -46,74 +148,132 @@ public class SM2Util {
 
     /**
      * 生成SM2密钥对
-     * @param compressed 是否返回压缩格式公钥（true:64字节，false:65字节）
+     * @param compressed 是否返回压缩格式公钥（true:33字节，false:65字节）
      * @return 包含公钥和私钥的Map
      */
     public static Map<String, byte[]> generateKeyPair(boolean compressed) throws Exception {
-        // 初始化密钥生成器
-        ECKeyPairGenerator generator = new ECKeyPairGenerator();
-        ECKeyGenerationParameters keyGenerationParameters = new ECKeyGenerationParameters(
-                ecDomainParameters, new SecureRandom()
-        );
-        generator.init(keyGenerationParameters);
-
-        // 生成密钥对
-        AsymmetricCipherKeyPair keyPair = generator.generateKeyPair();
-        ECPublicKeyParameters publicKeyParams = (ECPublicKeyParameters) keyPair.getPublic();
-        ECPrivateKeyParameters privateKeyParams = (ECPrivateKeyParameters) keyPair.getPrivate();
-
-        // 公钥编码（压缩/非压缩格式）
-        ECPoint ecPoint = publicKeyParams.getQ();
-        byte[] publicKey = ecPoint.getEncoded(compressed);
-
-        // 私钥编码（确保32字节，去除可能的0填充）
-        byte[] privateKey = privateKeyParams.getD().toByteArray();
-        if (privateKey.length == 33) {
-            privateKey = Arrays.copyOfRange(privateKey, 1, 33); // 去除首位0填充
-        } else if (privateKey.length != 32) {
-            throw new IllegalStateException("生成的私钥长度异常: " + privateKey.length + "字节");
-        }
-
+        byte[] record = generateKeyPairRecords(1, compressed);
         Map<String, byte[]> keys = new HashMap<>(2);
-        keys.put("publicKey", publicKey);
-        keys.put("privateKey", privateKey);
+        keys.put("privateKey", Arrays.copyOfRange(record, 0, PRIVATE_KEY_LENGTH));
+        keys.put("publicKey", Arrays.copyOfRange(record, PRIVATE_KEY_LENGTH, record.length));
+        Arrays.fill(record, (byte) 0);
         return keys;
     }
 
+    /**
+     * 批量生成密钥对（供 {@link SM2KeyStore} 使用），使用当前线程的随机数来源
+     * 公钥Q=dG由共享的基点G固定基梳状预计算表计算，全部公钥一次模逆批量转换为仿射坐标
+     * @return count条紧凑记录：私钥(32字节) + 公钥(33或65字节)
+     */
+    static byte[] generateKeyPairRecords(int count, boolean compressed) {
+        SecureRandom random = SecureRandomProvider.current();
+        BigInteger n = ecDomainParameters.getN();
+        // SM2要求私钥d∈[1, n-2]，(1+d)才可逆
+        BigInteger maxD = n.subtract(BigInteger.valueOf(2));
+        // 与BouncyCastle的EC密钥生成器一致：拒绝NAF权重过低的私钥
+        int minWeight = n.bitLength() >>> 2;
+        ECPoint g = ecDomainParameters.getG();
+
+        BigInteger[] d = new BigInteger[count];
+        ECPoint[] q = new ECPoint[count];
+        for (int i = 0; i < count; i++) {
+            BigInteger k;
+            do {
+                k = BigIntegers.createRandomBigInteger(n.bitLength(), random);
+            } while (k.signum() == 0 || k.compareTo(maxD) > 0 || WNafUtil.getNafWeight(k) < minWeight);
+            d[i] = k;
+            q[i] = BASE_POINT_MULTIPLIER.multiply(g, k);
+        }
+        g.getCurve().normalizeAll(q);
+
+        int publicKeyLength = compressed ? COMPRESSED_PUBLIC_KEY_LENGTH : UNCOMPRESSED_PUBLIC_KEY_LENGTH;
+        int recordLength = PRIVATE_KEY_LENGTH + publicKeyLength;
+        byte[] records = new byte[count * recordLength];
+        for (int i = 0; i < count; i++) {
+            int off = i * recordLength;
+            BigIntegers.asUnsignedByteArray(d[i], records, off, PRIVATE_KEY_LENGTH);
+            byte[] publicKey = q[i].getEncoded(compressed);
+            System.arraycopy(publicKey, 0, records, off + PRIVATE_KEY_LENGTH, publicKeyLength);
+        }
+        return records;
+    }
+
+    /**
+     * 公钥的密钥标识：SM3(压缩格式公钥)的前8字节，同一公钥的压缩与非压缩编码得到相同的标识
+     * @param publicKey 公钥字节数组（压缩格式33字节，非压缩格式65字节）
+     */
+    public static byte[] keyId(byte[] publicKey) throws InvalidKeyException {
+        return getPublicKey(publicKey).getKeyId();
+    }
+
+    /**
+     * 私钥对应公钥的密钥标识（Q=dG经固定基预计算表计算），解密时据此在多接收方头部中定位自己的条目
+     * @param privateKey 私钥字节数组（32字节）
+     */
+    public static byte[] keyIdOfPrivateKey(byte[] privateKey) {
+        BigInteger d = parsePrivateKey(privateKey).getD();
+        ECPoint q = BASE_POINT_MULTIPLIER.multiply(ecDomainParameters.getG(), d).normalize();
+        return keyIdOf(q);
+    }
+
+    static byte[] keyIdOf(ECPoint point) {
+        byte[] encoded = point.getEncoded(true);
+        SM3Digest digest = new SM3Digest();
+        digest.update(encoded, 0, encoded.length);
+        byte[] hash = new byte[digest.getDigestSize()];
+        digest.doFinal(hash, 0);
+        return Arrays.copyOf(hash, KEY_ID_LENGTH);
+    }
+
     /**
      * SM2加密（使用公钥）
-     * @param publicKey 公钥字节数组（压缩格式64字节，非压缩格式65字节）
+     * @param publicKey 公钥字节数组（压缩格式33字节，非压缩格式65字节）
      * @param data 待加密数据（建议长度≤245字节）
      * @return 加密后的数据
      */
     public static byte[] encrypt(byte[] publicKey, byte[] data) throws Exception {
         // 校验输入
-        if (publicKey == null || (publicKey.length != 64 && publicKey.length != 65)) {
-            throw new IllegalArgumentException("SM2公钥必须为64字节（压缩）或65字节（非压缩）");
+        if (publicKey == null || (publicKey.length != COMPRESSED_PUBLIC_KEY_LENGTH && publicKey.length != UNCOMPRESSED_PUBLIC_KEY_LENGTH)) {
+            throw new IllegalArgumentException("SM2公钥必须为33字节（压缩）或65字节（非压缩）");
         }
         if (data == null || data.length == 0) {
             throw new IllegalArgumentException("待加密数据不能为空");
         }
 
-        // 解析公钥
-        ECPoint ecPoint;
-        try {
-            ecPoint = x9ECParameters.getCurve().decodePoint(publicKey);
-        } catch (Exception e) {
-            throw new InvalidKeyException("公钥解析失败，可能不是有效的SM2公钥", e);
+        // 解析公钥（经LRU缓存）
+        return encrypt(getPublicKey(publicKey), data);
+    }
+
+    /**
+     * SM2加密（使用预解码的公钥句柄）
+     * @param publicKey 公钥句柄
+     * @param data 待加密数据
+     * @return 加密后的数据
+     */
+    public static byte[] encrypt(SM2PublicKey publicKey, byte[] data) throws Exception {
+        if (publicKey == null) {
+            throw new IllegalArgumentException("SM2公钥不能为空");
+        }
+        if (data == null || data.length == 0) {
+            throw new IllegalArgumentException("待加密数据不能为空");
         }
-        ECPublicKeyParameters publicKeyParams = new ECPublicKeyParameters(ecPoint, ecDomainParameters);
 
         // 初始化SM2加密器
-        org.bouncycastle.crypto.engines.SM2Engine engine = new org.bouncycastle.crypto.engines.SM2Engine();
-        engine.init(true, new org.bouncycastle.crypto.params.ParametersWithRandom(
-                publicKeyParams, new SecureRandom()
-        ));
+        SM2Engine engine = ENCRYPT_ENGINE.get();
+        engine.init(true, new ParametersWithRandom(publicKey.getParameters(), SecureRandomProvider.current()));
 
         // 执行加密
+        long start = CryptoMetrics.start();
+        CryptoEvents.Scope events = CryptoEvents.current();
+        events.begin(CryptoEvents.Stage.SM2_WRAP);
         try {
-            return engine.processBlock(data, 0, data.length);
+            byte[] result = engine.processBlock(data, 0, data.length);
+            CryptoMetrics.stop(CryptoMetrics.Operation.SM2_WRAP, start, data.length);
+            events.end(CryptoEvents.Stage.SM2_WRAP, data.length);
+            return result;
         } catch (Exception e) {
+            CryptoMetrics.error(CryptoMetrics.Operation.SM2_WRAP);
+            events.end(CryptoEvents.Stage.SM2_WRAP, 0);
             throw new EncryptionException("SM2加密失败", e);
         }
     }
@@ -125,30 +285,170 @@ public class SM2Util {
      * @return 解密后的数据
      */
     public static byte[] decrypt(byte[] privateKey, byte[] encryptedData) throws Exception {
-        // 校验输入
+        // 解析私钥（含输入校验）
+        ECPrivateKeyParameters privateKeyParams = parsePrivateKey(privateKey);
+        return decrypt(privateKeyParams, encryptedData);
+    }
+
+    private static ECPrivateKeyParameters parsePrivateKey(byte[] privateKey) {
         if (privateKey == null || privateKey.length != 32) {
             throw new IllegalArgumentException("SM2私钥必须为32字节");
         }
+        java.math.BigInteger d = new java.math.BigInteger(1, privateKey);
+        return new ECPrivateKeyParameters(d, ecDomainParameters);
+    }
+
+    private static byte[] decrypt(ECPrivateKeyParameters privateKeyParams, byte[] encryptedData) throws Exception {
         if (encryptedData == null || encryptedData.length == 0) {
             throw new IllegalArgumentException("待解密数据不能为空");
         }
 
-        // 解析私钥
-        java.math.BigInteger d = new java.math.BigInteger(1, privateKey);
-        ECPrivateKeyParameters privateKeyParams = new ECPrivateKeyParameters(d, ecDomainParameters);
-
         // 初始化SM2解密器
-        org.bouncycastle.crypto.engines.SM2Engine engine = new org.bouncycastle.crypto.engines.SM2Engine();
+        SM2Engine engine = DECRYPT_ENGINE.get();
         engine.init(false, privateKeyParams);
 
         // 执行解密
+        long start = CryptoMetrics.start();
+        CryptoEvents.Scope events = CryptoEvents.current();
+        events.begin(CryptoEvents.Stage.SM2_UNWRAP);
         try {
-            return engine.processBlock(encryptedData, 0, encryptedData.length);
+            byte[] result = engine.processBlock(encryptedData, 0, encryptedData.length);
+            CryptoMetrics.stop(CryptoMetrics.Operation.SM2_UNWRAP, start, result.length);
+            events.end(CryptoEvents.Stage.SM2_UNWRAP, result.length);
+            return result;
         } catch (Exception e) {
+            CryptoMetrics.error(CryptoMetrics.Operation.SM2_UNWRAP);
+            events.end(CryptoEvents.Stage.SM2_UNWRAP, 0);
             throw new DecryptionException("SM2解密失败（可能密钥不匹配或数据损坏）", e);
         }
     }
 
+    /**
+     * 批量SM2加密（如批量包装SM4密钥），使用公共ForkJoin线程池
+     * @see #encryptBatch(SM2PublicKey, List, ExecutorService)
+     */
+    public static List<BatchResult> encryptBatch(byte[] publicKey, List<byte[]> dataList) throws Exception {
+        return encryptBatch(getPublicKey(publicKey), dataList, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 批量SM2加密：公钥只解析一次，各线程复用各自的加密器
+     * @param dataList 待加密数据列表
+     * @param executor 执行加密的线程池
+     * @return 与dataList顺序一致的结果，单项失败记录在对应结果中，不影响其他项
+     */
+    public static List<BatchResult> encryptBatch(SM2PublicKey publicKey, List<byte[]> dataList,
+                                                 ExecutorService executor) throws InterruptedException {
+        if (publicKey == null) {
+            throw new IllegalArgumentException("SM2公钥不能为空");
+        }
+        return processBatch(dataList, executor, data -> encrypt(publicKey, data));
+    }
+
+    /**
+     * 批量SM2解密，使用公共ForkJoin线程池
+     * @see #decryptBatch(byte[], List, ExecutorService)
+     */
+    public static List<BatchResult> decryptBatch(byte[] privateKey, List<byte[]> encryptedList) throws InterruptedException {
+        return decryptBatch(privateKey, encryptedList, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 批量SM2解密（如批量解包SM4密钥）：私钥只解析一次，各线程复用各自的解密器
+     * @param encryptedList 待解密数据列表
+     * @param executor 执行解密的线程池
+     * @return 与encryptedList顺序一致的结果，单项失败记录在对应结果中，不影响其他项
+     */
+    public static List<BatchResult> decryptBatch(byte[] privateKey, List<byte[]> encryptedList,
+                                                 ExecutorService executor) throws InterruptedException {
+        ECPrivateKeyParameters privateKeyParams = parsePrivateKey(privateKey);
+        return processBatch(encryptedList, executor, data -> decrypt(privateKeyParams, data));
+    }
+
+    /**
+     * 将列表均分为若干连续区间提交到线程池，每个区间在一个线程内顺序处理
+     */
+    private static List<BatchResult> processBatch(List<byte[]> items, ExecutorService executor,
+                                                  BatchOperation operation) throws InterruptedException {
+        if (items == null) {
+            throw new IllegalArgumentException("批量数据列表不能为空");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("线程池不能为空");
+        }
+        byte[][] inputs = items.toArray(new byte[0][]);
+        BatchResult[] results = new BatchResult[inputs.length];
+        if (inputs.length == 0) {
+            return Collections.emptyList();
+        }
+
+        int parallelism = executor instanceof ForkJoinPool
+                ? ((ForkJoinPool) executor).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        // 区间数取并行度的4倍，各线程处理速度不同时也能保持负载均衡
+        int chunks = Math.min(inputs.length, Math.max(1, parallelism) * 4);
+        List<Callable<Void>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int from = (int) ((long) inputs.length * c / chunks);
+            int to = (int) ((long) inputs.length * (c + 1) / chunks);
+            tasks.add(() -> {
+                for (int i = from; i < to; i++) {
+                    try {
+                        results[i] = new BatchResult(operation.apply(inputs[i]), null);
+                    } catch (Exception e) {
+                        results[i] = new BatchResult(null, e);
+                    }
+                }
+                return null;
+            });
+        }
+
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // 单项异常已记录在结果中，此处只可能是Error
+                throw new IllegalStateException("批量SM2处理失败", e.getCause());
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private interface BatchOperation {
+        byte[] apply(byte[] data) throws Exception;
+    }
+
+    /**
+     * 批量处理中单项的结果：成功时为输出数据，失败时为对应的异常
+     */
+    public static final class BatchResult {
+        private final byte[] value;
+        private final Exception error;
+
+        BatchResult(byte[] value, Exception error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * 输出数据，失败时为null
+         */
+        public byte[] getValue() {
+            return value;
+        }
+
+        /**
+         * 失败原因，成功时为null
+         */
+        public Exception getError() {
+            return error;
+        }
+    }
+
     // 自定义异常类（细化异常类型）
     public static class EncryptionException extends Exception {
         public EncryptionException(String message, Throwable cause) {
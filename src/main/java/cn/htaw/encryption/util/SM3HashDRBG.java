@@ -0,0 +1,159 @@
+package cn.htaw.encryption.util;
+
+import org.bouncycastle.crypto.digests.SM3Digest;
+import org.bouncycastle.util.Arrays;
+
+import java.security.SecureRandom;
+
+/**
+ * 基于SM3的Hash_DRBG（NIST SP 800-90A 10.1.1，GM/T 0105采用相同构造）
+ * 种子长度440位；生成2^20次后自动从熵源重新播种，单次请求最多64KB（更长的请求自动拆分）。
+ * BouncyCastle自带的SP 800-90A实现没有SM3的安全强度参数，无法直接使用SM3，故在此实现。
+ * 方法均已同步，但建议每个线程各持一个实例（见 {@link SecureRandomProvider}）。
+ */
+class SM3HashDRBG extends SecureRandom {
+    private static final long serialVersionUID = 1L;
+
+    // 种子长度：440位
+    private static final int SEED_LENGTH = 55;
+    // 熵输入长度：256位
+    private static final int ENTROPY_LENGTH = 32;
+    private static final long RESEED_INTERVAL = 1L << 20;
+    private static final int MAX_REQUEST = 1 << 16;
+    private static final byte[] ONE = {1};
+
+    private final SecureRandom entropySource;
+    private final SM3Digest digest = new SM3Digest();
+    private final byte[] hash = new byte[32];
+    private byte[] v;
+    private byte[] c;
+    private long reseedCounter;
+
+    /**
+     * @param entropySource 熵源（用于实例化和重新播种）
+     * @param nonce 实例化nonce，各实例应互不相同
+     * @param personalization 个性化字符串（可为null）
+     */
+    SM3HashDRBG(SecureRandom entropySource, byte[] nonce, byte[] personalization) {
+        super(null, null);
+        this.entropySource = entropySource;
+        byte[] seedMaterial = Arrays.concatenate(entropySource.generateSeed(ENTROPY_LENGTH), nonce,
+                personalization == null ? new byte[0] : personalization);
+        v = hashDf(seedMaterial);
+        c = hashDf(Arrays.prepend(v, (byte) 0x00));
+        reseedCounter = 1;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return "SM3-Hash-DRBG";
+    }
+
+    @Override
+    public synchronized void nextBytes(byte[] bytes) {
+        for (int off = 0; off < bytes.length; off += MAX_REQUEST) {
+            generate(bytes, off, Math.min(MAX_REQUEST, bytes.length - off));
+        }
+    }
+
+    /**
+     * 追加调用方提供的种子：与熵源输入一起重新播种
+     */
+    @Override
+    public synchronized void setSeed(byte[] seed) {
+        if (v != null) {
+            reseedState(seed);
+        }
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        // SecureRandom构造时会以0调用此方法，此时内部状态尚未建立
+        if (v != null) {
+            byte[] bytes = new byte[8];
+            for (int i = 0; i < 8; i++) {
+                bytes[i] = (byte) (seed >>> (56 - 8 * i));
+            }
+            setSeed(bytes);
+        }
+    }
+
+    @Override
+    public byte[] generateSeed(int numBytes) {
+        return entropySource.generateSeed(numBytes);
+    }
+
+    private void reseedState(byte[] additionalInput) {
+        byte[] seedMaterial = Arrays.concatenate(new byte[]{0x01}, v, entropySource.generateSeed(ENTROPY_LENGTH),
+                additionalInput == null ? new byte[0] : additionalInput);
+        v = hashDf(seedMaterial);
+        c = hashDf(Arrays.prepend(v, (byte) 0x00));
+        reseedCounter = 1;
+    }
+
+    private void generate(byte[] out, int outOff, int len) {
+        if (reseedCounter > RESEED_INTERVAL) {
+            reseedState(null);
+        }
+
+        // Hashgen：data从V开始，每输出一个摘要加1
+        byte[] data = v.clone();
+        for (int off = 0; off < len; off += hash.length) {
+            digest.update(data, 0, data.length);
+            digest.doFinal(hash, 0);
+            System.arraycopy(hash, 0, out, outOff + off, Math.min(hash.length, len - off));
+            addTo(data, ONE);
+        }
+        Arrays.fill(data, (byte) 0);
+
+        // V = (V + Hash(0x03 || V) + C + reseed_counter) mod 2^seedlen
+        digest.update((byte) 0x03);
+        digest.update(v, 0, v.length);
+        digest.doFinal(hash, 0);
+        addTo(v, hash);
+        addTo(v, c);
+        byte[] counter = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            counter[i] = (byte) (reseedCounter >>> (56 - 8 * i));
+        }
+        addTo(v, counter);
+        Arrays.fill(hash, (byte) 0);
+        reseedCounter++;
+    }
+
+    /**
+     * Hash_df：输出seedlen位
+     */
+    private byte[] hashDf(byte[] input) {
+        byte[] result = new byte[SEED_LENGTH];
+        int bits = SEED_LENGTH * 8;
+        byte counter = 1;
+        for (int off = 0; off < SEED_LENGTH; off += hash.length) {
+            digest.update(counter++);
+            digest.update((byte) (bits >>> 24));
+            digest.update((byte) (bits >>> 16));
+            digest.update((byte) (bits >>> 8));
+            digest.update((byte) bits);
+            digest.update(input, 0, input.length);
+            digest.doFinal(hash, 0);
+            System.arraycopy(hash, 0, result, off, Math.min(hash.length, SEED_LENGTH - off));
+        }
+        Arrays.fill(hash, (byte) 0);
+        return result;
+    }
+
+    /**
+     * target = (target + addend) mod 2^(8*target.length)，均为大端序
+     */
+    private static void addTo(byte[] target, byte[] addend) {
+        int carry = 0;
+        for (int i = 1; i <= target.length; i++) {
+            int sum = (target[target.length - i] & 0xFF) + carry;
+            if (i <= addend.length) {
+                sum += addend[addend.length - i] & 0xFF;
+            }
+            target[target.length - i] = (byte) sum;
+            carry = sum >>> 8;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package cn.htaw.encryption.util;
+
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.modes.SICBlockCipher;
+import org.bouncycastle.crypto.paddings.PKCS7Padding;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.util.Arrays;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 可复用的SM4增量加解密上下文
+ * 支持 update/doFinal 写入调用方提供的数组区间或ByteBuffer（含直接缓冲区），避免每次调用分配输出数组。
+ * 密钥不变时重新init只更换IV，不重复创建加密器对象、不重复计算轮密钥（{@link SM4FastEngine} 同时保存加解密两套轮密钥，CBC切换方向时也无需重新计算）。
+ * 非线程安全，每个线程应使用各自的实例。
+ */
+public class SM4Context {
+    /**
+     * 加密模式：CBC（PKCS7填充）、CTR、GCM（16字节认证标签）
+     */
+    public enum Mode {
+        CBC, CTR, GCM
+    }
+
+    // 直接缓冲区中转使用的临时数组大小
+    private static final int SCRATCH_SIZE = 16 * 1024;
+
+    private final Mode mode;
+    // CBC/CTR使用
+    private final BufferedBlockCipher buffered;
+    // GCM使用
+    private final GCMBlockCipher aead;
+
+    private byte[] key;
+    // 加密器中已生效的密钥方向，null表示尚未设置密钥
+    private Boolean keyedForEncryption;
+    private boolean initialized;
+
+    private byte[] scratchIn;
+    private byte[] scratchOut;
+
+    public SM4Context(Mode mode) {
+        this.mode = mode;
+        switch (mode) {
+            case CBC:
+                buffered = new PaddedBufferedBlockCipher(new CBCBlockCipher(new SM4FastEngine()), new PKCS7Padding());
+                aead = null;
+                break;
+            case CTR:
+                buffered = new BufferedBlockCipher(new SICBlockCipher(new SM4FastEngine()));
+                aead = null;
+                break;
+            default:
+                buffered = null;
+                aead = new GCMBlockCipher(new SM4FastEngine());
+        }
+    }
+
+    public SM4Context(Mode mode, byte[] key) {
+        this(mode);
+        setKey(key);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * 设置密钥，与当前密钥相同时不做任何操作；轮密钥在下一次init时计算
+     */
+    public void setKey(byte[] key) {
+        if (key == null || key.length != SM4Util.KEY_SIZE) {
+            throw new IllegalArgumentException("SM4密钥必须为" + SM4Util.KEY_SIZE + "字节");
+        }
+        if (this.key != null && Arrays.constantTimeAreEqual(this.key, key)) {
+            return;
+        }
+        this.key = key.clone();
+        keyedForEncryption = null;
+        initialized = false;
+    }
+
+    /**
+     * 使用新的IV开始一次加/解密
+     * @param iv CBC/CTR为16字节，GCM为12字节nonce
+     */
+    public void init(boolean encrypt, byte[] iv) {
+        init(encrypt, iv, null);
+    }
+
+    /**
+     * 使用新的IV开始一次加/解密
+     * @param iv CBC/CTR为16字节，GCM为12字节nonce
+     * @param aad GCM附加认证数据（其他模式忽略）
+     */
+    public void init(boolean encrypt, byte[] iv, byte[] aad) {
+        if (key == null) {
+            throw new IllegalStateException("尚未设置SM4密钥");
+        }
+        int ivSize = mode == Mode.GCM ? SM4Util.GCM_NONCE_SIZE : SM4Util.IV_SIZE;
+        if (iv == null || iv.length != ivSize) {
+            throw new IllegalArgumentException("IV必须为" + ivSize + "字节");
+        }
+
+        // CTR/GCM底层始终使用加密方向的轮密钥，只有CBC切换方向时需要重新设置（密钥相同，引擎不会重新扩展）
+        boolean rekey = keyedForEncryption == null
+                || (mode == Mode.CBC && keyedForEncryption != encrypt);
+        KeyParameter keyParam = rekey ? new KeyParameter(key) : null;
+        if (mode == Mode.GCM) {
+            aead.init(encrypt, new AEADParameters(keyParam, SM4Util.GCM_TAG_SIZE * 8, iv, aad));
+        } else {
+            buffered.init(encrypt, new ParametersWithIV(keyParam, iv));
+        }
+        keyedForEncryption = encrypt;
+        initialized = true;
+    }
+
+    /**
+     * 恢复到最近一次init之后的状态（相同密钥和IV）
+     */
+    public void reset() {
+        checkInitialized();
+        if (mode == Mode.GCM) {
+            aead.reset();
+        } else {
+            buffered.reset();
+        }
+    }
+
+    /**
+     * 输入len字节后调用doFinal时可能输出的最大字节数
+     */
+    public int getOutputSize(int len) {
+        checkInitialized();
+        return mode == Mode.GCM ? aead.getOutputSize(len) : buffered.getOutputSize(len);
+    }
+
+    /**
+     * 输入len字节时update可能输出的最大字节数
+     */
+    public int getUpdateOutputSize(int len) {
+        checkInitialized();
+        return mode == Mode.GCM ? aead.getUpdateOutputSize(len) : buffered.getUpdateOutputSize(len);
+    }
+
+    /**
+     * 处理一段数据，结果写入out[outOff...]
+     * @return 写入out的字节数
+     */
+    public int update(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        checkInitialized();
+        if (len == 0) {
+            return 0;
+        }
+        return mode == Mode.GCM
+                ? aead.processBytes(in, inOff, len, out, outOff)
+                : buffered.processBytes(in, inOff, len, out, outOff);
+    }
+
+    /**
+     * 处理in中剩余的全部数据，结果写入out，两者的position随之前移
+     * @return 写入out的字节数
+     */
+    public int update(ByteBuffer in, ByteBuffer out) {
+        checkInitialized();
+        int len = in.remaining();
+        checkCapacity(out, getUpdateOutputSize(len));
+        if (in.hasArray() && out.hasArray()) {
+            int n = update(in.array(), in.arrayOffset() + in.position(), len,
+                    out.array(), out.arrayOffset() + out.position());
+            in.position(in.limit());
+            out.position(out.position() + n);
+            return n;
+        }
+
+        // 直接缓冲区或只读缓冲区：经临时数组分批中转
+        ensureScratch();
+        int total = 0;
+        while (in.hasRemaining()) {
+            int chunk = Math.min(in.remaining(), SCRATCH_SIZE);
+            byte[] src;
+            int srcOff;
+            if (in.hasArray()) {
+                src = in.array();
+                srcOff = in.arrayOffset() + in.position();
+                in.position(in.position() + chunk);
+            } else {
+                in.get(scratchIn, 0, chunk);
+                src = scratchIn;
+                srcOff = 0;
+            }
+            int n;
+            if (out.hasArray()) {
+                n = update(src, srcOff, chunk, out.array(), out.arrayOffset() + out.position());
+                out.position(out.position() + n);
+            } else {
+                n = update(src, srcOff, chunk, scratchOut, 0);
+                out.put(scratchOut, 0, n);
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * 结束本次加/解密，输出剩余数据（CBC填充块、GCM认证标签等）
+     * 结束后可直接再次init，或调用reset以相同IV重新开始
+     * @return 写入out的字节数
+     */
+    public int doFinal(byte[] out, int outOff) throws SM4Util.SM4Exception {
+        checkInitialized();
+        try {
+            return mode == Mode.GCM ? aead.doFinal(out, outOff) : buffered.doFinal(out, outOff);
+        } catch (Exception e) {
+            throw new SM4Util.SM4Exception("SM4" + mode + "处理失败（可能密钥/IV不匹配或数据损坏）", e);
+        }
+    }
+
+    /**
+     * 处理最后一段数据并结束本次加/解密
+     * @return 写入out的字节总数
+     */
+    public int doFinal(byte[] in, int inOff, int len, byte[] out, int outOff) throws SM4Util.SM4Exception {
+        int length;
+        try {
+            length = update(in, inOff, len, out, outOff);
+        } catch (RuntimeException e) {
+            throw new SM4Util.SM4Exception("SM4" + mode + "处理失败", e);
+        }
+        return length + doFinal(out, outOff + length);
+    }
+
+    /**
+     * 结束本次加/解密，剩余数据写入out
+     * @return 写入out的字节数
+     */
+    public int doFinal(ByteBuffer out) throws SM4Util.SM4Exception {
+        checkCapacity(out, getOutputSize(0));
+        if (out.hasArray()) {
+            int n = doFinal(out.array(), out.arrayOffset() + out.position());
+            out.position(out.position() + n);
+            return n;
+        }
+        ensureScratch();
+        int n = doFinal(scratchOut, 0);
+        out.put(scratchOut, 0, n);
+        return n;
+    }
+
+    /**
+     * 处理in中剩余的全部数据并结束本次加/解密
+     * @return 写入out的字节总数
+     */
+    public int doFinal(ByteBuffer in, ByteBuffer out) throws SM4Util.SM4Exception {
+        checkCapacity(out, getOutputSize(in.remaining()));
+        int length;
+        try {
+            length = update(in, out);
+        } catch (RuntimeException e) {
+            throw new SM4Util.SM4Exception("SM4" + mode + "处理失败", e);
+        }
+        return length + doFinal(out);
+    }
+
+    private void checkInitialized() {
+        if (!initialized) {
+            throw new IllegalStateException("SM4上下文尚未初始化，请先调用init");
+        }
+    }
+
+    private static void checkCapacity(ByteBuffer out, int needed) {
+        if (out.remaining() < needed) {
+            throw new IllegalArgumentException("输出缓冲区空间不足，至少需要" + needed + "字节");
+        }
+    }
+
+    private void ensureScratch() {
+        if (scratchIn == null) {
+            scratchIn = new byte[SCRATCH_SIZE];
+            // 预留一个分组的缓冲数据和GCM认证标签
+            scratchOut = new byte[SCRATCH_SIZE + 2 * SM4Util.IV_SIZE];
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package cn.htaw.encryption.util;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.OutputLengthException;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+
+/**
+ * 查表实现的SM4分组密码，可替代BouncyCastle的 {@code SM4Engine}（同样实现 {@link BlockCipher}，可直接用于CBC/CTR/GCM等模式）
+ * <ul>
+ * <li>S盒与线性变换L合并为4张256项的int表（共4KB），每轮只需4次查表和异或，无需逐字节替换和循环移位</li>
+ * <li>加密、解密两套int轮密钥在init时一并计算，以同一密钥重新init（包括切换加/解密方向）时不重复计算</li>
+ * <li>{@link #processBlocks}、{@link #encryptCBC}、{@link #decryptCBC} 一次处理多个分组，中间状态只在局部int变量中，不分配对象</li>
+ * </ul>
+ * init之后各处理方法只读取轮密钥，可被多个线程同时使用；init本身非线程安全，多线程共用时CTR/GCM等模式应包装 {@link #encryptor()}。
+ * 类加载时用GM/T 0002-2012附录A的示例校验实现，结果不符时无法使用。
+ */
+public final class SM4FastEngine implements BlockCipher {
+    public static final int BLOCK_SIZE = 16;
+
+    private static final byte[] SBOX = Hex.decode(
+            "d690e9fecce13db716b614c228fb2c052b679a762abe04c3aa44132649860699"
+                    + "9c4250f491ef987a33540b43edcfac62e4b31ca9c908e89580df94fa758f3fa6"
+                    + "4707a7fcf37317ba83593c19e6854fa8686b81b27164da8bf8eb0f4b70569d35"
+                    + "1e240e5e6358d1a225227c3b01217887d40046579fd327524c3602e7a0c4c89e"
+                    + "eabf8ad240c738b5a3f7f2cef96115a1e0ae5da49b341a55ad933230f58cb1e3"
+                    + "1df6e22e8266ca60c02923ab0d534e6fd5db3745defd8e2f03ff6a726d6c5b51"
+                    + "8d1baf92bbddbc7f11d95c411f105ad80ac13188a5cd7bbd2d74d012b8e5b4b0"
+                    + "8969974a0c96777e65b9f109c56ec68418f07dec3adc4d2079ee5f3ed7cb3948");
+
+    // 系统参数FK
+    private static final int[] FK = {0xa3b1bac6, 0x56aa3350, 0x677d9197, 0xb27022dc};
+    // 固定参数CK：第i个字的第j字节为 (4i+j)*7 mod 256
+    private static final int[] CK = new int[32];
+
+    // 轮函数查表：T0[x] = L(S(x) << 24)，T1~T3依次循环右移8位，T(a) = T0[a0] ^ T1[a1] ^ T2[a2] ^ T3[a3]
+    private static final int[] T0 = new int[256];
+    private static final int[] T1 = new int[256];
+    private static final int[] T2 = new int[256];
+    private static final int[] T3 = new int[256];
+
+    static {
+        for (int i = 0; i < CK.length; i++) {
+            int ck = 0;
+            for (int j = 0; j < 4; j++) {
+                ck = (ck << 8) | (((4 * i + j) * 7) & 0xFF);
+            }
+            CK[i] = ck;
+        }
+        for (int x = 0; x < 256; x++) {
+            int b = (SBOX[x] & 0xFF) << 24;
+            int t = b ^ Integer.rotateLeft(b, 2) ^ Integer.rotateLeft(b, 10)
+                    ^ Integer.rotateLeft(b, 18) ^ Integer.rotateLeft(b, 24);
+            T0[x] = t;
+            T1[x] = Integer.rotateRight(t, 8);
+            T2[x] = Integer.rotateRight(t, 16);
+            T3[x] = Integer.rotateRight(t, 24);
+        }
+        selfTest();
+    }
+
+    private final int[] encryptKeys = new int[32];
+    private final int[] decryptKeys = new int[32];
+    private byte[] key;
+    private boolean forEncryption;
+
+    public SM4FastEngine() {
+    }
+
+    /**
+     * 创建并以加密方向初始化
+     */
+    public SM4FastEngine(byte[] key) {
+        init(true, new KeyParameter(key));
+    }
+
+    /**
+     * 用GM/T 0002-2012附录A示例1校验加密和解密
+     */
+    private static void selfTest() {
+        byte[] key = Hex.decode("0123456789abcdeffedcba9876543210");
+        byte[] expected = Hex.decode("681edf34d206965e86b3e94f536e4246");
+        SM4FastEngine engine = new SM4FastEngine(key);
+        byte[] block = new byte[BLOCK_SIZE];
+        engine.processBlock(key, 0, block, 0);
+        boolean valid = Arrays.areEqual(expected, block);
+        engine.init(false, new KeyParameter(key));
+        engine.processBlock(block, 0, block, 0);
+        if (!valid || !Arrays.areEqual(key, block)) {
+            throw new IllegalStateException("SM4查表实现自检失败");
+        }
+    }
+
+    @Override
+    public void init(boolean forEncryption, CipherParameters params) throws IllegalArgumentException {
+        if (!(params instanceof KeyParameter)) {
+            throw new IllegalArgumentException("SM4初始化参数无效: " + (params == null ? null : params.getClass().getName()));
+        }
+        byte[] newKey = ((KeyParameter) params).getKey();
+        if (newKey.length != SM4Util.KEY_SIZE) {
+            throw new IllegalArgumentException("SM4密钥必须为" + SM4Util.KEY_SIZE + "字节");
+        }
+        if (key == null || !Arrays.constantTimeAreEqual(key, newKey)) {
+            expandKey(newKey);
+            key = newKey.clone();
+        }
+        this.forEncryption = forEncryption;
+    }
+
+    private void expandKey(byte[] key) {
+        int k0 = getInt(key, 0) ^ FK[0];
+        int k1 = getInt(key, 4) ^ FK[1];
+        int k2 = getInt(key, 8) ^ FK[2];
+        int k3 = getInt(key, 12) ^ FK[3];
+        for (int i = 0; i < 32; i++) {
+            int rk = k0 ^ keyTransform(k1 ^ k2 ^ k3 ^ CK[i]);
+            encryptKeys[i] = rk;
+            decryptKeys[31 - i] = rk;
+            k0 = k1;
+            k1 = k2;
+            k2 = k3;
+            k3 = rk;
+        }
+    }
+
+    /**
+     * 密钥扩展的合成置换T'：非线性变换τ后接L'(B) = B ^ (B <<< 13) ^ (B <<< 23)
+     */
+    private static int keyTransform(int a) {
+        int b = (SBOX[a >>> 24] & 0xFF) << 24
+                | (SBOX[(a >>> 16) & 0xFF] & 0xFF) << 16
+                | (SBOX[(a >>> 8) & 0xFF] & 0xFF) << 8
+                | (SBOX[a & 0xFF] & 0xFF);
+        return b ^ Integer.rotateLeft(b, 13) ^ Integer.rotateLeft(b, 23);
+    }
+
+    @Override
+    public String getAlgorithmName() {
+        return "SM4";
+    }
+
+    @Override
+    public int getBlockSize() {
+        return BLOCK_SIZE;
+    }
+
+    @Override
+    public int processBlock(byte[] in, int inOff, byte[] out, int outOff)
+            throws DataLengthException, IllegalStateException {
+        processBlocks(in, inOff, 1, out, outOff);
+        return BLOCK_SIZE;
+    }
+
+    /**
+     * 按init的方向处理连续的blockCount个分组（ECB），输入输出可以是同一区间
+     * @return 处理的字节数
+     */
+    public int processBlocks(byte[] in, int inOff, int blockCount, byte[] out, int outOff)
+            throws DataLengthException, IllegalStateException {
+        int[] rk = roundKeys();
+        int len = blockCount * BLOCK_SIZE;
+        checkBounds(in, inOff, len, out, outOff);
+        for (int end = inOff + len; inOff < end; inOff += BLOCK_SIZE, outOff += BLOCK_SIZE) {
+            crypt(rk, getInt(in, inOff), getInt(in, inOff + 4), getInt(in, inOff + 8), getInt(in, inOff + 12),
+                    0, 0, 0, 0, out, outOff);
+        }
+        return len;
+    }
+
+    /**
+     * CBC加密（不填充，不受init方向影响），输入输出可以是同一区间
+     * @param iv 16字节IV，返回时更新为最后一个密文分组，可直接用于加密后续数据
+     * @param len 16的整数倍
+     */
+    public void encryptCBC(byte[] iv, byte[] in, int inOff, int len, byte[] out, int outOff) {
+        checkCBC(iv, len);
+        int[] rk = encryptKeys;
+        checkBounds(in, inOff, len, out, outOff);
+        int c0 = getInt(iv, 0);
+        int c1 = getInt(iv, 4);
+        int c2 = getInt(iv, 8);
+        int c3 = getInt(iv, 12);
+        for (int end = inOff + len; inOff < end; inOff += BLOCK_SIZE, outOff += BLOCK_SIZE) {
+            crypt(rk, c0 ^ getInt(in, inOff), c1 ^ getInt(in, inOff + 4), c2 ^ getInt(in, inOff + 8),
+                    c3 ^ getInt(in, inOff + 12), 0, 0, 0, 0, out, outOff);
+            c0 = getInt(out, outOff);
+            c1 = getInt(out, outOff + 4);
+            c2 = getInt(out, outOff + 8);
+            c3 = getInt(out, outOff + 12);
+        }
+        putInt(c0, iv, 0);
+        putInt(c1, iv, 4);
+        putInt(c2, iv, 8);
+        putInt(c3, iv, 12);
+    }
+
+    /**
+     * CBC解密（不去除填充，不受init方向影响），输入输出可以是同一区间
+     * @param iv 16字节IV，返回时更新为最后一个密文分组，可直接用于解密后续数据
+     * @param len 16的整数倍
+     */
+    public void decryptCBC(byte[] iv, byte[] in, int inOff, int len, byte[] out, int outOff) {
+        checkCBC(iv, len);
+        int[] rk = decryptKeys;
+        checkBounds(in, inOff, len, out, outOff);
+        int p0 = getInt(iv, 0);
+        int p1 = getInt(iv, 4);
+        int p2 = getInt(iv, 8);
+        int p3 = getInt(iv, 12);
+        for (int end = inOff + len; inOff < end; inOff += BLOCK_SIZE, outOff += BLOCK_SIZE) {
+            // 先取出密文分组，原地解密时输出会覆盖它
+            int c0 = getInt(in, inOff);
+            int c1 = getInt(in, inOff + 4);
+            int c2 = getInt(in, inOff + 8);
+            int c3 = getInt(in, inOff + 12);
+            crypt(rk, c0, c1, c2, c3, p0, p1, p2, p3, out, outOff);
+            p0 = c0;
+            p1 = c1;
+            p2 = c2;
+            p3 = c3;
+        }
+        putInt(p0, iv, 0);
+        putInt(p1, iv, 4);
+        putInt(p2, iv, 8);
+        putInt(p3, iv, 12);
+    }
+
+    @Override
+    public void reset() {
+        // 无跨分组状态
+    }
+
+    /**
+     * 按本引擎加密轮密钥工作的视图，供CTR、GCM等只用加密方向的模式包装：视图的init只检查密钥与本引擎一致，
+     * 不重新计算轮密钥、不修改本引擎，已初始化的引擎可由各线程、各分段新建的模式对象共用
+     */
+    BlockCipher encryptor() {
+        roundKeys();
+        return new Encryptor();
+    }
+
+    /**
+     * 本引擎的密钥参数，用于初始化包装 {@link #encryptor()} 的GCM
+     */
+    KeyParameter keyParameter() {
+        roundKeys();
+        return new KeyParameter(key);
+    }
+
+    private final class Encryptor implements BlockCipher {
+        @Override
+        public void init(boolean forEncryption, CipherParameters params) {
+            if (!forEncryption) {
+                throw new IllegalArgumentException("SM4加密视图只能用于加密方向");
+            }
+            if (params != null && !(params instanceof KeyParameter
+                    && Arrays.constantTimeAreEqual(key, ((KeyParameter) params).getKey()))) {
+                throw new IllegalArgumentException("SM4加密视图的密钥与引擎不一致");
+            }
+        }
+
+        @Override
+        public String getAlgorithmName() {
+            return "SM4";
+        }
+
+        @Override
+        public int getBlockSize() {
+            return BLOCK_SIZE;
+        }
+
+        @Override
+        public int processBlock(byte[] in, int inOff, byte[] out, int outOff) {
+            checkBounds(in, inOff, BLOCK_SIZE, out, outOff);
+            crypt(encryptKeys, getInt(in, inOff), getInt(in, inOff + 4), getInt(in, inOff + 8), getInt(in, inOff + 12),
+                    0, 0, 0, 0, out, outOff);
+            return BLOCK_SIZE;
+        }
+
+        @Override
+        public void reset() {
+            // 无跨分组状态
+        }
+    }
+
+    private int[] roundKeys() {
+        if (key == null) {
+            throw new IllegalStateException("SM4尚未初始化");
+        }
+        return forEncryption ? encryptKeys : decryptKeys;
+    }
+
+    private void checkCBC(byte[] iv, int len) {
+        if (key == null) {
+            throw new IllegalStateException("SM4尚未初始化");
+        }
+        if (iv == null || iv.length != BLOCK_SIZE) {
+            throw new IllegalArgumentException("IV必须为" + BLOCK_SIZE + "字节");
+        }
+        if (len % BLOCK_SIZE != 0) {
+            throw new DataLengthException("CBC数据长度必须是" + BLOCK_SIZE + "的整数倍");
+        }
+    }
+
+    private static void checkBounds(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        if (len < 0 || inOff < 0 || inOff > in.length - len) {
+            throw new DataLengthException("输入缓冲区长度不足");
+        }
+        if (outOff < 0 || outOff > out.length - len) {
+            throw new OutputLengthException("输出缓冲区长度不足");
+        }
+    }
+
+    /**
+     * 32轮迭代（每次循环4轮），反序输出前与m0~m3异或（CBC解密时为前一个密文分组，其他情况为0）
+     */
+    private static void crypt(int[] rk, int x0, int x1, int x2, int x3, int m0, int m1, int m2, int m3,
+                              byte[] out, int outOff) {
+        for (int r = 0; r < 32; r += 4) {
+            x0 ^= round(x1 ^ x2 ^ x3 ^ rk[r]);
+            x1 ^= round(x2 ^ x3 ^ x0 ^ rk[r + 1]);
+            x2 ^= round(x3 ^ x0 ^ x1 ^ rk[r + 2]);
+            x3 ^= round(x0 ^ x1 ^ x2 ^ rk[r + 3]);
+        }
+        putInt(x3 ^ m0, out, outOff);
+        putInt(x2 ^ m1, out, outOff + 4);
+        putInt(x1 ^ m2, out, outOff + 8);
+        putInt(x0 ^ m3, out, outOff + 12);
+    }
+
+    /**
+     * 轮函数的合成置换T = L(τ(a))
+     */
+    private static int round(int a) {
+        return T0[a >>> 24] ^ T1[(a >>> 16) & 0xFF] ^ T2[(a >>> 8) & 0xFF] ^ T3[a & 0xFF];
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return b[off] << 24 | (b[off + 1] & 0xFF) << 16 | (b[off + 2] & 0xFF) << 8 | (b[off + 3] & 0xFF);
+    }
+
+    private static void putInt(int v, byte[] b, int off) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+}
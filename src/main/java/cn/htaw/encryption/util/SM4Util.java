@@ -1,22 +1,20 @@
 package cn.htaw.encryption.util;
 
-import org.bouncycastle.crypto.CipherParameters;
-import org.bouncycastle.crypto.engines.SM4Engine;
-import org.bouncycastle.crypto.modes.CBCBlockCipher;
-import org.bouncycastle.crypto.paddings.PKCS7Padding;
-import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
-import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.modes.SICBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
-import java.security.SecureRandom;
 import java.security.Security;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * SM4对称加密工具类（基于国密标准GM/T 0002-2012）
- * 模式：CBC（需16字节IV）
- * 填充：PKCS7
+ * 模式：CBC（需16字节IV，PKCS7填充）、CTR（16字节初始计数器，无填充）、GCM（12字节nonce，带16字节认证标签）
+ * 需要增量处理或写入ByteBuffer时使用 {@link SM4Context}
  */
 public class SM4Util {
     static {
@@ -30,23 +28,29 @@ public class SM4Util {
     public static final int KEY_SIZE = 16;
     // CBC模式下IV长度固定为16字节
     public static final int IV_SIZE = 16;
+    // GCM模式推荐nonce长度为12字节
+    public static final int GCM_NONCE_SIZE = 12;
+    // GCM认证标签长度为16字节
+    public static final int GCM_TAG_SIZE = 16;
+    // CTR并行处理时每个任务负责的字节数（16的整数倍）
+    public static final int CTR_PARALLEL_BATCH = 64 * 1024;
+
+    // 每个线程复用一个CBC上下文，避免每次调用重新创建加密器和计算轮密钥
+    private static final ThreadLocal<SM4Context> CBC_CONTEXT =
+            ThreadLocal.withInitial(() -> new SM4Context(SM4Context.Mode.CBC));
 
     /**
-     * 生成随机SM4密钥（16字节）
+     * 生成随机SM4密钥（16字节），随机数来源见 {@link SecureRandomProvider}
      */
     public static byte[] generateKey() {
-        byte[] key = new byte[KEY_SIZE];
-        new SecureRandom().nextBytes(key);
-        return key;
+        return SecureRandomProvider.nextBytes(KEY_SIZE);
     }
 
     /**
      * 生成随机IV向量（16字节，用于CBC模式）
      */
     public static byte[] generateIV() {
-        byte[] iv = new byte[IV_SIZE];
-        new SecureRandom().nextBytes(iv);
-        return iv;
+        return SecureRandomProvider.nextBytes(IV_SIZE);
     }
 
     /**
@@ -58,30 +62,30 @@ public class SM4Util {
      */
     public static byte[] encrypt(byte[] key, byte[] iv, byte[] data) throws SM4Exception {
         // 校验输入参数
-        if (key == null || key.length != KEY_SIZE) {
-            throw new IllegalArgumentException("SM4密钥必须为" + KEY_SIZE + "字节");
-        }
-        if (iv == null || iv.length != IV_SIZE) {
-            throw new IllegalArgumentException("IV必须为" + IV_SIZE + "字节");
-        }
+        checkKeyAndIV(key, iv);
         if (data == null) {
             return new byte[0];
         }
 
-        try {
-            // 初始化加密器
-            SM4Engine engine = new SM4Engine();
-            CBCBlockCipher cbcBlockCipher = new CBCBlockCipher(engine);
-            PaddedBufferedBlockCipher cipher = new PaddedBufferedBlockCipher(cbcBlockCipher, new PKCS7Padding());
-            CipherParameters params = new ParametersWithIV(new KeyParameter(key), iv);
-            cipher.init(true, params);
-
-            // 执行加密
-            byte[] output = new byte[cipher.getOutputSize(data.length)];
-            int length = cipher.processBytes(data, 0, data.length, output, 0);
-            length += cipher.doFinal(output, length);
+        // 加密输出长度固定为 (len/16+1)*16，直接分配精确大小，无需再次复制
+        byte[] output = new byte[(data.length / IV_SIZE + 1) * IV_SIZE];
+        encrypt(key, iv, data, 0, data.length, output, 0);
+        return output;
+    }
 
-            return Arrays.copyOf(output, length);
+    /**
+     * SM4加密（CBC模式 + PKCS7填充），结果写入调用方提供的数组
+     * @param out 输出数组，从outOff起至少需要 (len/16+1)*16 字节
+     * @return 写入out的字节数
+     */
+    public static int encrypt(byte[] key, byte[] iv, byte[] in, int inOff, int len, byte[] out, int outOff) throws SM4Exception {
+        checkKeyAndIV(key, iv);
+        try {
+            // 复用当前线程的加密器，密钥不变时不重复计算轮密钥
+            SM4Context context = CBC_CONTEXT.get();
+            context.setKey(key);
+            context.init(true, iv);
+            return context.doFinal(in, inOff, len, out, outOff);
         } catch (Exception e) {
             throw new SM4Exception("SM4加密失败", e);
         }
@@ -96,32 +100,231 @@ public class SM4Util {
      */
     public static byte[] decrypt(byte[] key, byte[] iv, byte[] encryptedData) throws SM4Exception {
         // 校验输入参数
-        if (key == null || key.length != KEY_SIZE) {
-            throw new IllegalArgumentException("SM4密钥必须为" + KEY_SIZE + "字节");
+        checkKeyAndIV(key, iv);
+        if (encryptedData == null || encryptedData.length == 0) {
+            return new byte[0];
+        }
+
+        byte[] output = new byte[encryptedData.length];
+        int length = decrypt(key, iv, encryptedData, 0, encryptedData.length, output, 0);
+        return Arrays.copyOf(output, length);
+    }
+
+    /**
+     * SM4解密（CBC模式 + PKCS7填充），结果写入调用方提供的数组
+     * @param out 输出数组，从outOff起至少需要len字节
+     * @return 写入out的明文字节数
+     */
+    public static int decrypt(byte[] key, byte[] iv, byte[] in, int inOff, int len, byte[] out, int outOff) throws SM4Exception {
+        checkKeyAndIV(key, iv);
+        try {
+            SM4Context context = CBC_CONTEXT.get();
+            context.setKey(key);
+            context.init(false, iv);
+            return context.doFinal(in, inOff, len, out, outOff);
+        } catch (Exception e) {
+            throw new SM4Exception("SM4解密失败（可能密钥/IV不匹配或数据损坏）", e);
+        }
+    }
+
+    /**
+     * SM4-CTR加密（加解密运算相同，密文与明文等长）
+     * @param key 16字节密钥
+     * @param iv 16字节初始计数器
+     * @param data 待加密数据
+     * @return 加密后的数据
+     */
+    public static byte[] encryptCTR(byte[] key, byte[] iv, byte[] data) {
+        if (data == null) {
+            return new byte[0];
         }
+        byte[] output = new byte[data.length];
+        processCTR(key, iv, 0, data, 0, data.length, output, 0);
+        return output;
+    }
+
+    /**
+     * SM4-CTR解密
+     * @param key 16字节密钥
+     * @param iv 16字节初始计数器（需与加密时一致）
+     * @param encryptedData 加密后的数据
+     * @return 解密后的原始数据
+     */
+    public static byte[] decryptCTR(byte[] key, byte[] iv, byte[] encryptedData) {
+        return encryptCTR(key, iv, encryptedData);
+    }
+
+    /**
+     * SM4-CTR处理任意位置的一段数据：密钥流从第position字节开始，可用于随机访问和并行处理
+     * @param position 数据在整个CTR流中的字节偏移
+     */
+    public static void processCTR(byte[] key, byte[] iv, long position,
+                                  byte[] in, int inOff, int len, byte[] out, int outOff) {
+        checkKeyAndIV(key, iv);
+        processCTR(new SM4FastEngine(key), iv, position, in, inOff, len, out, outOff);
+    }
+
+    /**
+     * 同 {@link #processCTR(byte[], byte[], long, byte[], int, int, byte[], int)}，使用已按文件密钥初始化的引擎，
+     * 不重复计算轮密钥；引擎只被读取，可在多个线程间共用
+     */
+    static void processCTR(SM4FastEngine engine, byte[] iv, long position,
+                           byte[] in, int inOff, int len, byte[] out, int outOff) {
         if (iv == null || iv.length != IV_SIZE) {
             throw new IllegalArgumentException("IV必须为" + IV_SIZE + "字节");
         }
-        if (encryptedData == null || encryptedData.length == 0) {
+        // 起始计数器 = IV + position/16（128位大端加法）；不使用SICBlockCipher.seekTo跨分组定位，
+        // 其计数器进位按有符号字节比较，计数器低字节越过0x80时会多进一位，与顺序加密的密钥流不一致
+        byte[] counter = iv.clone();
+        long blocks = position / IV_SIZE;
+        int carry = 0;
+        for (int i = IV_SIZE - 1; i >= 0; i--) {
+            int sum = (counter[i] & 0xFF) + (int) (blocks & 0xFF) + carry;
+            counter[i] = (byte) sum;
+            carry = sum >>> 8;
+            blocks >>>= 8;
+        }
+        SICBlockCipher cipher = new SICBlockCipher(engine.encryptor());
+        // 密钥为null：SICBlockCipher不再初始化底层引擎，只设置计数器
+        cipher.init(true, new ParametersWithIV(null, counter));
+        int skip = (int) (position % IV_SIZE);
+        if (skip != 0) {
+            // 分组内定位不涉及计数器进位
+            cipher.seekTo(skip);
+        }
+        cipher.processBytes(in, inOff, len, out, outOff);
+    }
+
+    /**
+     * SM4-CTR并行加解密：数据按 {@link #CTR_PARALLEL_BATCH} 分批，各批密钥流在线程池中独立计算
+     * @param pool 线程池，为null时使用公共线程池
+     */
+    public static byte[] processCTRParallel(byte[] key, byte[] iv, byte[] data, ForkJoinPool pool) {
+        checkKeyAndIV(key, iv);
+        if (data == null) {
             return new byte[0];
         }
+        byte[] output = new byte[data.length];
+        if (pool == null) {
+            pool = ForkJoinPool.commonPool();
+        }
+        pool.invoke(new CTRTask(new SM4FastEngine(key), iv, data, output, 0, data.length));
+        return output;
+    }
+
+    /**
+     * 按批次二分拆分的CTR任务，批次边界对齐16字节
+     */
+    private static final class CTRTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // 各批次共用，只计算一次轮密钥（任务不会被序列化）
+        private final transient SM4FastEngine engine;
+        private final byte[] iv;
+        private final byte[] in;
+        private final byte[] out;
+        private final int from;
+        private final int to;
+
+        CTRTask(SM4FastEngine engine, byte[] iv, byte[] in, byte[] out, int from, int to) {
+            this.engine = engine;
+            this.iv = iv;
+            this.in = in;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CTR_PARALLEL_BATCH) {
+                processCTR(engine, iv, from, in, from, to - from, out, from);
+                return;
+            }
+            int batches = (to - from + CTR_PARALLEL_BATCH - 1) / CTR_PARALLEL_BATCH;
+            int mid = from + (batches / 2) * CTR_PARALLEL_BATCH;
+            invokeAll(new CTRTask(engine, iv, in, out, from, mid), new CTRTask(engine, iv, in, out, mid, to));
+        }
+    }
 
+    /**
+     * SM4-GCM认证加密
+     * @param key 16字节密钥
+     * @param nonce 12字节nonce（同一密钥下不可重复）
+     * @param aad 附加认证数据（可为null）
+     * @param data 待加密数据
+     * @return 密文 + 16字节认证标签
+     */
+    public static byte[] encryptGCM(byte[] key, byte[] nonce, byte[] aad, byte[] data) throws SM4Exception {
+        if (data == null) {
+            data = new byte[0];
+        }
         try {
-            // 初始化解密器
-            SM4Engine engine = new SM4Engine();
-            CBCBlockCipher cbcBlockCipher = new CBCBlockCipher(engine);
-            PaddedBufferedBlockCipher cipher = new PaddedBufferedBlockCipher(cbcBlockCipher, new PKCS7Padding());
-            CipherParameters params = new ParametersWithIV(new KeyParameter(key), iv);
-            cipher.init(false, params);
-
-            // 执行解密
+            GCMBlockCipher cipher = getGCMCipher(key, nonce, aad, true);
+            byte[] output = new byte[cipher.getOutputSize(data.length)];
+            int length = cipher.processBytes(data, 0, data.length, output, 0);
+            cipher.doFinal(output, length);
+            return output;
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SM4Exception("SM4-GCM加密失败", e);
+        }
+    }
+
+    /**
+     * SM4-GCM认证解密
+     * @param key 16字节密钥
+     * @param nonce 12字节nonce（需与加密时一致）
+     * @param aad 附加认证数据（需与加密时一致，可为null）
+     * @param encryptedData 密文 + 16字节认证标签
+     * @return 解密后的原始数据
+     */
+    public static byte[] decryptGCM(byte[] key, byte[] nonce, byte[] aad, byte[] encryptedData) throws SM4Exception {
+        if (encryptedData == null || encryptedData.length < GCM_TAG_SIZE) {
+            throw new SM4Exception("SM4-GCM密文长度不足", null);
+        }
+        try {
+            GCMBlockCipher cipher = getGCMCipher(key, nonce, aad, false);
             byte[] output = new byte[cipher.getOutputSize(encryptedData.length)];
             int length = cipher.processBytes(encryptedData, 0, encryptedData.length, output, 0);
-            length += cipher.doFinal(output, length);
-
-            return Arrays.copyOf(output, length);
+            cipher.doFinal(output, length);
+            return output;
+        } catch (IllegalArgumentException e) {
+            throw e;
         } catch (Exception e) {
-            throw new SM4Exception("SM4解密失败（可能密钥/IV不匹配或数据损坏）", e);
+            throw new SM4Exception("SM4-GCM认证失败（可能密钥/nonce不匹配或数据被篡改）", e);
+        }
+    }
+
+    /**
+     * 创建并初始化SM4-GCM加解密器
+     */
+    static GCMBlockCipher getGCMCipher(byte[] key, byte[] nonce, byte[] aad, boolean isEncrypt) {
+        if (key == null || key.length != KEY_SIZE) {
+            throw new IllegalArgumentException("SM4密钥必须为" + KEY_SIZE + "字节");
+        }
+        return getGCMCipher(new SM4FastEngine(key), nonce, aad, isEncrypt);
+    }
+
+    /**
+     * 用已按文件密钥初始化的引擎创建SM4-GCM加解密器，不重复计算轮密钥；引擎只被读取，可在多个线程间共用
+     */
+    static GCMBlockCipher getGCMCipher(SM4FastEngine engine, byte[] nonce, byte[] aad, boolean isEncrypt) {
+        if (nonce == null || nonce.length != GCM_NONCE_SIZE) {
+            throw new IllegalArgumentException("GCM nonce必须为" + GCM_NONCE_SIZE + "字节");
+        }
+        GCMBlockCipher cipher = new GCMBlockCipher(engine.encryptor());
+        cipher.init(isEncrypt, new AEADParameters(engine.keyParameter(), GCM_TAG_SIZE * 8, nonce, aad));
+        return cipher;
+    }
+
+    private static void checkKeyAndIV(byte[] key, byte[] iv) {
+        if (key == null || key.length != KEY_SIZE) {
+            throw new IllegalArgumentException("SM4密钥必须为" + KEY_SIZE + "字节");
+        }
+        if (iv == null || iv.length != IV_SIZE) {
+            throw new IllegalArgumentException("IV必须为" + IV_SIZE + "字节");
         }
     }
 
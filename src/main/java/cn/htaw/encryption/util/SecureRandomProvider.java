@@ -0,0 +1,196 @@
+package cn.htaw.encryption.util;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.prng.SP800SecureRandomBuilder;
+import org.bouncycastle.util.Pack;
+
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 随机数来源（SM4密钥、IV、SM2密钥对和SM2加密临时密钥共用）
+ * 每个线程持有各自的SecureRandom实例，避免并发时争用同一熵源或同一把锁；
+ * 密钥和IV从每个线程的随机数缓冲池中取出，缓冲池耗尽时一次性批量生成，已取出的字节立即清零。
+ * 算法和缓冲池大小可在运行时修改，各线程在下一次取随机数时使用新配置。
+ */
+public final class SecureRandomProvider {
+    /**
+     * 随机数生成算法
+     * <ul>
+     * <li>SYSTEM：平台默认SecureRandom</li>
+     * <li>NON_BLOCKING：NativePRNGNonBlocking（/dev/urandom），平台不支持时退回SYSTEM</li>
+     * <li>HASH_DRBG_SM3：SP 800-90A Hash_DRBG（SM3，见 {@link SM3HashDRBG}），由SYSTEM提供种子</li>
+     * <li>HASH_DRBG_SHA256：BouncyCastle的SP 800-90A Hash_DRBG（SHA-256），由SYSTEM提供种子</li>
+     * </ul>
+     */
+    public enum Algorithm {
+        SYSTEM, NON_BLOCKING, HASH_DRBG_SM3, HASH_DRBG_SHA256
+    }
+
+    /**
+     * 自定义随机数实例工厂，每个线程调用一次
+     */
+    public interface Factory {
+        SecureRandom create() throws GeneralSecurityException;
+    }
+
+    // 默认缓冲池大小：4KB（256个SM4密钥/IV）
+    public static final int DEFAULT_RESERVOIR_SIZE = 4096;
+
+    private static final AtomicLong NONCE_COUNTER = new AtomicLong();
+
+    private static volatile Factory factory = factoryFor(Algorithm.SYSTEM);
+    private static volatile int reservoirSize = DEFAULT_RESERVOIR_SIZE;
+    // 配置版本号，配置变化后各线程重新创建实例
+    private static volatile int generation;
+
+    private static final ThreadLocal<State> STATE = new ThreadLocal<>();
+
+    private SecureRandomProvider() {
+    }
+
+    /**
+     * 每个线程的随机数实例和缓冲池
+     */
+    private static final class State {
+        final int generation;
+        final SecureRandom random;
+        final byte[] reservoir;
+        // 缓冲池中下一个可用字节的位置，等于长度表示已耗尽
+        int position;
+
+        State(int generation, SecureRandom random, int reservoirSize) {
+            this.generation = generation;
+            this.random = random;
+            this.reservoir = new byte[reservoirSize];
+            this.position = reservoirSize;
+        }
+    }
+
+    /**
+     * 选择内置算法
+     */
+    public static void setAlgorithm(Algorithm algorithm) {
+        if (algorithm == null) {
+            throw new IllegalArgumentException("随机数算法不能为空");
+        }
+        setFactory(factoryFor(algorithm));
+    }
+
+    /**
+     * 使用自定义随机数实例工厂
+     */
+    public static synchronized void setFactory(Factory newFactory) {
+        if (newFactory == null) {
+            throw new IllegalArgumentException("随机数工厂不能为空");
+        }
+        factory = newFactory;
+        generation++;
+    }
+
+    /**
+     * 设置每个线程的缓冲池大小，0表示不缓冲（每次直接调用SecureRandom）
+     */
+    public static synchronized void setReservoirSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("缓冲池大小不能为负数");
+        }
+        reservoirSize = size;
+        generation++;
+    }
+
+    public static int getReservoirSize() {
+        return reservoirSize;
+    }
+
+    /**
+     * 当前线程的SecureRandom实例（不经过缓冲池），可传给BouncyCastle的密钥生成器和SM2加密器
+     */
+    public static SecureRandom current() {
+        return state().random;
+    }
+
+    /**
+     * 用随机字节填满out，优先从当前线程的缓冲池中取
+     */
+    public static void nextBytes(byte[] out) {
+        State state = state();
+        byte[] reservoir = state.reservoir;
+        if (out.length > reservoir.length) {
+            state.random.nextBytes(out);
+            return;
+        }
+        if (reservoir.length - state.position < out.length) {
+            long start = CryptoMetrics.start();
+            state.random.nextBytes(reservoir);
+            CryptoMetrics.stop(CryptoMetrics.Operation.RANDOM_REFILL, start, reservoir.length);
+            state.position = 0;
+        }
+        System.arraycopy(reservoir, state.position, out, 0, out.length);
+        // 已取出的随机字节不在缓冲池中保留
+        Arrays.fill(reservoir, state.position, state.position + out.length, (byte) 0);
+        state.position += out.length;
+    }
+
+    /**
+     * 生成len个随机字节
+     */
+    public static byte[] nextBytes(int len) {
+        byte[] bytes = new byte[len];
+        nextBytes(bytes);
+        return bytes;
+    }
+
+    private static State state() {
+        State state = STATE.get();
+        int current = generation;
+        if (state == null || state.generation != current) {
+            SecureRandom random;
+            try {
+                random = factory.create();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("无法创建随机数生成器", e);
+            }
+            if (state != null) {
+                Arrays.fill(state.reservoir, (byte) 0);
+            }
+            state = new State(current, random, reservoirSize);
+            STATE.set(state);
+        }
+        return state;
+    }
+
+    private static Factory factoryFor(Algorithm algorithm) {
+        switch (algorithm) {
+            case NON_BLOCKING:
+                return () -> {
+                    try {
+                        return SecureRandom.getInstance("NativePRNGNonBlocking");
+                    } catch (NoSuchAlgorithmException e) {
+                        return new SecureRandom();
+                    }
+                };
+            case HASH_DRBG_SM3:
+                return () -> new SM3HashDRBG(new SecureRandom(), drbgNonce(), null);
+            case HASH_DRBG_SHA256:
+                return () -> new SP800SecureRandomBuilder(new SecureRandom(), false)
+                        .buildHash(new SHA256Digest(), drbgNonce(), false);
+            default:
+                return SecureRandom::new;
+        }
+    }
+
+    /**
+     * DRBG实例化使用的nonce：时间 + 线程号 + 进程内计数，保证各实例互不相同
+     */
+    private static byte[] drbgNonce() {
+        byte[] nonce = new byte[24];
+        Pack.longToBigEndian(System.nanoTime(), nonce, 0);
+        Pack.longToBigEndian(Thread.currentThread().getId(), nonce, 8);
+        Pack.longToBigEndian(NONCE_COUNTER.incrementAndGet(), nonce, 16);
+        return nonce;
+    }
+}
@@ -0,0 +1,353 @@
+package cn.htaw.encryption.util;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 分段SM4加解密器（v2格式）
+ * 明文按固定大小分段，各段之间没有依赖，可并行处理：
+ * <ul>
+ * <li>CBC：第i段的IV = SM4_K(nonce ⊕ i)，非最后一段不填充（分段大小为16的整数倍），最后一段使用PKCS7填充</li>
+ * <li>CTR：整个文件是一条CTR流，初始计数器为nonce，第i段从 i*分段大小 处开始，密文与明文等长</li>
+ * <li>GCM：第i段的nonce = nonce前12字节 ⊕ i，附加认证数据为 段序号+是否最后一段，每段密文后附16字节认证标签</li>
+ * </ul>
+ * v3格式在CBC/CTR密文之后再附32字节HMAC-SM3认证标签（见 {@link SegmentMac}），解密前先校验标签。
+ * 实例不可变，可被多个线程同时使用。
+ */
+public class SegmentCipher {
+    // 默认分段大小：1MB
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    // 分段大小上限：64MB
+    public static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+    // 单段在文件中相对明文的最大膨胀字节数（含v3认证标签）
+    public static final int MAX_OVERHEAD = 16 + SegmentMac.TAG_SIZE;
+
+    private static final int BLOCK_SIZE = 16;
+
+    private final int mode;
+    private final byte[] key;
+    private final byte[] nonce;
+    private final int segmentSize;
+    // v3分段认证标签，v2为null
+    private final SegmentMac mac;
+    // 以文件密钥初始化一次，轮密钥在各分段、各线程间共享（分段IV、CBC中间段、CTR和GCM）
+    private final SM4FastEngine engine;
+
+    public SegmentCipher(int mode, byte[] key, byte[] nonce, int segmentSize) {
+        this(mode, key, nonce, segmentSize, null);
+    }
+
+    SegmentCipher(int mode, byte[] key, byte[] nonce, int segmentSize, SegmentMac mac) {
+        checkMode(mode);
+        if (key == null || key.length != SM4Util.KEY_SIZE) {
+            throw new IllegalArgumentException("SM4密钥必须是16字节");
+        }
+        if (nonce == null || nonce.length != SM4Util.IV_SIZE) {
+            throw new IllegalArgumentException("nonce必须是16字节");
+        }
+        checkSegmentSize(segmentSize);
+        this.mode = mode;
+        this.key = key.clone();
+        this.nonce = nonce.clone();
+        this.segmentSize = segmentSize;
+        this.mac = mac;
+        this.engine = new SM4FastEngine(key);
+    }
+
+    /**
+     * 按头部信息创建分段加解密器（v2/v3）
+     * @param key 从头部解出的文件密钥
+     */
+    public static SegmentCipher forHeader(FileHeader header, byte[] key) {
+        SegmentMac mac = header.isAuthenticated() ? new SegmentMac(key, header.authenticatedBytes()) : null;
+        return new SegmentCipher(header.getMode(), key, header.getIV(), header.getSegmentSize(), mac);
+    }
+
+    /**
+     * 校验分段大小：必须为16的整数倍且不超过上限
+     */
+    static void checkSegmentSize(int segmentSize) {
+        if (segmentSize < BLOCK_SIZE || segmentSize > MAX_SEGMENT_SIZE || segmentSize % BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException("分段大小必须是16的整数倍，且在16字节到" + MAX_SEGMENT_SIZE + "字节之间: " + segmentSize);
+        }
+    }
+
+    /**
+     * 校验分段加密模式
+     */
+    static void checkMode(int mode) {
+        if (mode != FileHeader.MODE_CBC && mode != FileHeader.MODE_CTR && mode != FileHeader.MODE_GCM) {
+            throw new IllegalArgumentException("不支持的加密模式: " + mode);
+        }
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * 是否附带分段认证标签（v3）
+     */
+    public boolean isAuthenticated() {
+        return mac != null;
+    }
+
+    /**
+     * 指定分段加密后的长度（v3含认证标签）
+     */
+    public int encryptedLength(int plainLength, boolean last) {
+        int length = encryptedLength(mode, plainLength, last);
+        return mac != null ? length + SegmentMac.TAG_SIZE : length;
+    }
+
+    static int encryptedLength(int mode, int plainLength, boolean last) {
+        switch (mode) {
+            case FileHeader.MODE_CTR:
+                return plainLength;
+            case FileHeader.MODE_GCM:
+                return plainLength + SM4Util.GCM_TAG_SIZE;
+            default:
+                return last ? (plainLength / BLOCK_SIZE + 1) * BLOCK_SIZE : plainLength;
+        }
+    }
+
+    /**
+     * 派生第index段的IV：SM4_K(nonce ⊕ index)，index以大端序异或到nonce的低8字节
+     */
+    byte[] segmentIV(long index) {
+        byte[] block = nonce.clone();
+        for (int i = 0; i < 8; i++) {
+            block[BLOCK_SIZE - 1 - i] ^= (byte) (index >>> (8 * i));
+        }
+        engine.processBlock(block, 0, block, 0);
+        return block;
+    }
+
+    /**
+     * 加密单个分段
+     * @return 密文长度
+     */
+    public int encryptSegment(long index, boolean last, byte[] in, int inOff, int len, byte[] out, int outOff) throws Exception {
+        return process(true, index, last, in, inOff, len, out, outOff);
+    }
+
+    /**
+     * 解密单个分段
+     * @return 明文长度
+     */
+    public int decryptSegment(long index, boolean last, byte[] in, int inOff, int len, byte[] out, int outOff) throws Exception {
+        return process(false, index, last, in, inOff, len, out, outOff);
+    }
+
+    /**
+     * 只校验单个分段的认证标签（v3），不解密
+     * @throws SM4Util.SM4Exception 标签不匹配
+     */
+    public void verifySegment(long index, boolean last, byte[] in, int inOff, int len) throws Exception {
+        if (mac == null) {
+            throw new IllegalStateException("分段不带认证标签");
+        }
+        checkTag(index, last, in, inOff, len);
+    }
+
+    private int checkTag(long index, boolean last, byte[] in, int inOff, int len) throws Exception {
+        int cipherLength = len - SegmentMac.TAG_SIZE;
+        if (cipherLength < 0 || !mac.verifyTag(index, last, in, inOff, cipherLength)) {
+            CryptoMetrics.error(CryptoMetrics.Operation.SM3);
+            throw new SM4Util.SM4Exception("第" + index + "段认证失败，文件可能已损坏、被篡改或密钥不匹配", null);
+        }
+        return cipherLength;
+    }
+
+    private int process(boolean encrypt, long index, boolean last, byte[] in, int inOff, int len,
+                        byte[] out, int outOff) throws Exception {
+        if (mac == null) {
+            return processCipher(encrypt, index, last, in, inOff, len, out, outOff);
+        }
+        if (encrypt) {
+            // 先加密后认证：标签紧随密文
+            int length = processCipher(true, index, last, in, inOff, len, out, outOff);
+            mac.computeTag(index, last, out, outOff, length, out, outOff + length);
+            return length + SegmentMac.TAG_SIZE;
+        }
+        // 标签校验通过后才解密，篡改的分段不会产生任何明文
+        int cipherLength = checkTag(index, last, in, inOff, len);
+        return processCipher(false, index, last, in, inOff, cipherLength, out, outOff);
+    }
+
+    private int processCipher(boolean encrypt, long index, boolean last, byte[] in, int inOff, int len,
+                              byte[] out, int outOff) throws Exception {
+        long start = CryptoMetrics.start();
+        int length;
+        try {
+            length = processSegment(encrypt, index, last, in, inOff, len, out, outOff);
+        } catch (Exception e) {
+            CryptoMetrics.error(CryptoMetrics.Operation.SM4);
+            throw e;
+        }
+        CryptoMetrics.stop(CryptoMetrics.Operation.SM4, start, len);
+        return length;
+    }
+
+    private int processSegment(boolean encrypt, long index, boolean last, byte[] in, int inOff, int len,
+                               byte[] out, int outOff) throws Exception {
+        if (mode == FileHeader.MODE_CTR) {
+            SM4Util.processCTR(engine, nonce, index * segmentSize, in, inOff, len, out, outOff);
+            return len;
+        }
+        if (mode == FileHeader.MODE_GCM) {
+            return processGCM(encrypt, index, last, in, inOff, len, out, outOff);
+        }
+
+        byte[] iv = segmentIV(index);
+        if (last) {
+            PaddedBufferedBlockCipher cipher = FileCryptoEngine.getSM4Cipher(key, iv, encrypt);
+            int length = cipher.processBytes(in, inOff, len, out, outOff);
+            return length + cipher.doFinal(out, outOff + length);
+        }
+
+        if (len % BLOCK_SIZE != 0) {
+            throw new SM4Util.SM4Exception("分段长度不是16的整数倍，文件可能已损坏", null);
+        }
+        if (encrypt) {
+            engine.encryptCBC(iv, in, inOff, len, out, outOff);
+        } else {
+            engine.decryptCBC(iv, in, inOff, len, out, outOff);
+        }
+        return len;
+    }
+
+    private int processGCM(boolean encrypt, long index, boolean last, byte[] in, int inOff, int len,
+                           byte[] out, int outOff) throws Exception {
+        byte[] segmentNonce = Arrays.copyOf(nonce, SM4Util.GCM_NONCE_SIZE);
+        for (int i = 0; i < 8; i++) {
+            segmentNonce[SM4Util.GCM_NONCE_SIZE - 1 - i] ^= (byte) (index >>> (8 * i));
+        }
+        // 附加认证数据：段序号 + 是否最后一段，防止分段被调换或文件被截断
+        byte[] aad = new byte[9];
+        for (int i = 0; i < 8; i++) {
+            aad[i] = (byte) (index >>> (56 - 8 * i));
+        }
+        aad[8] = (byte) (last ? 1 : 0);
+
+        GCMBlockCipher cipher = SM4Util.getGCMCipher(engine, segmentNonce, aad, encrypt);
+        try {
+            int length = cipher.processBytes(in, inOff, len, out, outOff);
+            return length + cipher.doFinal(out, outOff + length);
+        } catch (InvalidCipherTextException e) {
+            throw new SM4Util.SM4Exception("第" + index + "段认证失败，文件可能已损坏或被篡改", e);
+        }
+    }
+
+    /**
+     * 在ForkJoin线程池中并行处理一批连续分段。
+     * 第i个分段的输入位于 in[i*inStride, i*inStride+inLens[i])，输出写入 out[i*outStride...]，长度回填到outLens[i]
+     * @param firstIndex 本批第一个分段的序号
+     * @param lastIndex 整个文件最后一个分段的序号
+     */
+    public void processSegments(ForkJoinPool pool, boolean encrypt, long firstIndex, long lastIndex, int count,
+                                byte[] in, int inStride, int[] inLens,
+                                byte[] out, int outStride, int[] outLens) throws Exception {
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        pool.invoke(new SegmentTask(encrypt, false, firstIndex, lastIndex, 0, count,
+                in, inStride, inLens, out, outStride, outLens, failure));
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * 在ForkJoin线程池中并行校验一批连续分段的认证标签（v3），不解密
+     * @see #processSegments
+     */
+    public void verifySegments(ForkJoinPool pool, long firstIndex, long lastIndex, int count,
+                               byte[] in, int inStride, int[] inLens) throws Exception {
+        if (mac == null) {
+            throw new IllegalStateException("分段不带认证标签");
+        }
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        pool.invoke(new SegmentTask(false, true, firstIndex, lastIndex, 0, count,
+                in, inStride, inLens, null, 0, null, failure));
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * 二分拆分的分段任务
+     */
+    private final class SegmentTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean encrypt;
+        // 只校验认证标签
+        private final boolean verifyOnly;
+        private final long firstIndex;
+        private final long lastIndex;
+        private final int from;
+        private final int to;
+        private final byte[] in;
+        private final int inStride;
+        private final int[] inLens;
+        private final byte[] out;
+        private final int outStride;
+        private final int[] outLens;
+        private final AtomicReference<Exception> failure;
+
+        SegmentTask(boolean encrypt, boolean verifyOnly, long firstIndex, long lastIndex, int from, int to,
+                    byte[] in, int inStride, int[] inLens, byte[] out, int outStride, int[] outLens,
+                    AtomicReference<Exception> failure) {
+            this.encrypt = encrypt;
+            this.verifyOnly = verifyOnly;
+            this.firstIndex = firstIndex;
+            this.lastIndex = lastIndex;
+            this.from = from;
+            this.to = to;
+            this.in = in;
+            this.inStride = inStride;
+            this.inLens = inLens;
+            this.out = out;
+            this.outStride = outStride;
+            this.outLens = outLens;
+            this.failure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(split(from, mid), split(mid, to));
+                return;
+            }
+            if (failure.get() != null) {
+                return;
+            }
+            long index = firstIndex + from;
+            try {
+                if (verifyOnly) {
+                    checkTag(index, index == lastIndex, in, from * inStride, inLens[from]);
+                } else {
+                    outLens[from] = process(encrypt, index, index == lastIndex,
+                            in, from * inStride, inLens[from], out, from * outStride);
+                }
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        private SegmentTask split(int from, int to) {
+            return new SegmentTask(encrypt, verifyOnly, firstIndex, lastIndex, from, to,
+                    in, inStride, inLens, out, outStride, outLens, failure);
+        }
+    }
+}
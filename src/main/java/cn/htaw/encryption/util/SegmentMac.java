@@ -0,0 +1,71 @@
+package cn.htaw.encryption.util;
+
+import org.bouncycastle.crypto.digests.SM3Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.util.Arrays;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * v3格式的分段认证标签（先加密后认证）
+ * <pre>
+ * K_mac = HMAC-SM3(文件密钥, "SM4F v3 segment mac")
+ * tag_i = HMAC-SM3(K_mac, SM3(头部参数) + long(段序号) + byte(是否最后一段) + 第i段密文)
+ * </pre>
+ * 头部参数见 {@link FileHeader#authenticatedBytes()}（不含密钥部分）。
+ * 标签绑定了头部参数（模式、分段大小、明文长度、nonce）、段序号和结束标志，分段被篡改、调换、截断或头部参数被修改都会导致校验失败；
+ * 密钥不匹配时第一个分段即校验失败。实例不可变，可被多个线程同时使用。
+ */
+class SegmentMac {
+    // 标签长度：SM3摘要长度
+    static final int TAG_SIZE = 32;
+
+    private static final byte[] LABEL = "SM4F v3 segment mac".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] macKey;
+    private final byte[] headerDigest;
+
+    /**
+     * @param sm4Key 文件密钥
+     * @param header 头部参数的字节表示
+     */
+    SegmentMac(byte[] sm4Key, byte[] header) {
+        HMac hmac = new HMac(new SM3Digest());
+        hmac.init(new KeyParameter(sm4Key));
+        hmac.update(LABEL, 0, LABEL.length);
+        macKey = new byte[TAG_SIZE];
+        hmac.doFinal(macKey, 0);
+
+        SM3Digest digest = new SM3Digest();
+        digest.update(header, 0, header.length);
+        headerDigest = new byte[digest.getDigestSize()];
+        digest.doFinal(headerDigest, 0);
+    }
+
+    /**
+     * 计算第index段密文 in[off, off+len) 的标签，写入out[outOff, outOff+32)
+     */
+    void computeTag(long index, boolean last, byte[] in, int off, int len, byte[] out, int outOff) {
+        long start = CryptoMetrics.start();
+        HMac hmac = new HMac(new SM3Digest());
+        hmac.init(new KeyParameter(macKey));
+        hmac.update(headerDigest, 0, headerDigest.length);
+        for (int i = 0; i < 8; i++) {
+            hmac.update((byte) (index >>> (56 - 8 * i)));
+        }
+        hmac.update((byte) (last ? 1 : 0));
+        hmac.update(in, off, len);
+        hmac.doFinal(out, outOff);
+        CryptoMetrics.stop(CryptoMetrics.Operation.SM3, start, len);
+    }
+
+    /**
+     * 校验第index段密文 in[off, off+len) 与紧随其后的标签（常量时间比较）
+     */
+    boolean verifyTag(long index, boolean last, byte[] in, int off, int len) {
+        byte[] expected = new byte[TAG_SIZE];
+        computeTag(index, last, in, off, len, expected, 0);
+        return Arrays.constantTimeAreEqual(expected, Arrays.copyOfRange(in, off + len, off + len + TAG_SIZE));
+    }
+}
@@ -0,0 +1,151 @@
+package cn.htaw.encryption.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * {@link CryptoEvents} 的JFR事件类。依赖 {@code jdk.jfr}（Java 8u262及以上），只在pom的jfr配置中编译，
+ * 由 {@link CryptoEvents} 反射加载；事件的含义见该类注释。
+ */
+final class JfrCryptoEvents implements CryptoEvents.Recorder {
+    @Override
+    public boolean isAvailable() {
+        return FlightRecorder.isAvailable();
+    }
+
+    @Override
+    public CryptoEvents.FileRecord newFileEvent() {
+        return new FileEvent();
+    }
+
+    @Override
+    public CryptoEvents.StageRecord newStageEvent() {
+        return new StageEvent();
+    }
+
+    @Name(CryptoEvents.FILE_EVENT)
+    @Label("文件加解密")
+    @Category({"SM2/SM4", "文件加解密"})
+    @Description("一个文件的加密、解密或校验，含各阶段的累计耗时")
+    @StackTrace(false)
+    static final class FileEvent extends Event implements CryptoEvents.FileRecord {
+        @Label("操作")
+        String operation;
+
+        @Label("文件")
+        String path;
+
+        @Label("文件大小")
+        @DataAmount
+        long fileSize;
+
+        @Label("成功")
+        boolean success;
+
+        @Label("输入字节数")
+        @DataAmount
+        long inputBytes;
+
+        @Label("输出字节数")
+        @DataAmount
+        long outputBytes;
+
+        @Label("SM2密钥加解密耗时")
+        @Timespan
+        long keyTime;
+
+        @Label("读取耗时")
+        @Description("读取阶段的累计耗时，含输入流中同步计算的SM3摘要")
+        @Timespan
+        long readTime;
+
+        @Label("SM4加解密耗时")
+        @Description("加解密阶段的累计耗时，含v3分段的HMAC-SM3标签")
+        @Timespan
+        long cipherTime;
+
+        @Label("写出耗时")
+        @Description("写出阶段的累计耗时，含输出流中同步计算的SM3摘要")
+        @Timespan
+        long writeTime;
+
+        @Label("SM3摘要耗时")
+        @Timespan
+        long digestTime;
+
+        @Label("SM3摘要字节数")
+        @DataAmount
+        long digestBytes;
+
+        @Override
+        public void setFile(String operation, String path, long fileSize) {
+            this.operation = operation;
+            this.path = path;
+            this.fileSize = fileSize;
+        }
+
+        @Override
+        public void setResult(boolean success, long inputBytes, long outputBytes) {
+            this.success = success;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+        }
+
+        @Override
+        public void setTimes(long keyTime, long readTime, long cipherTime, long writeTime, long digestTime,
+                             long digestBytes) {
+            this.keyTime = keyTime;
+            this.readTime = readTime;
+            this.cipherTime = cipherTime;
+            this.writeTime = writeTime;
+            this.digestTime = digestTime;
+            this.digestBytes = digestBytes;
+        }
+    }
+
+    @Name(CryptoEvents.STAGE_EVENT)
+    @Label("文件加解密阶段")
+    @Category({"SM2/SM4", "文件加解密"})
+    @Description("一次SM2密钥加解密，或一个流水线缓冲槽的读取、加解密、写出")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class StageEvent extends Event implements CryptoEvents.StageRecord {
+        @Label("阶段")
+        String stage;
+
+        @Label("操作")
+        String operation;
+
+        @Label("文件")
+        String path;
+
+        @Label("文件大小")
+        @DataAmount
+        long fileSize;
+
+        @Label("处理字节数")
+        @DataAmount
+        long bytes;
+
+        @Override
+        public void setFile(String operation, String path, long fileSize) {
+            this.operation = operation;
+            this.path = path;
+            this.fileSize = fileSize;
+        }
+
+        @Override
+        public void setStage(String stage, long bytes) {
+            this.stage = stage;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package cn.htaw.encryption.util;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 断点续加密：各格式加密到一半取消后从断点日志继续，结果与一次完成的加密同样可解密
+ */
+public class CheckpointJournalTest {
+    private static final int SEGMENT_SIZE = 4096;
+    private static final int SIZE = 64 * SEGMENT_SIZE + 1000;
+
+    private static byte[] publicKey;
+    private static byte[] privateKey;
+    private static byte[] plain;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Map<String, byte[]> keys = SM2Util.generateKeyPair(true);
+        publicKey = keys.get("publicKey");
+        privateKey = keys.get("privateKey");
+        plain = new byte[SIZE];
+        new Random(14).nextBytes(plain);
+    }
+
+    @Test
+    public void resumeV1() throws Exception {
+        cancelAndResume(FileHeader.VERSION_1, FileHeader.MODE_CBC);
+    }
+
+    @Test
+    public void resumeV2Cbc() throws Exception {
+        cancelAndResume(FileHeader.VERSION_2, FileHeader.MODE_CBC);
+    }
+
+    @Test
+    public void resumeV2Ctr() throws Exception {
+        cancelAndResume(FileHeader.VERSION_2, FileHeader.MODE_CTR);
+    }
+
+    @Test
+    public void resumeV2Gcm() throws Exception {
+        cancelAndResume(FileHeader.VERSION_2, FileHeader.MODE_GCM);
+    }
+
+    @Test
+    public void resumeV3Cbc() throws Exception {
+        cancelAndResume(FileHeader.VERSION_3, FileHeader.MODE_CBC);
+    }
+
+    @Test
+    public void resumeV3Ctr() throws Exception {
+        cancelAndResume(FileHeader.VERSION_3, FileHeader.MODE_CTR);
+    }
+
+    /**
+     * 没有断点日志（未保存过断点或已加密完成）时不能续加密
+     */
+    @Test
+    public void resumeWithoutJournalFails() throws Exception {
+        File input = folder.newFile();
+        File encrypted = folder.newFile();
+        Files.write(input.toPath(), plain);
+        FileCryptoEngine engine = new FileCryptoEngine(new FileCryptoOptions().setCheckpointInterval(16 * 1024));
+        engine.encrypt(input, encrypted, publicKey, FileCryptoEngine.ProgressListener.NONE);
+        assertFalse(CheckpointJournal.journalFile(encrypted).exists());
+        try {
+            engine.resumeEncrypt(input, encrypted, privateKey, FileCryptoEngine.ProgressListener.NONE);
+            fail("没有断点日志时续加密应失败");
+        } catch (Exception expected) {
+            // 预期失败
+        }
+    }
+
+    private void cancelAndResume(int version, int mode) throws Exception {
+        for (int pipelineDepth : new int[]{0, 3}) {
+            String name = "v" + version + " mode=" + mode + " pipeline=" + pipelineDepth;
+            FileCryptoOptions options = new FileCryptoOptions()
+                    .setFormatVersion(version)
+                    .setBufferSize(SEGMENT_SIZE)
+                    .setPipelineDepth(pipelineDepth)
+                    .setCheckpointInterval(4 * SEGMENT_SIZE);
+            if (version != FileHeader.VERSION_1) {
+                options.setMode(mode).setSegmentSize(SEGMENT_SIZE);
+            }
+            File input = folder.newFile();
+            File encrypted = folder.newFile();
+            Files.write(input.toPath(), plain);
+
+            FileCryptoEngine engine = new FileCryptoEngine(options);
+            try {
+                engine.encrypt(input, encrypted, publicKey, new FileCryptoEngine.ProgressListener() {
+                    private boolean cancelled;
+
+                    @Override
+                    public void onProgress(int progress) {
+                        cancelled |= progress >= 50;
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return cancelled;
+                    }
+                });
+                fail(name + "：加密应被取消");
+            } catch (CancellationException expected) {
+                // 预期取消
+            }
+            File journal = CheckpointJournal.journalFile(encrypted);
+            assertTrue(name + "：取消后应保留断点日志", journal.isFile());
+            byte[] bytes = Files.readAllBytes(encrypted.toPath());
+            byte[] sm4Key = FileHeader.read(new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length)
+                    .unwrapKey(privateKey);
+            long offset = CheckpointJournal.load(encrypted, input, sm4Key).plaintextOffset;
+            assertTrue(name + "：断点应在文件中间: " + offset, offset > 0 && offset < SIZE);
+
+            FileCryptoResult result = engine.resumeEncrypt(input, encrypted, privateKey,
+                    FileCryptoEngine.ProgressListener.NONE);
+            assertEquals(name, SIZE, result.getInputLength());
+            assertFalse(name + "：完成后应删除断点日志", journal.exists());
+
+            File decrypted = folder.newFile();
+            new FileCryptoEngine(new FileCryptoOptions()).decrypt(encrypted, decrypted, privateKey,
+                    FileCryptoEngine.ProgressListener.NONE);
+            assertArrayEquals(name, plain, Files.readAllBytes(decrypted.toPath()));
+            engine.verify(encrypted, privateKey, FileCryptoEngine.ProgressListener.NONE);
+        }
+    }
+}
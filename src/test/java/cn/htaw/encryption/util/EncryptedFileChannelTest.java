@@ -0,0 +1,219 @@
+package cn.htaw.encryption.util;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 随机访问读取：各格式下任意区间、跨分组/分段边界的区间、越过文件末尾和零长度的读取与原明文一致，
+ * v1按最后一个不满的分组得到明文长度，压缩的加密文件拒绝随机访问
+ */
+public class EncryptedFileChannelTest {
+    private static final int SEGMENT_SIZE = 4096;
+    // 超过单次read上限（64KB），最后一段和v1最后一个分组都不满
+    private static final int SIZE = 20 * SEGMENT_SIZE + 77;
+
+    private static byte[] publicKey;
+    private static byte[] privateKey;
+    private static byte[] plain;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Map<String, byte[]> keys = SM2Util.generateKeyPair(true);
+        publicKey = keys.get("publicKey");
+        privateKey = keys.get("privateKey");
+        plain = new byte[SIZE];
+        new Random(13).nextBytes(plain);
+    }
+
+    @Test
+    public void randomRanges() throws Exception {
+        Random random = new Random(1300);
+        for (Format format : Format.values()) {
+            File encrypted = encrypt(format.options(), plain);
+            try (EncryptedFileChannel channel = EncryptedFileChannel.open(encrypted, privateKey)) {
+                assertEquals(format.toString(), SIZE, channel.size());
+                for (int i = 0; i < 300; i++) {
+                    long offset = random.nextInt(SIZE + 1);
+                    int length = random.nextInt(3 * SEGMENT_SIZE);
+                    assertRange(format + " 随机区间", channel, offset, length);
+                }
+            }
+            // 一次性读取
+            FileCryptoEngine engine = new FileCryptoEngine(new FileCryptoOptions());
+            assertArrayEquals(format.toString(), plain, engine.decryptRange(encrypted, privateKey, 0, SIZE));
+            assertArrayEquals(format.toString(), Arrays.copyOfRange(plain, 5000, 5100),
+                    engine.decryptRange(encrypted, privateKey, 5000, 100));
+        }
+    }
+
+    /**
+     * 起止位置落在分组边界和分段边界前后
+     */
+    @Test
+    public void rangesAcrossBlockAndSegmentBoundaries() throws Exception {
+        int[] lengths = {1, 2, 15, 16, 17, 31, 33, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 2 * SEGMENT_SIZE + 20};
+        for (Format format : Format.values()) {
+            File encrypted = encrypt(format.options(), plain);
+            try (EncryptedFileChannel channel = EncryptedFileChannel.open(encrypted, privateKey)) {
+                for (long boundary : new long[]{16, 32, 4080, SEGMENT_SIZE, 2 * SEGMENT_SIZE, 7 * SEGMENT_SIZE + 16,
+                        20 * SEGMENT_SIZE, SIZE - 16}) {
+                    for (long offset = Math.max(0, boundary - 17); offset <= boundary + 17; offset++) {
+                        for (int length : lengths) {
+                            assertRange(format + " 边界" + boundary + "附近", channel, offset, length);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 以不同大小的缓冲区经通道顺序读取全部明文
+     */
+    @Test
+    public void sequentialReads() throws Exception {
+        for (Format format : Format.values()) {
+            File encrypted = encrypt(format.options(), plain);
+            for (int bufferSize : new int[]{1, 17, 1000, SEGMENT_SIZE, SIZE + 1}) {
+                try (EncryptedFileChannel channel = EncryptedFileChannel.open(encrypted, privateKey)) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+                    int n;
+                    while ((n = channel.read(buffer)) >= 0) {
+                        out.write(buffer.array(), 0, n);
+                        buffer.clear();
+                    }
+                    assertArrayEquals(format + " buffer=" + bufferSize, plain, out.toByteArray());
+                    assertEquals(format + " buffer=" + bufferSize, SIZE, channel.position());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readsPastEndAndZeroLength() throws Exception {
+        for (Format format : Format.values()) {
+            String name = format.toString();
+            File encrypted = encrypt(format.options(), plain);
+            try (EncryptedFileChannel channel = EncryptedFileChannel.open(encrypted, privateKey)) {
+                assertArrayEquals(name, Arrays.copyOfRange(plain, SIZE - 3, SIZE), channel.read(SIZE - 3, 100));
+                assertEquals(name, 0, channel.read(SIZE, 10).length);
+                assertEquals(name, 0, channel.read(SIZE + 1000, 10).length);
+                assertEquals(name, 0, channel.read(123, 0).length);
+                assertEquals(name, 0, channel.read(SIZE, 0).length);
+
+                channel.position(SIZE);
+                assertEquals(name, -1, channel.read(ByteBuffer.allocate(10)));
+                channel.position(SIZE + 5000);
+                assertEquals(name, -1, channel.read(ByteBuffer.allocate(10)));
+                assertEquals(name, SIZE + 5000, channel.position());
+
+                channel.position(100);
+                assertEquals(name, 0, channel.read(ByteBuffer.allocate(0)));
+                assertEquals(name, 100, channel.position());
+
+                try {
+                    channel.read(-1, 10);
+                    fail(name + "：负偏移应被拒绝");
+                } catch (IllegalArgumentException expected) {
+                    // 预期失败
+                }
+            }
+        }
+    }
+
+    /**
+     * v1没有明文长度字段：最后一个分组的填充决定明文长度，包括明文恰为整分组（填充整个分组）和空文件
+     */
+    @Test
+    public void v1LastPartialBlock() throws Exception {
+        for (int size : new int[]{0, 1, 15, 16, 17, 31, 32, 33, SEGMENT_SIZE - 1, SEGMENT_SIZE + 7}) {
+            byte[] data = Arrays.copyOf(plain, size);
+            File encrypted = encrypt(Format.V1.options(), data);
+            try (EncryptedFileChannel channel = EncryptedFileChannel.open(encrypted, privateKey)) {
+                assertEquals("size=" + size, size, channel.size());
+                assertArrayEquals("size=" + size, data, channel.read(0, size + 16));
+                for (int tail = 1; tail <= Math.min(size, 20); tail++) {
+                    assertArrayEquals("size=" + size + " tail=" + tail,
+                            Arrays.copyOfRange(data, size - tail, size), channel.read(size - tail, 32));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void compressedFileRejected() throws Exception {
+        for (Format format : new Format[]{Format.V2_CBC, Format.V2_GCM, Format.V3_CTR}) {
+            File encrypted = encrypt(format.options().setCompressionLevel(1), plain);
+            try {
+                EncryptedFileChannel.open(encrypted, privateKey).close();
+                fail(format + "：压缩的加密文件不应支持随机访问");
+            } catch (Exception expected) {
+                // 预期失败
+            }
+            try {
+                new FileCryptoEngine(new FileCryptoOptions()).decryptRange(encrypted, privateKey, 0, 16);
+                fail(format + "：压缩的加密文件不应支持随机访问");
+            } catch (Exception expected) {
+                // 预期失败
+            }
+        }
+    }
+
+    private enum Format {
+        V1(FileHeader.VERSION_1, FileHeader.MODE_CBC),
+        V2_CBC(FileHeader.VERSION_2, FileHeader.MODE_CBC),
+        V2_CTR(FileHeader.VERSION_2, FileHeader.MODE_CTR),
+        V2_GCM(FileHeader.VERSION_2, FileHeader.MODE_GCM),
+        V3_CBC(FileHeader.VERSION_3, FileHeader.MODE_CBC),
+        V3_CTR(FileHeader.VERSION_3, FileHeader.MODE_CTR);
+
+        final int version;
+        final int mode;
+
+        Format(int version, int mode) {
+            this.version = version;
+            this.mode = mode;
+        }
+
+        FileCryptoOptions options() {
+            FileCryptoOptions options = new FileCryptoOptions().setFormatVersion(version);
+            if (version != FileHeader.VERSION_1) {
+                options.setMode(mode).setSegmentSize(SEGMENT_SIZE);
+            }
+            return options;
+        }
+    }
+
+    private File encrypt(FileCryptoOptions options, byte[] data) throws Exception {
+        File input = folder.newFile();
+        File encrypted = folder.newFile();
+        Files.write(input.toPath(), data);
+        new FileCryptoEngine(options).encrypt(input, encrypted, publicKey, FileCryptoEngine.ProgressListener.NONE);
+        return encrypted;
+    }
+
+    private static void assertRange(String name, EncryptedFileChannel channel, long offset, int length) throws Exception {
+        int from = (int) Math.min(offset, SIZE);
+        int to = (int) Math.min(offset + length, SIZE);
+        assertArrayEquals(name + " offset=" + offset + " length=" + length,
+                Arrays.copyOfRange(plain, from, to), channel.read(offset, length));
+    }
+}
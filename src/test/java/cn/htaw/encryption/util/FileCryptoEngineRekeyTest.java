@@ -0,0 +1,217 @@
+package cn.htaw.encryption.util;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 更换密钥：原地覆盖和长度变化（单接收方与多接收方互换）的往返，以及原地覆盖中断后再次执行时按备份恢复
+ */
+public class FileCryptoEngineRekeyTest {
+    private static final int SIZE = 3 * 4096 + 77;
+
+    private static Map<String, byte[]> k1;
+    private static Map<String, byte[]> k2;
+    private static Map<String, byte[]> k3;
+    private static byte[] plain;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        k1 = SM2Util.generateKeyPair(true);
+        k2 = SM2Util.generateKeyPair(true);
+        k3 = SM2Util.generateKeyPair(true);
+        plain = new byte[SIZE];
+        new Random(17).nextBytes(plain);
+    }
+
+    @Test
+    public void inPlaceRekey() throws Exception {
+        for (FileCryptoOptions options : new FileCryptoOptions[]{
+                new FileCryptoOptions(),
+                new FileCryptoOptions().setFormatVersion(FileHeader.VERSION_2).setMode(FileHeader.MODE_GCM).setSegmentSize(4096),
+                new FileCryptoOptions().setFormatVersion(FileHeader.VERSION_3).setSegmentSize(4096)}) {
+            File file = encrypt(options, publicKeys(k1));
+            assertTrue(engine().rekey(file, k1.get("privateKey"), publicKeys(k2)));
+            assertNoBackup(file);
+            assertDecrypts(file, k2);
+            assertRejects(file, k1);
+        }
+    }
+
+    @Test
+    public void inPlaceRekeyBetweenMultiRecipientHeaders() throws Exception {
+        File file = encrypt(new FileCryptoOptions().setFormatVersion(FileHeader.VERSION_3).setSegmentSize(4096),
+                publicKeys(k1, k2));
+        assertTrue(engine().rekey(file, k2.get("privateKey"), publicKeys(k2, k3)));
+        assertNoBackup(file);
+        assertDecrypts(file, k2);
+        assertDecrypts(file, k3);
+        assertRejects(file, k1);
+    }
+
+    @Test
+    public void resizedRekeySingleToMultiAndBack() throws Exception {
+        for (int version : new int[]{FileHeader.VERSION_2, FileHeader.VERSION_3}) {
+            File file = encrypt(new FileCryptoOptions().setFormatVersion(version).setSegmentSize(4096), publicKeys(k1));
+            assertFalse(engine().rekey(file, k1.get("privateKey"), publicKeys(k2, k3)));
+            assertNoBackup(file);
+            assertDecrypts(file, k2);
+            assertDecrypts(file, k3);
+            assertRejects(file, k1);
+            engine().verify(file, k3.get("privateKey"), FileCryptoEngine.ProgressListener.NONE);
+
+            assertFalse(engine().rekey(file, k3.get("privateKey"), publicKeys(k1)));
+            assertNoBackup(file);
+            assertDecrypts(file, k1);
+            assertRejects(file, k2);
+            assertRejects(file, k3);
+        }
+    }
+
+    /**
+     * 新头部已写入并落盘、备份尚未删除时中断：再次执行不能写回原头部（否则新私钥失效、已停用的旧私钥重新可用）
+     */
+    @Test
+    public void interruptedAfterHeaderWritten() throws Exception {
+        File file = encrypt(new FileCryptoOptions(), publicKeys(k1));
+        byte[] original = readHeader(file);
+        assertTrue(engine().rekey(file, k1.get("privateKey"), publicKeys(k2)));
+        byte[] rotated = readHeader(file);
+        FileCryptoEngine.writeRekeyBackup(backupOf(file), original, rotated);
+
+        assertTrue(engine().rekey(file, k2.get("privateKey"), publicKeys(k3)));
+        assertNoBackup(file);
+        assertDecrypts(file, k3);
+        assertRejects(file, k2);
+        assertRejects(file, k1);
+    }
+
+    /**
+     * 备份已落盘、头部尚未覆盖或只覆盖了一部分时中断：恢复原头部，原私钥仍可更换密钥
+     */
+    @Test
+    public void interruptedBeforeHeaderWritten() throws Exception {
+        File file = encrypt(new FileCryptoOptions().setFormatVersion(FileHeader.VERSION_3).setSegmentSize(4096),
+                publicKeys(k1));
+        byte[] original = readHeader(file);
+        byte[] rotated = rotatedHeader(file, k2);
+
+        // 未覆盖
+        FileCryptoEngine.writeRekeyBackup(backupOf(file), original, rotated);
+        assertTrue(engine().rekey(file, k1.get("privateKey"), publicKeys(k3)));
+        assertNoBackup(file);
+        assertDecrypts(file, k3);
+
+        // 覆盖了一半
+        file = encrypt(new FileCryptoOptions(), publicKeys(k1));
+        original = readHeader(file);
+        rotated = rotatedHeader(file, k2);
+        FileCryptoEngine.writeRekeyBackup(backupOf(file), original, rotated);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(rotated, 0, rotated.length / 2);
+        }
+        assertTrue(engine().rekey(file, k1.get("privateKey"), publicKeys(k3)));
+        assertNoBackup(file);
+        assertDecrypts(file, k3);
+        assertRejects(file, k1);
+    }
+
+    /**
+     * 写备份时中断（备份不完整），头部未改动：删除备份后正常更换
+     */
+    @Test
+    public void interruptedWhileWritingBackup() throws Exception {
+        File file = encrypt(new FileCryptoOptions(), publicKeys(k1));
+        byte[] original = readHeader(file);
+        File backup = backupOf(file);
+        FileCryptoEngine.writeRekeyBackup(backup, original, original);
+        try (RandomAccessFile raf = new RandomAccessFile(backup, "rw")) {
+            raf.setLength(original.length + 10);
+        }
+        assertTrue(engine().rekey(file, k1.get("privateKey"), publicKeys(k2)));
+        assertNoBackup(file);
+        assertDecrypts(file, k2);
+    }
+
+    private static FileCryptoEngine engine() {
+        return new FileCryptoEngine(new FileCryptoOptions());
+    }
+
+    @SafeVarargs
+    private static List<byte[]> publicKeys(Map<String, byte[]>... keys) {
+        byte[][] publicKeys = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            publicKeys[i] = keys[i].get("publicKey");
+        }
+        return keys.length == 1 ? Collections.singletonList(publicKeys[0]) : Arrays.asList(publicKeys);
+    }
+
+    private File encrypt(FileCryptoOptions options, List<byte[]> publicKeys) throws Exception {
+        File input = folder.newFile();
+        File encrypted = folder.newFile();
+        Files.write(input.toPath(), plain);
+        new FileCryptoEngine(options).encrypt(input, encrypted, publicKeys, FileCryptoEngine.ProgressListener.NONE);
+        return encrypted;
+    }
+
+    /**
+     * 在副本上更换密钥，得到该文件更换后的头部
+     */
+    private byte[] rotatedHeader(File file, Map<String, byte[]> newKeys) throws Exception {
+        File copy = folder.newFile();
+        Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        assertTrue(engine().rekey(copy, k1.get("privateKey"), publicKeys(newKeys)));
+        return readHeader(copy);
+    }
+
+    private static byte[] readHeader(File file) throws Exception {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        FileHeader header = FileHeader.read(new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length);
+        return Arrays.copyOf(bytes, header.getLength());
+    }
+
+    private static File backupOf(File file) {
+        return new File(file.getPath() + FileCryptoEngine.REKEY_BACKUP_SUFFIX);
+    }
+
+    private static void assertNoBackup(File file) {
+        assertFalse(backupOf(file).exists());
+    }
+
+    private void assertDecrypts(File file, Map<String, byte[]> keys) throws Exception {
+        File decrypted = folder.newFile();
+        engine().decrypt(file, decrypted, keys.get("privateKey"), FileCryptoEngine.ProgressListener.NONE);
+        assertArrayEquals(plain, Files.readAllBytes(decrypted.toPath()));
+    }
+
+    private void assertRejects(File file, Map<String, byte[]> keys) throws Exception {
+        File decrypted = folder.newFile();
+        try {
+            engine().decrypt(file, decrypted, keys.get("privateKey"), FileCryptoEngine.ProgressListener.NONE);
+            fail("已更换的私钥不应能解密");
+        } catch (Exception expected) {
+            // 预期失败
+        }
+    }
+}
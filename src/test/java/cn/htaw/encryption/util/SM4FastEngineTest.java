@@ -0,0 +1,287 @@
+package cn.htaw.encryption.util;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.engines.SM4Engine;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.modes.SICBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * SM4FastEngine与GM/T 0002附录A示例及BouncyCastle的SM4Engine对比
+ */
+public class SM4FastEngineTest {
+    private static final byte[] EXAMPLE_KEY = Hex.decode("0123456789abcdeffedcba9876543210");
+
+    private final Random random = new Random(20240601);
+
+    /**
+     * 附录A示例1：明文与密钥相同，加密一次
+     */
+    @Test
+    public void standardExampleOnce() {
+        SM4FastEngine engine = new SM4FastEngine(EXAMPLE_KEY);
+        byte[] block = new byte[16];
+        engine.processBlock(EXAMPLE_KEY, 0, block, 0);
+        assertArrayEquals(Hex.decode("681edf34d206965e86b3e94f536e4246"), block);
+
+        engine.init(false, new KeyParameter(EXAMPLE_KEY));
+        engine.processBlock(block, 0, block, 0);
+        assertArrayEquals(EXAMPLE_KEY, block);
+    }
+
+    /**
+     * 附录A示例2：同一密钥对明文反复加密1000000次
+     */
+    @Test
+    public void standardExampleMillionIterations() {
+        SM4FastEngine engine = new SM4FastEngine(EXAMPLE_KEY);
+        byte[] block = EXAMPLE_KEY.clone();
+        for (int i = 0; i < 1000000; i++) {
+            engine.processBlock(block, 0, block, 0);
+        }
+        assertArrayEquals(Hex.decode("595298c7c6fd271f0402f804c33d3f66"), block);
+
+        engine.init(false, new KeyParameter(EXAMPLE_KEY));
+        for (int i = 0; i < 1000000; i++) {
+            engine.processBlock(block, 0, block, 0);
+        }
+        assertArrayEquals(EXAMPLE_KEY, block);
+    }
+
+    @Test
+    public void processBlockMatchesBouncyCastle() {
+        SM4FastEngine fast = new SM4FastEngine();
+        BlockCipher bc = new SM4Engine();
+        byte[] expected = new byte[16];
+        byte[] actual = new byte[16];
+        for (int i = 0; i < 2000; i++) {
+            byte[] key = randomBytes(16);
+            byte[] block = randomBytes(16);
+            boolean encrypt = random.nextBoolean();
+            bc.init(encrypt, new KeyParameter(key));
+            fast.init(encrypt, new KeyParameter(key));
+            bc.processBlock(block, 0, expected, 0);
+            fast.processBlock(block, 0, actual, 0);
+            assertArrayEquals("第" + i + "组（" + (encrypt ? "加密" : "解密") + "）", expected, actual);
+        }
+    }
+
+    /**
+     * 同一引擎实例更换密钥和方向后结果仍正确（轮密钥按密钥缓存）
+     */
+    @Test
+    public void processBlockAfterRekeyAndDirectionChange() {
+        SM4FastEngine fast = new SM4FastEngine();
+        byte[] key1 = randomBytes(16);
+        byte[] key2 = randomBytes(16);
+        byte[] plain = randomBytes(16);
+        byte[] cipher = new byte[16];
+        byte[] decrypted = new byte[16];
+        fast.init(true, new KeyParameter(key1));
+        fast.processBlock(plain, 0, cipher, 0);
+        fast.init(true, new KeyParameter(key2));
+        fast.init(false, new KeyParameter(key1));
+        fast.processBlock(cipher, 0, decrypted, 0);
+        assertArrayEquals(plain, decrypted);
+        assertArrayEquals(bcBlock(true, key1, plain), cipher);
+    }
+
+    @Test
+    public void processBlocksMatchesBouncyCastle() {
+        SM4FastEngine fast = new SM4FastEngine();
+        for (int i = 0; i < 200; i++) {
+            byte[] key = randomBytes(16);
+            int blocks = 1 + random.nextInt(64);
+            int offset = random.nextInt(8);
+            byte[] data = randomBytes(offset + blocks * 16);
+            boolean encrypt = random.nextBoolean();
+            byte[] expected = new byte[blocks * 16];
+            BlockCipher bc = new SM4Engine();
+            bc.init(encrypt, new KeyParameter(key));
+            for (int off = 0; off < expected.length; off += 16) {
+                bc.processBlock(data, offset + off, expected, off);
+            }
+            fast.init(encrypt, new KeyParameter(key));
+            byte[] actual = new byte[expected.length];
+            fast.processBlocks(data, offset, blocks, actual, 0);
+            assertArrayEquals(expected, actual);
+            // 原地处理
+            fast.processBlocks(data, offset, blocks, data, offset);
+            assertArrayEquals(expected, Arrays.copyOfRange(data, offset, offset + expected.length));
+        }
+    }
+
+    @Test
+    public void encryptCBCMatchesBouncyCastle() {
+        for (int i = 0; i < 200; i++) {
+            byte[] key = randomBytes(16);
+            byte[] iv = randomBytes(16);
+            byte[] plain = randomBytes(16 * random.nextInt(100));
+            byte[] expected = bcCBC(true, key, iv, plain);
+
+            // 引擎按解密方向初始化，encryptCBC不受影响
+            SM4FastEngine fast = new SM4FastEngine();
+            fast.init(random.nextBoolean(), new KeyParameter(key));
+            byte[] chain = iv.clone();
+            byte[] actual = new byte[plain.length];
+            fast.encryptCBC(chain, plain, 0, plain.length, actual, 0);
+            assertArrayEquals(expected, actual);
+            assertArrayEquals(plain.length == 0 ? iv : Arrays.copyOfRange(expected, expected.length - 16, expected.length),
+                    chain);
+
+            // 分两次加密，第二次用返回的IV接续；原地加密
+            byte[] inPlace = plain.clone();
+            chain = iv.clone();
+            int split = 16 * random.nextInt(plain.length / 16 + 1);
+            fast.encryptCBC(chain, inPlace, 0, split, inPlace, 0);
+            fast.encryptCBC(chain, inPlace, split, plain.length - split, inPlace, split);
+            assertArrayEquals(expected, inPlace);
+        }
+    }
+
+    @Test
+    public void decryptCBCMatchesBouncyCastle() {
+        for (int i = 0; i < 200; i++) {
+            byte[] key = randomBytes(16);
+            byte[] iv = randomBytes(16);
+            byte[] cipher = randomBytes(16 * random.nextInt(100));
+            byte[] expected = bcCBC(false, key, iv, cipher);
+
+            SM4FastEngine fast = new SM4FastEngine();
+            fast.init(random.nextBoolean(), new KeyParameter(key));
+            byte[] chain = iv.clone();
+            byte[] actual = new byte[cipher.length];
+            fast.decryptCBC(chain, cipher, 0, cipher.length, actual, 0);
+            assertArrayEquals(expected, actual);
+            assertArrayEquals(cipher.length == 0 ? iv : Arrays.copyOfRange(cipher, cipher.length - 16, cipher.length),
+                    chain);
+
+            byte[] inPlace = cipher.clone();
+            chain = iv.clone();
+            int split = 16 * random.nextInt(cipher.length / 16 + 1);
+            fast.decryptCBC(chain, inPlace, 0, split, inPlace, 0);
+            fast.decryptCBC(chain, inPlace, split, cipher.length - split, inPlace, split);
+            assertArrayEquals(expected, inPlace);
+        }
+    }
+
+    /**
+     * 经CBCBlockCipher使用时与BouncyCastle引擎结果一致（SM4Util等处的用法）
+     */
+    @Test
+    public void worksAsBlockCipherForCBCMode() {
+        for (int i = 0; i < 100; i++) {
+            byte[] key = randomBytes(16);
+            byte[] iv = randomBytes(16);
+            byte[] data = randomBytes(16 * (1 + random.nextInt(32)));
+            boolean encrypt = random.nextBoolean();
+            CBCBlockCipher cbc = new CBCBlockCipher(new SM4FastEngine());
+            cbc.init(encrypt, new ParametersWithIV(new KeyParameter(key), iv));
+            byte[] actual = new byte[data.length];
+            for (int off = 0; off < data.length; off += 16) {
+                cbc.processBlock(data, off, actual, off);
+            }
+            assertArrayEquals(bcCBC(encrypt, key, iv, data), actual);
+        }
+    }
+
+    /**
+     * 共用已初始化引擎的CTR（任意起始位置）和GCM与BouncyCastle引擎结果一致，且不改变引擎本身的方向
+     */
+    @Test
+    public void sharedEngineForCTRAndGCM() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            byte[] key = randomBytes(16);
+            byte[] iv = randomBytes(16);
+            byte[] data = randomBytes(random.nextInt(1000));
+            SM4FastEngine engine = new SM4FastEngine();
+            engine.init(false, new KeyParameter(key));
+
+            SICBlockCipher ctr = new SICBlockCipher(new SM4Engine());
+            ctr.init(true, new ParametersWithIV(new KeyParameter(key), iv));
+            byte[] expected = new byte[data.length];
+            ctr.processBytes(data, 0, data.length, expected, 0);
+            byte[] actual = new byte[data.length];
+            int split = random.nextInt(data.length + 1);
+            SM4Util.processCTR(engine, iv, 0, data, 0, split, actual, 0);
+            SM4Util.processCTR(engine, iv, split, data, split, data.length - split, actual, split);
+            assertArrayEquals(expected, actual);
+
+            byte[] nonce = Arrays.copyOf(iv, SM4Util.GCM_NONCE_SIZE);
+            byte[] aad = randomBytes(9);
+            GCMBlockCipher gcm = new GCMBlockCipher(new SM4Engine());
+            gcm.init(true, new AEADParameters(new KeyParameter(key), SM4Util.GCM_TAG_SIZE * 8, nonce, aad));
+            expected = new byte[gcm.getOutputSize(data.length)];
+            gcm.doFinal(expected, gcm.processBytes(data, 0, data.length, expected, 0));
+            gcm = SM4Util.getGCMCipher(engine, nonce, aad, true);
+            actual = new byte[gcm.getOutputSize(data.length)];
+            gcm.doFinal(actual, gcm.processBytes(data, 0, data.length, actual, 0));
+            assertArrayEquals(expected, actual);
+            gcm = SM4Util.getGCMCipher(engine, nonce, aad, false);
+            byte[] decrypted = new byte[gcm.getOutputSize(actual.length)];
+            gcm.doFinal(decrypted, gcm.processBytes(actual, 0, actual.length, decrypted, 0));
+            assertArrayEquals(data, decrypted);
+
+            // 引擎仍按解密方向工作
+            byte[] block = randomBytes(16);
+            byte[] out = new byte[16];
+            engine.processBlock(block, 0, out, 0);
+            assertArrayEquals(bcBlock(false, key, block), out);
+        }
+    }
+
+    @Test
+    public void encryptorRejectsOtherKeyAndDecryption() {
+        byte[] key = randomBytes(16);
+        BlockCipher encryptor = new SM4FastEngine(key).encryptor();
+        encryptor.init(true, new KeyParameter(key));
+        encryptor.init(true, null);
+        try {
+            encryptor.init(true, new KeyParameter(randomBytes(16)));
+            fail("密钥与引擎不一致时应拒绝");
+        } catch (IllegalArgumentException expected) {
+            // 预期失败
+        }
+        try {
+            encryptor.init(false, new KeyParameter(key));
+            fail("加密视图不能用于解密方向");
+        } catch (IllegalArgumentException expected) {
+            // 预期失败
+        }
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] bcBlock(boolean encrypt, byte[] key, byte[] block) {
+        BlockCipher bc = new SM4Engine();
+        bc.init(encrypt, new KeyParameter(key));
+        byte[] out = new byte[16];
+        bc.processBlock(block, 0, out, 0);
+        return out;
+    }
+
+    private static byte[] bcCBC(boolean encrypt, byte[] key, byte[] iv, byte[] data) {
+        CBCBlockCipher cbc = new CBCBlockCipher(new SM4Engine());
+        cbc.init(encrypt, new ParametersWithIV(new KeyParameter(key), iv));
+        byte[] out = new byte[data.length];
+        for (int off = 0; off < data.length; off += 16) {
+            cbc.processBlock(data, off, out, off);
+        }
+        return out;
+    }
+}
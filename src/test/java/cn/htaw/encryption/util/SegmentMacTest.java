@@ -0,0 +1,292 @@
+package cn.htaw.encryption.util;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * v3分段认证标签：标签本身的绑定关系，以及篡改加密文件（改写密文字节、截断、调换分段、修改头部字段）后
+ * 解密和校验都失败，且解密不会写出损坏分段及其后的明文
+ */
+public class SegmentMacTest {
+    private static final int SEGMENT_SIZE = 4096;
+    // 9个分段，最后一段不满
+    private static final int PLAIN_SIZE = 8 * SEGMENT_SIZE + 123;
+    // 头部字段偏移：魔数(4) 版本(1) 模式(1) 标志位(2) 分段大小(4) 明文长度(8)
+    private static final int MODE_OFFSET = 5;
+    private static final int FLAGS_OFFSET = 6;
+    private static final int PLAINTEXT_LENGTH_OFFSET = 12;
+
+    private static byte[] publicKey;
+    private static byte[] privateKey;
+    private static byte[] plain;
+    // 单线程：每个窗口2个分段，损坏分段之前的窗口会先写出
+    private static ForkJoinPool pool;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Map<String, byte[]> keys = SM2Util.generateKeyPair(true);
+        publicKey = keys.get("publicKey");
+        privateKey = keys.get("privateKey");
+        plain = new byte[PLAIN_SIZE];
+        new Random(15).nextBytes(plain);
+        pool = new ForkJoinPool(1);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void tagBindsIndexLastFlagCiphertextHeaderAndKey() {
+        byte[] key = SM4Util.generateKey();
+        byte[] header = FileHeader.authenticated(FileHeader.MODE_CBC, SEGMENT_SIZE, PLAIN_SIZE, new byte[0],
+                SM4Util.generateIV()).authenticatedBytes();
+        byte[] data = Arrays.copyOf(plain, SEGMENT_SIZE + SegmentMac.TAG_SIZE);
+        SegmentMac mac = new SegmentMac(key, header);
+        mac.computeTag(3, false, data, 0, SEGMENT_SIZE, data, SEGMENT_SIZE);
+
+        assertTrue(mac.verifyTag(3, false, data, 0, SEGMENT_SIZE));
+        assertTrue(new SegmentMac(key, header.clone()).verifyTag(3, false, data, 0, SEGMENT_SIZE));
+        assertFalse(mac.verifyTag(4, false, data, 0, SEGMENT_SIZE));
+        assertFalse(mac.verifyTag(3, true, data, 0, SEGMENT_SIZE));
+        assertFalse(mac.verifyTag(3, false, data, 0, SEGMENT_SIZE - 16));
+
+        byte[] otherHeader = header.clone();
+        otherHeader[otherHeader.length - 1] ^= 1;
+        assertFalse(new SegmentMac(key, otherHeader).verifyTag(3, false, data, 0, SEGMENT_SIZE));
+        assertFalse(new SegmentMac(SM4Util.generateKey(), header).verifyTag(3, false, data, 0, SEGMENT_SIZE));
+
+        byte[] tampered = data.clone();
+        tampered[100] ^= 1;
+        assertFalse(mac.verifyTag(3, false, tampered, 0, SEGMENT_SIZE));
+        tampered = data.clone();
+        tampered[SEGMENT_SIZE + SegmentMac.TAG_SIZE - 1] ^= 1;
+        assertFalse(mac.verifyTag(3, false, tampered, 0, SEGMENT_SIZE));
+    }
+
+    @Test
+    public void flippedCiphertextByte() throws Exception {
+        for (Variant variant : Variant.values()) {
+            File encrypted = encrypt(variant);
+            FileHeader header = readHeader(encrypted);
+            int bad = 5;
+            try (RandomAccessFile raf = new RandomAccessFile(encrypted, "rw")) {
+                flip(raf, header.getSegmentOffset(bad) + 1000);
+            }
+            assertRejected(variant + " 改写密文", encrypted, bad);
+        }
+    }
+
+    @Test
+    public void flippedTagByte() throws Exception {
+        for (Variant variant : Variant.values()) {
+            File encrypted = encrypt(variant);
+            FileHeader header = readHeader(encrypted);
+            int bad = 4;
+            try (RandomAccessFile raf = new RandomAccessFile(encrypted, "rw")) {
+                flip(raf, header.getSegmentOffset(bad + 1) - 1);
+            }
+            assertRejected(variant + " 改写标签", encrypted, bad);
+        }
+    }
+
+    @Test
+    public void truncatedFile() throws Exception {
+        for (Variant variant : Variant.values()) {
+            File encrypted = encrypt(variant);
+            FileHeader header = readHeader(encrypted);
+            long last = header.getSegmentCount() - 1;
+            // 去掉最后一段
+            truncate(encrypted, header.getSegmentOffset(last));
+            assertRejected(variant + " 截去最后一段", encrypted, 0);
+
+            encrypted = encrypt(variant);
+            // 截断在分段中间
+            truncate(encrypted, header.getSegmentOffset(3) + 100);
+            assertRejected(variant + " 截断在分段中间", encrypted, 0);
+
+            // 截去后面的分段，并把头部的明文长度改成与剩余长度相符
+            encrypted = encrypt(variant);
+            long shortened = 5L * SEGMENT_SIZE + SEGMENT_SIZE - 16;
+            truncate(encrypted, header.withPlaintextLength(shortened).getEncryptedFileLength());
+            try (RandomAccessFile raf = new RandomAccessFile(encrypted, "rw")) {
+                raf.seek(PLAINTEXT_LENGTH_OFFSET);
+                raf.writeLong(shortened);
+            }
+            assertEquals(encrypted.length(), readHeader(encrypted).getEncryptedFileLength());
+            assertRejected(variant + " 截断并改写明文长度", encrypted, 0);
+        }
+    }
+
+    @Test
+    public void swappedSegments() throws Exception {
+        for (Variant variant : Variant.values()) {
+            File encrypted = encrypt(variant);
+            FileHeader header = readHeader(encrypted);
+            int first = 2;
+            int stored = header.getSegmentStoredLength(first);
+            byte[] a = new byte[stored];
+            byte[] b = new byte[stored];
+            try (RandomAccessFile raf = new RandomAccessFile(encrypted, "rw")) {
+                raf.seek(header.getSegmentOffset(first));
+                raf.readFully(a);
+                raf.readFully(b);
+                raf.seek(header.getSegmentOffset(first));
+                raf.write(b);
+                raf.write(a);
+            }
+            assertRejected(variant + " 调换分段", encrypted, first);
+        }
+    }
+
+    @Test
+    public void editedHeaderFields() throws Exception {
+        for (Variant variant : Variant.values()) {
+            FileHeader header = readHeader(encrypt(variant));
+
+            File encrypted = encrypt(variant);
+            try (RandomAccessFile raf = new RandomAccessFile(encrypted, "rw")) {
+                // nonce为头部最后16字节
+                flip(raf, header.getLength() - 1);
+            }
+            assertRejected(variant + " 修改nonce", encrypted, 0);
+
+            encrypted = encrypt(variant);
+            try (RandomAccessFile raf = new RandomAccessFile(encrypted, "rw")) {
+                raf.seek(MODE_OFFSET);
+                raf.writeByte(variant.mode == FileHeader.MODE_CBC ? FileHeader.MODE_CTR : FileHeader.MODE_CBC);
+            }
+            assertRejected(variant + " 修改模式", encrypted, 0);
+
+            encrypted = encrypt(variant);
+            try (RandomAccessFile raf = new RandomAccessFile(encrypted, "rw")) {
+                raf.seek(FLAGS_OFFSET);
+                raf.writeShort(FileHeader.FLAG_COMPRESSED);
+            }
+            assertRejected(variant + " 修改标志位", encrypted, 0);
+
+            encrypted = encrypt(variant);
+            try (RandomAccessFile raf = new RandomAccessFile(encrypted, "rw")) {
+                raf.seek(PLAINTEXT_LENGTH_OFFSET);
+                raf.writeLong(PLAIN_SIZE - 1);
+            }
+            assertRejected(variant + " 修改明文长度", encrypted, 0);
+        }
+    }
+
+    /**
+     * 未篡改的文件可以解密和校验（保证上面的失败确实由篡改引起）
+     */
+    @Test
+    public void untouchedFileDecrypts() throws Exception {
+        for (Variant variant : Variant.values()) {
+            File encrypted = encrypt(variant);
+            File decrypted = folder.newFile();
+            FileCryptoEngine engine = new FileCryptoEngine(variant.options());
+            engine.decrypt(encrypted, decrypted, privateKey, FileCryptoEngine.ProgressListener.NONE);
+            assertArrayEquals(variant.toString(), plain, Files.readAllBytes(decrypted.toPath()));
+            engine.verify(encrypted, privateKey, FileCryptoEngine.ProgressListener.NONE);
+        }
+    }
+
+    private enum Variant {
+        CBC(FileHeader.MODE_CBC, 0),
+        CBC_PIPELINE(FileHeader.MODE_CBC, 3),
+        CTR(FileHeader.MODE_CTR, 0),
+        CTR_PIPELINE(FileHeader.MODE_CTR, 3);
+
+        final int mode;
+        final int pipelineDepth;
+
+        Variant(int mode, int pipelineDepth) {
+            this.mode = mode;
+            this.pipelineDepth = pipelineDepth;
+        }
+
+        FileCryptoOptions options() {
+            return new FileCryptoOptions()
+                    .setFormatVersion(FileHeader.VERSION_3)
+                    .setMode(mode)
+                    .setSegmentSize(SEGMENT_SIZE)
+                    .setPipelineDepth(pipelineDepth)
+                    .setSegmentPool(pool);
+        }
+    }
+
+    private File encrypt(Variant variant) throws Exception {
+        File input = folder.newFile();
+        File encrypted = folder.newFile();
+        Files.write(input.toPath(), plain);
+        new FileCryptoEngine(variant.options()).encrypt(input, encrypted, publicKey, FileCryptoEngine.ProgressListener.NONE);
+        return encrypted;
+    }
+
+    private static FileHeader readHeader(File encrypted) throws Exception {
+        byte[] bytes = Files.readAllBytes(encrypted.toPath());
+        return FileHeader.read(new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length);
+    }
+
+    private static void flip(RandomAccessFile raf, long position) throws Exception {
+        raf.seek(position);
+        int b = raf.read();
+        raf.seek(position);
+        raf.write(b ^ 0x01);
+    }
+
+    private static void truncate(File file, long length) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    /**
+     * 解密和校验都必须失败，解密输出只能是第badSegment段之前的明文
+     */
+    private void assertRejected(String name, File encrypted, int badSegment) throws Exception {
+        File decrypted = folder.newFile();
+        FileCryptoEngine engine = new FileCryptoEngine(new FileCryptoOptions().setSegmentPool(pool).setPipelineDepth(3));
+        try {
+            engine.decrypt(encrypted, decrypted, privateKey, FileCryptoEngine.ProgressListener.NONE);
+            fail(name + "：解密应失败");
+        } catch (Exception expected) {
+            // 预期失败
+        }
+        if (decrypted.exists()) {
+            byte[] output = Files.readAllBytes(decrypted.toPath());
+            assertTrue(name + "：写出了损坏分段及其后的明文（" + output.length + "字节）",
+                    output.length <= (long) badSegment * SEGMENT_SIZE);
+            assertArrayEquals(name, Arrays.copyOf(plain, output.length), output);
+        }
+        for (FileCryptoEngine verifier : new FileCryptoEngine[]{engine, new FileCryptoEngine(new FileCryptoOptions())}) {
+            try {
+                verifier.verify(encrypted, privateKey, FileCryptoEngine.ProgressListener.NONE);
+                fail(name + "：校验应失败");
+            } catch (Exception expected) {
+                // 预期失败
+            }
+        }
+    }
+}